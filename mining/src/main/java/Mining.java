@@ -3,8 +3,12 @@ import java.util.Random;
 
 import de.estadata.mining.datatransformation.BigMemory;
 import de.estadata.mining.graphmodel.Graph;
+import de.estadata.mining.modularityoptimizer.ModularityOptimizer;
 import de.estadata.mining.modularityoptimizer.ModularityOptimizer.Algorithm;
 import de.estadata.mining.modularityoptimizer.ModularityOptimizer.ModularityFunction;
+import de.estadata.mining.modularityoptimizer.Network;
+import de.estadata.mining.scan.EdgeKernel;
+import de.estadata.mining.scan.SCAN;
 import de.estadata.mining.stclustering.GraphClustering;
 import de.estadata.mining.stclustering.STFiltering;
 import de.estadata.mining.util.DataLoader;
@@ -90,9 +94,10 @@ public class Mining {
 							"");
 					meters = Integer.parseInt(metersAsString);
 					days = Integer.parseInt(daysAsString);
+					boolean useTimeSweep = ns.getString("partitioning").replace("[", "").replace("]", "").equals("sweep");
 					long start = System.currentTimeMillis();
 					STFiltering filtering = new STFiltering(databaseManager,
-							reportsCache, meters, days);
+							reportsCache, meters, days, useTimeSweep);
 					filtering.generateAndTransferClusters(clustersCache);
 					long end = System.currentTimeMillis();
 					long time = end - start;
@@ -105,6 +110,52 @@ public class Mining {
 							"No values for --meters or --days were provided");
 				}
 			} 
+			else if (mode.equals("sweep")) {
+				String thresholdsAsString = ns.getString("thresholds");
+				if (thresholdsAsString == null)
+					throw new IllegalStateException("Missing --thresholds for the filter sweep");
+				String[] pairs = thresholdsAsString.replace("[", "").replace("]", "").split(",");
+				int[] sweepMeters = new int[pairs.length];
+				int[] sweepDays = new int[pairs.length];
+				for (int i = 0; i < pairs.length; i++) {
+					String[] pair = pairs[i].trim().split(":");
+					if (pair.length != 2)
+						throw new IllegalArgumentException("Invalid threshold pair: " + pairs[i] + ". Must have the form METERS:DAYS");
+					sweepMeters[i] = Integer.parseInt(pair[0].trim());
+					sweepDays[i] = Integer.parseInt(pair[1].trim());
+				}
+				boolean mustShareCategory = Boolean.parseBoolean(ns.getString("share_category").replace("[", "").replace("]", ""));
+				String destFilePrefix = ns.getString("sweep_output").replace("[", "").replace("]", "");
+				
+				STFiltering filtering = new STFiltering(databaseManager, reportsCache, true);
+				long start = System.currentTimeMillis();
+				filtering.filterSweep(sweepMeters, sweepDays, mustShareCategory, destFilePrefix);
+				long end = System.currentTimeMillis();
+				System.out.println("Filter sweep took: " + (end - start) + " ms");
+			}
+			else if (mode.equals("scan_sweep")) {
+				String parametersAsString = ns.getString("scan_params");
+				if (parametersAsString == null)
+					throw new IllegalStateException("Missing --scan_params for the SCAN sweep");
+				String[] pairs = parametersAsString.replace("[", "").replace("]", "").split(",");
+				double[] epsilons = new double[pairs.length];
+				int[] mus = new int[pairs.length];
+				for (int i = 0; i < pairs.length; i++) {
+					String[] pair = pairs[i].trim().split(":");
+					if (pair.length != 2)
+						throw new IllegalArgumentException("Invalid parameter pair: " + pairs[i] + ". Must have the form EPS:MU");
+					epsilons[i] = Double.parseDouble(pair[0].trim());
+					mus[i] = Integer.parseInt(pair[1].trim());
+				}
+				String destFilePrefix = ns.getString("sweep_output").replace("[", "").replace("]", "");
+				
+				STFiltering filtering = new STFiltering(databaseManager, reportsCache, true);
+				GraphClustering clustering = new GraphClustering(filtering.getGraph(), reportsCache, clustersCache);
+				long start = System.currentTimeMillis();
+				clustering.runSCANSweep(epsilons, mus, destFilePrefix, filtering);
+				long end = System.currentTimeMillis();
+				System.out.println("SCAN sweep took: " + (end - start) + " ms");
+			}
 			else if (mode.equals("cluster")) {
 				STFiltering filtering = new STFiltering(databaseManager, reportsCache, true);
 				Graph graph = filtering.getGraph();
@@ -120,18 +171,38 @@ public class Mining {
 					algorithmName = algorithmName.toLowerCase().replace("[", "").replace("]", "");
 				}
 				
-				if(algorithmName.equals("scan")) {
+				if(algorithmName.equals("scan") || algorithmName.equals("pscan")) {
 					int mu = Integer.parseInt(ns.getString("mu"));
 					double epsilon = Double.parseDouble(ns.getString("eps"));
+					SCAN.Engine engine;
+					if(algorithmName.equals("pscan")) {
+						engine = SCAN.Engine.PRUNED;
+					} else {
+						engine = SCAN.Engine.valueOf(ns.getString("scan_engine").replace("[", "").replace("]", "").toUpperCase());
+					}
+					
+					EdgeKernel kernel;
+					String kernelName = ns.getString("scan_kernel").replace("[", "").replace("]", "");
+					int kernelMeters = Integer.parseInt(ns.getString("kernel_meters").replace("[", "").replace("]", ""));
+					int kernelDays = Integer.parseInt(ns.getString("kernel_days").replace("[", "").replace("]", ""));
+					if(kernelName.equals("none")) {
+						kernel = null;
+					} else if(kernelName.equals("category")) {
+						kernel = EdgeKernel.category();
+					} else if(kernelName.equals("linear")) {
+						kernel = EdgeKernel.linear(kernelMeters, kernelDays);
+					} else {
+						kernel = EdgeKernel.gaussian(kernelMeters, kernelDays);
+					}
 					
 					long start = System.currentTimeMillis();
-					clustering.runSCAN(epsilon, mu);
+					clustering.runSCAN(epsilon, mu, engine, kernel);
 					clustering.generateAndTransferClusters();
 					long end = System.currentTimeMillis();
 					long time = end - start;
 					System.out.println("Clustering with SCAN took: " + time + " ms");
 					
-				} else if(algorithmName.equals("louvain") || algorithmName.equals("louvain_mlv") || algorithmName.equals("slm")) {
+				} else if(algorithmName.equals("louvain") || algorithmName.equals("louvain_mlv") || algorithmName.equals("louvain_parallel") || algorithmName.equals("leiden") || algorithmName.equals("slm")) {
 					
 					ModularityFunction modFunc;
 					double resolution;
@@ -145,6 +216,8 @@ public class Mining {
 					String randomStartsAsString = ns.getString("random_starts").replace("[", "").replace("]", "");
 					String iterationsAsString 	= ns.getString("iterations").replace("[", "").replace("]", "");
 					String randomSeedAsString 	= ns.getString("random_seed").replace("[", "").replace("]", "");
+					boolean queueMoving 		= Boolean.parseBoolean(ns.getString("queue_moving").replace("[", "").replace("]", ""));
+					Network.WeightPrecision weightPrecision = Network.WeightPrecision.valueOf(ns.getString("weight_precision").replace("[", "").replace("]", "").toUpperCase());
 					
 					if(modFuncAsString != null) {
 						modFuncAsString = modFuncAsString.toLowerCase();
@@ -169,6 +242,10 @@ public class Mining {
 						algorithm = Algorithm.LOUVAIN;
 					} else if(algorithmName.equals("louvain_mlv")) {
 						algorithm = Algorithm.LOUVAIN_WITH_MULTILEVEL;
+					} else if(algorithmName.equals("louvain_parallel")) {
+						algorithm = Algorithm.PARALLEL_LOUVAIN;
+					} else if(algorithmName.equals("leiden")) {
+						algorithm = Algorithm.LEIDEN;
 					} else {
 						algorithm = Algorithm.SLM;
 					}
@@ -193,6 +270,9 @@ public class Mining {
 					}
 					
 					long start = System.currentTimeMillis();
+					ModularityOptimizer modOpt = clustering.getModularityOptimizer(filtering.getCSRGraph());
+					modOpt.setQueueMoving(queueMoving);
+					modOpt.setWeightPrecision(weightPrecision);
 					clustering.runModularityOptimizer(modFunc, resolution, algorithm, randomStarts, iterations, randomSeed);
 					clustering.generateAndTransferClusters();
 					long end = System.currentTimeMillis();
@@ -200,7 +280,7 @@ public class Mining {
 					System.out.println("Clustering step took: " + time + " ms");
 					
 				} else {
-					throw new IllegalArgumentException("Invalid algorithm name: " + algorithmName + ". Must be one of (scan | louvain | louvain_mlv | slm)");
+					throw new IllegalArgumentException("Invalid algorithm name: " + algorithmName + ". Must be one of (scan | pscan | louvain | louvain_mlv | louvain_parallel | leiden | slm)");
 				}
 			} else if(mode.equals("clean")) {
 				databaseManager.removeAllCaches();
@@ -233,24 +313,51 @@ public class Mining {
 				.setDefault("csv").help("the type of file to be loaded");
 		parser.addArgument("-r", "--ratio").nargs(1).help("ratio of the amount of data to be loaded").setDefault("1");
 
-		parser.addArgument("--mode").nargs(1).choices("filter", "cluster", "clean");
+		parser.addArgument("--mode").nargs(1).choices("filter", "sweep", "scan_sweep", "cluster", "clean");
 
 		// filtering arguments
 		parser.addArgument("-m", "--meters").nargs(1)
 				.help("distance in meters");
 		parser.addArgument("-d", "--days").nargs(1).help("distance in days");
+		parser.addArgument("--partitioning").nargs(1).choices("buckets", "sweep").setDefault("buckets")
+				.help("how the reports are split for parallel work (buckets | sweep). buckets: the time line is cut in buckets of --days days; " +
+						"sweep: the reports are sorted by creation time and compared within a sliding window of --days days, split in chunks of equal size. default: buckets");
 		parser.addArgument("-cf", "--config").nargs(1).help("config file");
 
+		// filter sweep arguments
+		parser.addArgument("--thresholds").nargs(1)
+				.help("comma-separated list of threshold pairs METERS:DAYS to filter the existing graph with, e.g. 50:7,100:14,100:30");
+		parser.addArgument("--share_category").nargs(1).choices("true", "false").setDefault("false")
+				.help("whether connected reports must share category in the filter sweep (true | false), default: false");
+		parser.addArgument("--sweep_output").nargs(1).setDefault("sweep")
+				.help("path prefix of the csv files written by the filter sweep, one per pair: PREFIX_METERSm_DAYSd.csv, " +
+						"or by the SCAN sweep: PREFIX_epsEPS_muMU.csv. default: sweep");
+
+		// SCAN sweep arguments
+		parser.addArgument("--scan_params").nargs(1)
+				.help("comma-separated list of SCAN parameter pairs EPS:MU to cluster the existing graph with, e.g. 0.5:2,0.6:3,0.7:3");
+
 		// clustering arguments
 		//clustering algorithm
-		parser.addArgument("--algorithm").nargs(1).choices("scan", "louvain", "louvain_mlv", "slm").help("the clustering algorithm to be run (scan | louvain | louvain_mlv | slm)." +
-				"If scan is chosen, --mu and --eps can be set. See the specific help for each argument or visit http://www.ualr.edu/xwxu/publications/kdd07.pdf for further information.\n" +
-				"If (louvain|louvain_mlv|slm) is chosen, --modularity, --modularity_function, --resolution, --random_starts, --iterations and --random_seed can be set. " +
+		parser.addArgument("--algorithm").nargs(1).choices("scan", "pscan", "louvain", "louvain_mlv", "louvain_parallel", "leiden", "slm").help("the clustering algorithm to be run (scan | pscan | louvain | louvain_mlv | louvain_parallel | leiden | slm)." +
+				"If scan or pscan (SCAN with pruned similarity checks, same result) is chosen, --mu and --eps can be set. See the specific help for each argument or visit http://www.ualr.edu/xwxu/publications/kdd07.pdf for further information.\n" +
+				"If (louvain|louvain_mlv|louvain_parallel|leiden|slm) is chosen, --modularity, --modularity_function, --resolution, --random_starts, --iterations and --random_seed can be set. " +
 				"See the help for each argument or visit http://www.ludowaltman.nl/slm/ for further information");
 		
 		//SCAN
 		parser.addArgument("--mu").nargs(1).setDefault("2").help("an integer > 0, default: 2");
 		parser.addArgument("--eps").nargs(1).setDefault("0.7").help("value in range [0, 1], default: 0.7");
+		parser.addArgument("--scan_engine").nargs(1).choices("basic", "cached", "parallel").setDefault("cached")
+				.help("the implementation SCAN is run with (basic | cached | parallel). basic: the original implementation on the graph's cache; " +
+						"cached: runs on an in-memory copy of the graph and computes the similarity of every edge only once; " +
+						"parallel: like cached, but with one thread per processor. default: cached");
+		
+		parser.addArgument("--scan_kernel").nargs(1).choices("none", "category", "linear", "gaussian").setDefault("none")
+				.help("the edge weights of the weighted structural similarity (none | category | linear | gaussian), supported by the cached and parallel engines. " +
+						"none: unweighted SCAN; category: the category similarity of the reports; linear: the category similarity times factors decreasing linearly up to " +
+						"--kernel_meters and --kernel_days; gaussian: the category similarity times a Gaussian with bandwidths --kernel_meters and --kernel_days. default: none");
+		parser.addArgument("--kernel_meters").nargs(1).setDefault("100").help("spatial scale of the linear and gaussian kernels in meters, default: 100");
+		parser.addArgument("--kernel_days").nargs(1).setDefault("30").help("temporal scale of the linear and gaussian kernels in days, default: 30");
 		
 		//Modularity
 		parser.addArgument("--modularity_function").nargs(1).choices("standard", "alternative").setDefault("standard").help("the modularity function to be used (standard | alternative), default: standard");
@@ -258,6 +365,10 @@ public class Mining {
 		parser.addArgument("--random_starts").nargs(1).setDefault("10").help("the number of randoms starts executed by the modularity-base clustering algorithm, default: 10");
 		parser.addArgument("--iterations").nargs(1).setDefault("10").help("the number of iterations per random start, default: 10");
 		parser.addArgument("--random_seed").nargs(1).help("seed of the random number generator, default: random").setDefault("" + new Random().nextLong());
+		parser.addArgument("--queue_moving").nargs(1).choices("true", "false").setDefault("false")
+				.help("whether louvain, louvain_mlv and slm only revisit the neighbors of moved nodes in the local moving (true | false), default: false");
+		parser.addArgument("--weight_precision").nargs(1).choices("double", "float", "short").setDefault("double")
+				.help("storage of the edge weights of the network for the modularity based algorithms (double | float | short), default: double");
 
 		// general arguments
 		parser.addArgument("-rc", "--reportscache")
@@ -269,7 +380,20 @@ public class Mining {
 				.setDefault("clustersCache")
 				.help("the name of the cache for the report clusters (default: 'clustersCache')");
 
-		return parser.parseArgs(args);
+		Namespace ns = parser.parseArgs(args);
+		
+		// The weighted structural similarity is only supported by the cached and parallel SCAN engines
+		String algorithmName = ns.getString("algorithm");
+		String kernelName = ns.getString("scan_kernel").replace("[", "").replace("]", "");
+		if (algorithmName != null && !kernelName.equals("none")) {
+			algorithmName = algorithmName.toLowerCase().replace("[", "").replace("]", "");
+			String engineName = ns.getString("scan_engine").replace("[", "").replace("]", "");
+			if (algorithmName.equals("pscan") || (algorithmName.equals("scan") && engineName.equals("basic")))
+				throw new ArgumentParserException("--scan_kernel " + kernelName + " is not supported by "
+						+ (algorithmName.equals("pscan") ? "pscan" : "the basic SCAN engine")
+						+ ". Use --algorithm scan with --scan_engine cached or parallel", parser);
+		}
+		return ns;
 	}
 	
 	private static final String help = "This document provides a quick overview of the functionality of the .jar executable mining.jar, which\n" +
@@ -58,9 +58,33 @@ public class Cluster implements Serializable {
 	@SerializedName("lng")
 	public double lonCenter;
 
+	// Rows of the reports in a ReportStore, in the same order as the reports (not stored in the cache)
+	private transient ReportStore store;
+	private transient int[] rows;
+
 	public Cluster(List<Report> list, int clusterLabel) {
+		this(list, clusterLabel, null);
+	}
+
+	/**
+	 * Constructs a cluster whose coordinates and creation times are read from the columns of a {@link ReportStore}
+	 * instead of the Report instances. The reports are still kept for the export of their texts and dates.
+	 * @param list the reports of the cluster.
+	 * @param clusterLabel the cluster ID.
+	 * @param store the store containing the reports. If null, the attributes are read from the reports.
+	 */
+	public Cluster(List<Report> list, int clusterLabel, ReportStore store) {
 		this.reports = list;
 		this.clusterLabel = clusterLabel;
+		if (store != null) {
+			this.store = store;
+			this.rows = new int[list.size()];
+			for (int i = 0; i < rows.length; i++) {
+				rows[i] = store.getRow(list.get(i).getID());
+				if (rows[i] == -1)
+					throw new IllegalArgumentException("Report " + list.get(i).getID() + " is not in the report store");
+			}
+		}
 		this.minTime = minTime();
 		this.maxTime = maxTime();
 		this.latCenter = latCenter();
@@ -73,6 +97,11 @@ public class Cluster implements Serializable {
 
 	public double latCenter() {
 		double latSum = 0;
+		if (rows != null) {
+			for (int row : rows)
+				latSum += store.getLat(row);
+			return latSum / size();
+		}
 		for (Report point : reports) {
 			latSum += point.getLat();
 		}
@@ -81,6 +110,11 @@ public class Cluster implements Serializable {
 
 	public double lonCenter() {
 		double lonSum = 0;
+		if (rows != null) {
+			for (int row : rows)
+				lonSum += store.getLon(row);
+			return lonSum / size();
+		}
 		for (Report point : reports) {
 			lonSum += point.getLon();
 		}
@@ -89,6 +123,11 @@ public class Cluster implements Serializable {
 
 	public long minTime() {
 		long mintime = Long.MAX_VALUE;
+		if (rows != null) {
+			for (int row : rows)
+				mintime = Math.min(mintime, store.getCreationTime(row));
+			return mintime;
+		}
 		for (Report point : reports) {
 			if (point.getCreationTime() < mintime)
 				mintime = point.getCreationTime();
@@ -98,6 +137,11 @@ public class Cluster implements Serializable {
 
 	public long maxTime() {
 		long maxtime = Long.MIN_VALUE;
+		if (rows != null) {
+			for (int row : rows)
+				maxtime = Math.max(maxtime, store.getCreationTime(row));
+			return maxtime;
+		}
 		for (Report point : reports) {
 			if (point.getCreationTime() > maxtime)
 				maxtime = point.getCreationTime();
@@ -191,6 +235,8 @@ public class Cluster implements Serializable {
 
 	public void setPoints(ArrayList<Report> points) {
 		this.reports = points;
+		this.store = null;
+		this.rows = null;
 	}
 
 	public int getLabel() {
@@ -7,11 +7,8 @@ import net.sf.ehcache.CacheManager;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ExecutionException;
 
 public class DoAnalysis {
@@ -68,37 +65,38 @@ public class DoAnalysis {
 	public List<Report> recommendation(Report centerReport, int spatialDistance, int temporalDistance, boolean mustShareCategory) {
 		if(spatialDistance < 0 || spatialDistance > maxSpaceDist || temporalDistance < 0 || temporalDistance > maxTimeDist) 
 			throw new IllegalArgumentException("One or more of the spatio/temporal arguments is invalid");
-		Graph graph = filtering.getGraph();
-		if(graph.getNode(centerReport.getID()) == null)
+		CSRGraph graph = filtering.getCSRGraph();
+		int center = graph.getOrdinal(centerReport.getID());
+		if(center == -1)
 			throw new IllegalArgumentException("No node corresponding to the given report could be found");
 		
 		List<Report> recommendation = new ArrayList<Report>();
-		Map<Integer, Integer> visitedNodes = new HashMap<Integer, Integer>();
-		LinkedList<Node> queue = new LinkedList<Node>();
+		boolean[] visitedNodes = new boolean[graph.getNodeCount()];
+		List<Integer> visitedIDs = new ArrayList<Integer>();
+		LinkedList<Integer> queue = new LinkedList<Integer>();
 		
-		queue.add(graph.getNode(centerReport.getID()));
+		queue.add(center);
+		visitedNodes[center] = true;
 		while(!queue.isEmpty()) {
-			Node n1 = queue.poll();
-			if(!visitedNodes.containsKey(n1.getID())) {
-				visitedNodes.put(n1.getID(), n1.getID());
-				for(Integer id : n1.getAdjacentEdgesIDs()) {
-					Edge e = graph.getEdge(id);
-					if(mustShareCategory && !e.isSameCategory())
-						continue;
-					int spaceDist = e.getSpaceDist();
-					int timeDist = e.getTimeDist();
-					
-					if(spaceDist <= spatialDistance && timeDist <= temporalDistance) {
-						queue.add(graph.getNode(e.getOtherEndID(n1)));
-					}
+			int n1 = queue.poll();
+			if(n1 != center)
+				visitedIDs.add(graph.getNodeID(n1));
+			for(int slot = graph.getFirstSlot(n1); slot < graph.getEndSlot(n1); slot++) {
+				if(mustShareCategory && !graph.isSameCategory(slot))
+					continue;
+				int spaceDist = graph.getSpaceDist(slot);
+				int timeDist = graph.getTimeDist(slot);
+				int n2 = graph.getTarget(slot);
+				
+				if(spaceDist <= spatialDistance && timeDist <= temporalDistance && !visitedNodes[n2]) {
+					visitedNodes[n2] = true;
+					queue.add(n2);
 				}
 			}
 		}
 		
-		for(Entry<Integer, Integer> entry : visitedNodes.entrySet()) {
-			if(entry.getKey() != centerReport.getID()) {
-				recommendation.add((Report)pointsCache.get(entry.getKey()).getObjectValue());
-			}
+		for(Integer id : visitedIDs) {
+			recommendation.add((Report)pointsCache.get(id).getObjectValue());
 		}
 		
 		return recommendation;
@@ -0,0 +1,381 @@
+package de.estadata.mining.datatransformation;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import de.estadata.mining.util.MiningTools;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+/**
+ * This class stores the attributes of a set of {@link Report}s needed during the ST-filtering (coordinates, creation time
+ * and category) and the evaluation (whether a report is a duplicate) in primitive arrays, one entry per report. Each report
+ * is associated with a row, and the rows are sorted by creation time. Categories are stored as IDs referring to a
+ * dictionary of the distinct category strings.
+ * <p>
+ * The store is built once from the Terracotta cache containing the reports, so that the comparison of reports does not
+ * need to fetch (and deserialize) complete Report instances from the cache. It can be stored in a cache of its own and
+ * loaded later on, so that the reports are read only once (see {@link #save(Cache)} and {@link #load(Cache)}).
+ */
+public class ReportStore {
+	// Similarities between categories are precomputed if there are at most this many distinct categories
+	private static final int maxPrecomputedCategories = 1024;
+	private static final int chunkSize = 10000;
+	private static final String headerKey = "header";
+	private static final String categoriesKey = "categories";
+
+	private int size;
+	private int[] id;
+	private double[] lat;
+	private double[] lon;
+	private long[] time;
+	private int[] categoryID;
+	private BitSet duplicate;
+	private Map<Integer, Integer> rowOfID;		//key: report ID;	value: row
+
+	private String[] categories;
+	private int[] lowerCaseCategoryID;			//equal values for categories that only differ in case
+	private double[][] categorySimilarity;
+
+	/**
+	 * Constructs a store containing all reports in the given cache.
+	 * @param reportsCache the Terracotta cache containing the reports.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public ReportStore(Cache reportsCache) throws InterruptedException, ExecutionException {
+		this(reportsCache, null);
+	}
+
+	/**
+	 * Constructs a store containing a subset of the reports in the given cache.
+	 * @param reportsCache the Terracotta cache containing the reports.
+	 * @param reportIDs the IDs of the reports to be stored. If null, all reports in the cache are stored.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	@SuppressWarnings("unchecked")
+	public ReportStore(final Cache reportsCache, List<Integer> reportIDs) throws InterruptedException, ExecutionException {
+		final List<Integer> keys = (reportIDs != null) ? reportIDs : (List<Integer>) reportsCache.getKeys();
+		size = keys.size();
+
+		final int[] unsortedID = new int[size];
+		final double[] unsortedLat = new double[size];
+		final double[] unsortedLon = new double[size];
+		final long[] unsortedTime = new long[size];
+		final String[] unsortedCategory = new String[size];
+		final boolean[] unsortedDuplicate = new boolean[size];
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(processors);
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		for (int lowerBound = 0; lowerBound < size; lowerBound += chunkSize) {
+			final int finalLowerBound = lowerBound;
+			final int finalUpperBound = Math.min(lowerBound + chunkSize, size);
+			Future<Integer> f = pool.submit(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					List<Report> reports = MiningTools.getCacheObjectsAsList(reportsCache, Report.class,
+							keys.subList(finalLowerBound, finalUpperBound));
+					int i = finalLowerBound;
+					for (Report r : reports) {
+						unsortedID[i] = r.getID();
+						unsortedLat[i] = r.getLat();
+						unsortedLon[i] = r.getLon();
+						unsortedTime[i] = r.getCreationTime();
+						unsortedCategory[i] = r.getCategory();
+						unsortedDuplicate[i] = r.isDuplicate();
+						i++;
+					}
+					return i - finalLowerBound;
+				}
+			});
+			futures.add(f);
+		}
+		int total = 0;
+		try {
+			for (Future<Integer> f : futures)
+				total += f.get();
+		} finally {
+			pool.shutdown();
+		}
+		if (total != size)
+			throw new IllegalStateException("Expected " + size + " reports, but found " + total + " in cache " + reportsCache.getName());
+
+		int[] order = new int[size];
+		for (int i = 0; i < size; i++)
+			order[i] = i;
+		sortByTime(order, unsortedTime);
+
+		id = new int[size];
+		lat = new double[size];
+		lon = new double[size];
+		time = new long[size];
+		categoryID = new int[size];
+		duplicate = new BitSet(size);
+		rowOfID = new HashMap<Integer, Integer>(2 * size);
+		Map<String, Integer> categoryIDs = new HashMap<String, Integer>();
+		List<String> categoryList = new ArrayList<String>();
+		for (int row = 0; row < size; row++) {
+			int i = order[row];
+			id[row] = unsortedID[i];
+			lat[row] = unsortedLat[i];
+			lon[row] = unsortedLon[i];
+			time[row] = unsortedTime[i];
+			Integer category = categoryIDs.get(unsortedCategory[i]);
+			if (category == null) {
+				category = categoryList.size();
+				categoryIDs.put(unsortedCategory[i], category);
+				categoryList.add(unsortedCategory[i]);
+			}
+			categoryID[row] = category;
+			duplicate.set(row, unsortedDuplicate[i]);
+			if (rowOfID.put(id[row], row) != null)
+				throw new IllegalStateException("Report ID " + id[row] + " appears more than once");
+		}
+		initializeCategories(categoryList);
+	}
+
+	private ReportStore() {
+	}
+
+	/**
+	 * Returns the number of reports in the store.
+	 * @return the number of reports in the store.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Returns the row of the report with a given ID.
+	 * @param reportID the ID of the report.
+	 * @return the row of the report, or -1 if the report is not in the store.
+	 */
+	public int getRow(int reportID) {
+		Integer row = rowOfID.get(reportID);
+		return (row != null) ? row : -1;
+	}
+
+	/**
+	 * Returns the ID of the report stored in a given row.
+	 * @param row the row.
+	 * @return the ID of the report.
+	 */
+	public int getID(int row) {
+		return id[row];
+	}
+
+	public double getLat(int row) {
+		return lat[row];
+	}
+
+	public double getLon(int row) {
+		return lon[row];
+	}
+
+	public long getCreationTime(int row) {
+		return time[row];
+	}
+
+	public String getCategory(int row) {
+		return categories[categoryID[row]];
+	}
+
+	/**
+	 * Tests whether the report of a row is marked as a duplicate (i.e. the ground truth used by {@link de.estadata.mining.util.Evaluation}).
+	 * @param row the row.
+	 * @return true, if the report is a duplicate, false otherwise.
+	 */
+	public boolean isDuplicate(int row) {
+		return duplicate.get(row);
+	}
+
+	/**
+	 * Tests whether at least one report is marked as a duplicate, i.e. whether the reports come with a ground truth.
+	 * @return true, if at least one report is a duplicate, false otherwise.
+	 */
+	public boolean hasDuplicates() {
+		return !duplicate.isEmpty();
+	}
+
+	/**
+	 * Returns the report IDs of all rows. The returned array must not be modified.
+	 * @return the report IDs of all rows.
+	 */
+	public int[] getIDs() {
+		return id;
+	}
+
+	/**
+	 * Returns the latitudes of all rows. The returned array must not be modified.
+	 * @return the latitudes of all rows.
+	 */
+	public double[] getLats() {
+		return lat;
+	}
+
+	/**
+	 * Returns the longitudes of all rows. The returned array must not be modified.
+	 * @return the longitudes of all rows.
+	 */
+	public double[] getLons() {
+		return lon;
+	}
+
+	/**
+	 * Returns the creation times (in milliseconds) of all rows, which are sorted in ascending order. The returned array
+	 * must not be modified.
+	 * @return the creation times of all rows.
+	 */
+	public long[] getCreationTimes() {
+		return time;
+	}
+
+	/**
+	 * Returns the category IDs of all rows. The returned array must not be modified.
+	 * @return the category IDs of all rows.
+	 */
+	public int[] getCategoryIDs() {
+		return categoryID;
+	}
+
+	/**
+	 * Computes the spatial distance in meters between the reports of two rows (see {@link MiningTools#getSpaceDistance(Report, Report)}).
+	 * @param row1 the first row.
+	 * @param row2 the second row.
+	 * @return the spatial distance in meters (rounded down).
+	 */
+	public int getSpaceDistance(int row1, int row2) {
+		return MiningTools.getSpaceDistance(lat[row1], lon[row1], lat[row2], lon[row2]);
+	}
+
+	/**
+	 * Tests whether the reports of two rows share the same category, ignoring case.
+	 * @param row1 the first row.
+	 * @param row2 the second row.
+	 * @return true, if both categories are equal ignoring case, false otherwise.
+	 */
+	public boolean isSameCategory(int row1, int row2) {
+		return lowerCaseCategoryID[categoryID[row1]] == lowerCaseCategoryID[categoryID[row2]];
+	}
+
+	/**
+	 * Returns the Levenshtein similarity between the categories of two rows (see {@link MiningTools#getLevenshteinSimilarity(String, String)}).
+	 * @param row1 the first row.
+	 * @param row2 the second row.
+	 * @return a value in range [0,1], where values close to the 1 mean high similarity.
+	 */
+	public double getCategorySimilarity(int row1, int row2) {
+		int c1 = categoryID[row1];
+		int c2 = categoryID[row2];
+		if (categorySimilarity != null)
+			return categorySimilarity[c1][c2];
+		return MiningTools.getLevenshteinSimilarity(categories[c1], categories[c2]);
+	}
+
+	/**
+	 * Stores the report store in an empty cache, split in chunks.
+	 * @param cache the cache.
+	 */
+	public void save(Cache cache) {
+		long start = System.currentTimeMillis();
+		long[] duplicateWords = duplicate.toLongArray();
+		cache.put(new Element(headerKey, new int[] { size, duplicateWords.length }));
+		cache.put(new Element(categoriesKey, categories));
+		MiningTools.putChunks(cache, "id", id);
+		MiningTools.putChunks(cache, "lat", lat);
+		MiningTools.putChunks(cache, "lon", lon);
+		MiningTools.putChunks(cache, "time", time);
+		MiningTools.putChunks(cache, "categoryID", categoryID);
+		MiningTools.putChunks(cache, "duplicate", duplicateWords);
+		long end = System.currentTimeMillis();
+		System.out.println("Storing the report store took: " + (end - start) + " ms");
+	}
+
+	/**
+	 * Loads a report store stored through {@link #save(Cache)}.
+	 * @param cache the cache.
+	 * @return the report store, or null if the cache does not contain one.
+	 */
+	public static ReportStore load(Cache cache) {
+		Element header = cache.get(headerKey);
+		if (header == null)
+			return null;
+		long start = System.currentTimeMillis();
+		int[] sizes = (int[]) header.getObjectValue();
+		ReportStore store = new ReportStore();
+		store.size = sizes[0];
+		store.id = (int[]) MiningTools.getChunks(cache, "id", new int[sizes[0]]);
+		store.lat = (double[]) MiningTools.getChunks(cache, "lat", new double[sizes[0]]);
+		store.lon = (double[]) MiningTools.getChunks(cache, "lon", new double[sizes[0]]);
+		store.time = (long[]) MiningTools.getChunks(cache, "time", new long[sizes[0]]);
+		store.categoryID = (int[]) MiningTools.getChunks(cache, "categoryID", new int[sizes[0]]);
+		store.duplicate = BitSet.valueOf((long[]) MiningTools.getChunks(cache, "duplicate", new long[sizes[1]]));
+		store.rowOfID = new HashMap<Integer, Integer>(2 * store.size);
+		for (int row = 0; row < store.size; row++)
+			store.rowOfID.put(store.id[row], row);
+		Element categories = cache.get(categoriesKey);
+		if (categories == null)
+			throw new IllegalStateException("The categories are missing in cache " + cache.getName());
+		store.initializeCategories(Arrays.asList((String[]) categories.getObjectValue()));
+		long end = System.currentTimeMillis();
+		System.out.println("Loading the report store took: " + (end - start) + " ms");
+		return store;
+	}
+
+	private void initializeCategories(List<String> categoryList) {
+		categories = categoryList.toArray(new String[categoryList.size()]);
+
+		lowerCaseCategoryID = new int[categories.length];
+		Map<String, Integer> lowerCaseIDs = new HashMap<String, Integer>();
+		for (int i = 0; i < categories.length; i++) {
+			String lowerCase = categories[i].toLowerCase();
+			Integer lowerCaseID = lowerCaseIDs.get(lowerCase);
+			if (lowerCaseID == null) {
+				lowerCaseID = lowerCaseIDs.size();
+				lowerCaseIDs.put(lowerCase, lowerCaseID);
+			}
+			lowerCaseCategoryID[i] = lowerCaseID;
+		}
+
+		if (categories.length <= maxPrecomputedCategories) {
+			categorySimilarity = new double[categories.length][categories.length];
+			for (int i = 0; i < categories.length; i++) {
+				for (int j = i; j < categories.length; j++) {
+					double similarity = MiningTools.getLevenshteinSimilarity(categories[i], categories[j]);
+					categorySimilarity[i][j] = similarity;
+					categorySimilarity[j][i] = similarity;
+				}
+			}
+		}
+	}
+
+	// Stable merge sort of the positions in 'order' by their time
+	private static void sortByTime(int[] order, long[] time) {
+		int[] buffer = new int[order.length];
+		for (int width = 1; width < order.length; width *= 2) {
+			for (int left = 0; left < order.length; left += 2 * width) {
+				int middle = Math.min(left + width, order.length);
+				int right = Math.min(left + 2 * width, order.length);
+				int i = left, j = middle, k = left;
+				while (i < middle && j < right)
+					buffer[k++] = (time[order[j]] < time[order[i]]) ? order[j++] : order[i++];
+				while (i < middle)
+					buffer[k++] = order[i++];
+				while (j < right)
+					buffer[k++] = order[j++];
+			}
+			System.arraycopy(buffer, 0, order, 0, order.length);
+		}
+	}
+}
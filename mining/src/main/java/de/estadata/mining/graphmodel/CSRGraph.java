@@ -0,0 +1,462 @@
+package de.estadata.mining.graphmodel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+import de.estadata.mining.util.MiningTools;
+
+/**
+ * This class models an immutable undirected graph in compressed sparse row (CSR) format. Nodes are referenced by their
+ * ordinal, i.e. their position in the ascending list of node IDs. Every undirected edge is stored twice, once in the row of
+ * each of its ends, and each of these entries is called a slot: the slots of the node with ordinal v are
+ * [getFirstSlot(v), getEndSlot(v)), and they are sorted by the ordinal of the neighbor they point to.
+ * <p>
+ * Next to the neighbor, each slot stores the attributes of its {@link Edge}: ID, weight, spatial distance, temporal distance
+ * and whether both ends share category. Spatial and temporal distances are stored as unsigned 16-bit values: distances
+ * above 65535 are saturated, i.e. a stored distance of 65535 ({@link #MAX_DISTANCE}) means "65535 or more".
+ * <p>
+ * In contrast to {@link Graph}, traversing the graph does not involve any cache lookups, which makes this class suitable
+ * for algorithms visiting every edge several times (e.g. SCAN, modularity optimization or connected components). A CSR
+ * graph can be stored in a cache and loaded later on, together with its mapping between node IDs and ordinals, so that the
+ * graph's caches are read only once (see {@link #save(Cache)} and {@link #load(Cache)}).
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class CSRGraph {
+	/**
+	 * The largest spatial or temporal distance that can be stored. Larger distances are stored as this value.
+	 */
+	public static final int MAX_DISTANCE = 0xFFFF;
+
+	private static final int chunkSize = 10000;
+	private static final String headerKey = "header";
+	private static final int formatVersion = 2;		//2: double weights
+
+	private int nodeCount;
+	private int[] nodeIDs;			//key: ordinal;	value: node ID (sorted)
+	private int[] offsets;			//key: ordinal;	value: first slot of the node
+	private int[] targets;			//key: slot;	value: ordinal of the neighbor
+	private int[] edgeIDs;
+	private double[] weight;
+	private short[] spaceDist;
+	private short[] timeDist;
+	private BitSet sameCategory;
+
+	private CSRGraph() {
+	}
+
+	/**
+	 * Constructs a CSR graph containing all nodes and edges of a {@link Graph}.
+	 * @param graph the graph to be copied.
+	 * @return the CSR graph.
+	 */
+	public static CSRGraph fromGraph(Graph graph) {
+		return fromGraph(graph, null);
+	}
+
+	/**
+	 * Constructs a CSR graph containing all nodes of a {@link Graph} and those of its edges contained in a {@link GraphView}.
+	 * Edges are read from the graph's cache in chunks, so that no more than a chunk of {@link Edge} instances is kept in memory.
+	 * @param graph the graph to be copied.
+	 * @param view the view containing the IDs of the edges to be copied. If null, all edges are copied.
+	 * @return the CSR graph.
+	 */
+	public static CSRGraph fromGraph(Graph graph, GraphView view) {
+		int[] nodeIDs = new int[graph.getNodeCount()];
+		int i = 0;
+		for (int id : graph.getNodeIDs())
+			nodeIDs[i++] = id;
+
+		EdgeList edgeList = new EdgeList(graph.getEdgeCount());
+		List<Integer> keys = new ArrayList<Integer>(chunkSize);
+		for (int id : graph.getEdgeIDs()) {
+			if (view != null && !view.containsEdgeID(id))
+				continue;
+			keys.add(id);
+			if (keys.size() == chunkSize) {
+				edgeList.addAll(graph.getEdges(keys));
+				keys.clear();
+			}
+		}
+		if (!keys.isEmpty())
+			edgeList.addAll(graph.getEdges(keys));
+
+		return build(nodeIDs, edgeList);
+	}
+
+	/**
+	 * Constructs a CSR graph from a set of node IDs and a list of edges between them, as generated by the ST-filtering.
+	 * As in {@link Graph#addEdge(Edge)}, only the first of several edges between the same pair of nodes is kept.
+	 * @param nodeIDs the IDs of the nodes.
+	 * @param edges the edges.
+	 * @return the CSR graph.
+	 * @throws IllegalArgumentException if a node ID appears twice or an edge has an end that is not in the given node IDs.
+	 */
+	public static CSRGraph fromEdges(int[] nodeIDs, List<Edge> edges) {
+		EdgeList edgeList = new EdgeList(edges.size());
+		edgeList.addAll(edges);
+		return build(nodeIDs.clone(), edgeList);
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return the number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the number of (undirected) edges, i.e. half the number of slots.
+	 * @return the number of edges.
+	 */
+	public int getEdgeCount() {
+		return targets.length / 2;
+	}
+
+	/**
+	 * Returns the ID of the node with a given ordinal.
+	 * @param ordinal the ordinal of the node.
+	 * @return the ID of the node.
+	 */
+	public int getNodeID(int ordinal) {
+		return nodeIDs[ordinal];
+	}
+
+	/**
+	 * Returns the ordinal of the node with a given ID.
+	 * @param nodeID the ID of the node.
+	 * @return the ordinal of the node, or -1 if there is no node with such ID.
+	 */
+	public int getOrdinal(int nodeID) {
+		int ordinal = Arrays.binarySearch(nodeIDs, 0, nodeCount, nodeID);
+		return (ordinal >= 0) ? ordinal : -1;
+	}
+
+	/**
+	 * Returns the number of neighbors of a node.
+	 * @param ordinal the ordinal of the node.
+	 * @return the degree of the node.
+	 */
+	public int getDegree(int ordinal) {
+		return offsets[ordinal + 1] - offsets[ordinal];
+	}
+
+	/**
+	 * Returns the first slot of a node.
+	 * @param ordinal the ordinal of the node.
+	 * @return the first slot (inclusive) of the node.
+	 */
+	public int getFirstSlot(int ordinal) {
+		return offsets[ordinal];
+	}
+
+	/**
+	 * Returns the last slot of a node.
+	 * @param ordinal the ordinal of the node.
+	 * @return the last slot (exclusive) of the node.
+	 */
+	public int getEndSlot(int ordinal) {
+		return offsets[ordinal + 1];
+	}
+
+	/**
+	 * Returns the ordinal of the neighbor a slot points to.
+	 * @param slot the slot.
+	 * @return the ordinal of the neighbor.
+	 */
+	public int getTarget(int slot) {
+		return targets[slot];
+	}
+
+	/**
+	 * Returns the ID of the {@link Edge} a slot was built from, or -1 if the edge had no ID.
+	 * @param slot the slot.
+	 * @return the ID of the edge.
+	 */
+	public int getEdgeID(int slot) {
+		return edgeIDs[slot];
+	}
+
+	public double getWeight(int slot) {
+		return weight[slot];
+	}
+
+	/**
+	 * Returns the spatial distance (in meters) of the edge of a slot.
+	 * @param slot the slot.
+	 * @return the spatial distance, or {@link #MAX_DISTANCE} if it is {@link #MAX_DISTANCE} or more.
+	 */
+	public int getSpaceDist(int slot) {
+		return spaceDist[slot] & MAX_DISTANCE;
+	}
+
+	/**
+	 * Returns the temporal distance (in days) of the edge of a slot.
+	 * @param slot the slot.
+	 * @return the temporal distance, or {@link #MAX_DISTANCE} if it is {@link #MAX_DISTANCE} or more.
+	 */
+	public int getTimeDist(int slot) {
+		return timeDist[slot] & MAX_DISTANCE;
+	}
+
+	public boolean isSameCategory(int slot) {
+		return sameCategory.get(slot);
+	}
+
+	/**
+	 * Searches the slot of the edge between two nodes.
+	 * @param source the ordinal of the first node.
+	 * @param target the ordinal of the second node.
+	 * @return the slot in the row of the first node pointing to the second node, or -1 if both nodes are not neighbors.
+	 */
+	public int findSlot(int source, int target) {
+		int slot = Arrays.binarySearch(targets, offsets[source], offsets[source + 1], target);
+		return (slot >= 0) ? slot : -1;
+	}
+
+	/**
+	 * Returns the slot storing the same edge as a given slot in the row of the other end.
+	 * @param source the ordinal of the node the given slot belongs to.
+	 * @param slot the slot.
+	 * @return the reverse slot.
+	 */
+	public int getReverseSlot(int source, int slot) {
+		return findSlot(targets[slot], source);
+	}
+
+	/**
+	 * Returns the node IDs of all ordinals. The returned array must not be modified.
+	 * @return the node IDs.
+	 */
+	public int[] getNodeIDs() {
+		return nodeIDs;
+	}
+
+	/**
+	 * Returns the first slot of every ordinal, followed by the total number of slots. The returned array must not be modified.
+	 * @return the offsets of all rows.
+	 */
+	public int[] getOffsets() {
+		return offsets;
+	}
+
+	/**
+	 * Returns the neighbor ordinals of all slots. The returned array must not be modified.
+	 * @return the targets of all slots.
+	 */
+	public int[] getTargets() {
+		return targets;
+	}
+
+	/**
+	 * Returns the edge weights of all slots, which are exactly those of the edges. The returned array must not be modified.
+	 * @return the weights of all slots.
+	 */
+	public double[] getWeights() {
+		return weight;
+	}
+
+	/**
+	 * Stores the graph in an empty cache, split in chunks.
+	 * @param cache the cache.
+	 */
+	public void save(Cache cache) {
+		long start = System.currentTimeMillis();
+		long[] sameCategoryWords = sameCategory.toLongArray();
+		cache.put(new Element(headerKey, new int[] { nodeCount, targets.length, sameCategoryWords.length, formatVersion }));
+		MiningTools.putChunks(cache, "nodeIDs", nodeIDs);
+		MiningTools.putChunks(cache, "offsets", offsets);
+		MiningTools.putChunks(cache, "targets", targets);
+		MiningTools.putChunks(cache, "edgeIDs", edgeIDs);
+		MiningTools.putChunks(cache, "weight", weight);
+		MiningTools.putChunks(cache, "spaceDist", spaceDist);
+		MiningTools.putChunks(cache, "timeDist", timeDist);
+		MiningTools.putChunks(cache, "sameCategory", sameCategoryWords);
+		long end = System.currentTimeMillis();
+		System.out.println("Storing the CSR graph took: " + (end - start) + " ms");
+	}
+
+	/**
+	 * Loads a graph stored through {@link #save(Cache)}.
+	 * @param cache the cache.
+	 * @return the graph, or null if the cache does not contain one or contains one stored in an earlier format.
+	 */
+	public static CSRGraph load(Cache cache) {
+		Element header = cache.get(headerKey);
+		if (header == null)
+			return null;
+		int[] sizes = (int[]) header.getObjectValue();
+		if (sizes.length < 4 || sizes[3] != formatVersion)
+			return null;
+		long start = System.currentTimeMillis();
+		CSRGraph csr = new CSRGraph();
+		csr.nodeCount = sizes[0];
+		csr.nodeIDs = (int[]) MiningTools.getChunks(cache, "nodeIDs", new int[sizes[0]]);
+		csr.offsets = (int[]) MiningTools.getChunks(cache, "offsets", new int[sizes[0] + 1]);
+		csr.targets = (int[]) MiningTools.getChunks(cache, "targets", new int[sizes[1]]);
+		csr.edgeIDs = (int[]) MiningTools.getChunks(cache, "edgeIDs", new int[sizes[1]]);
+		csr.weight = (double[]) MiningTools.getChunks(cache, "weight", new double[sizes[1]]);
+		csr.spaceDist = (short[]) MiningTools.getChunks(cache, "spaceDist", new short[sizes[1]]);
+		csr.timeDist = (short[]) MiningTools.getChunks(cache, "timeDist", new short[sizes[1]]);
+		csr.sameCategory = BitSet.valueOf((long[]) MiningTools.getChunks(cache, "sameCategory", new long[sizes[2]]));
+		long end = System.currentTimeMillis();
+		System.out.println("Loading the CSR graph took: " + (end - start) + " ms");
+		return csr;
+	}
+
+	private static CSRGraph build(int[] nodeIDs, EdgeList edges) {
+		Arrays.sort(nodeIDs);
+		for (int i = 1; i < nodeIDs.length; i++) {
+			if (nodeIDs[i] == nodeIDs[i - 1])
+				throw new IllegalArgumentException("Node ID " + nodeIDs[i] + " appears more than once");
+		}
+
+		CSRGraph csr = new CSRGraph();
+		csr.nodeCount = nodeIDs.length;
+		csr.nodeIDs = nodeIDs;
+
+		// Both directions of every edge, self-loops excluded
+		int n = edges.size;
+		int[] arcSource = new int[2 * n];
+		int[] arcTarget = new int[2 * n];
+		int[] arcEdge = new int[2 * n];
+		int arcs = 0;
+		for (int k = 0; k < n; k++) {
+			int source = csr.getOrdinal(edges.source[k]);
+			int target = csr.getOrdinal(edges.target[k]);
+			if (source == -1 || target == -1)
+				throw new IllegalArgumentException("Edge between " + edges.source[k] + " and " + edges.target[k]
+						+ " has an end that is not in the graph");
+			if (source == target)
+				continue;
+			arcSource[arcs] = source;
+			arcTarget[arcs] = target;
+			arcEdge[arcs++] = k;
+			arcSource[arcs] = target;
+			arcTarget[arcs] = source;
+			arcEdge[arcs++] = k;
+		}
+
+		// Group the arcs by target, then scatter them into the rows of their sources in ascending target order, so that
+		// each row ends up sorted by target and, for equal targets, by edge index.
+		int[] byTarget = groupBy(arcTarget, arcs, csr.nodeCount);
+		int[] rowStart = new int[csr.nodeCount + 1];
+		for (int a = 0; a < arcs; a++)
+			rowStart[arcSource[a] + 1]++;
+		for (int v = 0; v < csr.nodeCount; v++)
+			rowStart[v + 1] += rowStart[v];
+		int[] next = Arrays.copyOf(rowStart, csr.nodeCount);
+		int[] sorted = new int[arcs];
+		for (int a : byTarget)
+			sorted[next[arcSource[a]]++] = a;
+
+		// Keep only the first of several edges between the same pair of nodes
+		csr.offsets = new int[csr.nodeCount + 1];
+		int slots = 0;
+		for (int v = 0; v < csr.nodeCount; v++) {
+			csr.offsets[v] = slots;
+			for (int p = rowStart[v]; p < rowStart[v + 1]; p++) {
+				if (p > rowStart[v] && arcTarget[sorted[p]] == arcTarget[sorted[p - 1]])
+					continue;
+				sorted[slots++] = sorted[p];
+			}
+		}
+		csr.offsets[csr.nodeCount] = slots;
+
+		csr.targets = new int[slots];
+		csr.edgeIDs = new int[slots];
+		csr.weight = new double[slots];
+		csr.spaceDist = new short[slots];
+		csr.timeDist = new short[slots];
+		csr.sameCategory = new BitSet(slots);
+		for (int slot = 0; slot < slots; slot++) {
+			int a = sorted[slot];
+			int k = arcEdge[a];
+			csr.targets[slot] = arcTarget[a];
+			csr.edgeIDs[slot] = edges.id[k];
+			csr.weight[slot] = edges.weight[k];
+			csr.spaceDist[slot] = toUnsignedShort(edges.spaceDist[k], "spatial");
+			csr.timeDist[slot] = toUnsignedShort(edges.timeDist[k], "temporal");
+			if (edges.sameCategory.get(k))
+				csr.sameCategory.set(slot);
+		}
+		return csr;
+	}
+
+	// Counting sort of the positions [0, length) by key, returning the positions in ascending key order
+	private static int[] groupBy(int[] key, int length, int keyCount) {
+		int[] count = new int[keyCount + 1];
+		for (int a = 0; a < length; a++)
+			count[key[a] + 1]++;
+		for (int k = 0; k < keyCount; k++)
+			count[k + 1] += count[k];
+		int[] result = new int[length];
+		for (int a = 0; a < length; a++)
+			result[count[key[a]]++] = a;
+		return result;
+	}
+
+	// Distances above MAX_DISTANCE are saturated
+	private static short toUnsignedShort(int value, String name) {
+		if (value < 0)
+			throw new IllegalArgumentException("The " + name + " distance " + value + " is negative");
+		return (short) Math.min(value, MAX_DISTANCE);
+	}
+
+	/*
+	 * The attributes of a list of edges, copied into primitive arrays.
+	 */
+	private static class EdgeList {
+		int size;
+		int[] id;
+		int[] source;
+		int[] target;
+		double[] weight;
+		int[] spaceDist;
+		int[] timeDist;
+		BitSet sameCategory;
+
+		EdgeList(int capacity) {
+			id = new int[capacity];
+			source = new int[capacity];
+			target = new int[capacity];
+			weight = new double[capacity];
+			spaceDist = new int[capacity];
+			timeDist = new int[capacity];
+			sameCategory = new BitSet(capacity);
+		}
+
+		void addAll(List<Edge> edges) {
+			for (Edge e : edges) {
+				if (size == id.length)
+					grow();
+				id[size] = e.getID();
+				source[size] = e.getSourceID();
+				target[size] = e.getTargetID();
+				weight[size] = e.getWeight();
+				spaceDist[size] = e.getSpaceDist();
+				timeDist[size] = e.getTimeDist();
+				if (e.isSameCategory())
+					sameCategory.set(size);
+				size++;
+			}
+		}
+
+		private void grow() {
+			int capacity = Math.max(16, 2 * id.length);
+			id = Arrays.copyOf(id, capacity);
+			source = Arrays.copyOf(source, capacity);
+			target = Arrays.copyOf(target, capacity);
+			weight = Arrays.copyOf(weight, capacity);
+			spaceDist = Arrays.copyOf(spaceDist, capacity);
+			timeDist = Arrays.copyOf(timeDist, capacity);
+		}
+	}
+}
@@ -51,6 +51,19 @@ public class Edge implements Serializable, Comparable<Edge>{
 		this(id, source, target, 1.0);
 	}
 	
+	/**
+	 * Constructs an edge between the nodes with the given IDs with a specific weight. Its ID is -1.
+	 * @param sourceID ID of the source node
+	 * @param targetID ID of the target node
+	 * @param weight Edge weight
+	 */
+	public Edge(int sourceID, int targetID, double weight) {
+		this.id = -1;
+		this.sourceID = sourceID;
+		this.targetID = targetID;
+		this.weight = weight;
+	}
+	
 	/**
 	 * Constructs an edge between the two given nodes with specific ID and weight.
 	 * @param id
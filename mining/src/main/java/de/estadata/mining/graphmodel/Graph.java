@@ -4,12 +4,14 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.gephi.graph.api.*;
 import org.gephi.io.exporter.api.ExportController;
@@ -37,7 +39,8 @@ public class Graph {
 	private Cache nodesCache;
 	private Cache edgesCache;
 	private TreeMap<Integer, Integer> nodeIDs;
-	private TreeMap<Integer, Integer> edgeIDs;
+	private ConcurrentSkipListMap<Integer, Integer> edgeIDs;
+	private AtomicInteger nextEdgeID;		//lowest edge ID that has not been assigned yet
 	
 	private UndirectedGraph gephiGraph;
 	private GraphModel graphModel;
@@ -56,7 +59,7 @@ public class Graph {
 	public Graph(Cache nodesCache, Cache edgesCache) {
 		this.nodesCache = nodesCache;
 		this.edgesCache = edgesCache;
-		edgeIDs = new TreeMap<Integer, Integer>();
+		edgeIDs = new ConcurrentSkipListMap<Integer, Integer>();
 		nodeIDs = new TreeMap<Integer, Integer>();
 		
 		Map<Object, Node> map = MiningTools.getCacheObjectsAsMap(nodesCache, nodesCache.getKeys(), Node.class);
@@ -68,9 +71,46 @@ public class Graph {
 		for(Entry<Object, Edge> entry : map2.entrySet()) {
 			edgeIDs.put((Integer) entry.getKey(), (Integer) entry.getKey());
 			Edge e = entry.getValue();
-			getNode(e.getSourceID()).addAdjacentEdge(e);
-			getNode(e.getTargetID()).addAdjacentEdge(e);
+			map.get(e.getSourceID()).addAdjacentEdge(e);
+			map.get(e.getTargetID()).addAdjacentEdge(e);
 		}
+		// Graphs generated with random edge IDs use IDs up to the largest int value, which leaves no room for new IDs
+		if(!edgeIDs.isEmpty() && edgeIDs.lastKey() + 1L > 2L * edgeIDs.size())
+			renumberEdges();
+		// Edge IDs are assigned in ascending order, so the next free ID follows the highest one in use
+		nextEdgeID = new AtomicInteger(edgeIDs.isEmpty() ? 0 : edgeIDs.lastKey() + 1);
+	}
+	
+	/*
+	 * Assigns the IDs 0, 1, ... to the edges, in the order of their current IDs, and rewrites the edges and nodes in the
+	 * caches accordingly.
+	 */
+	private void renumberEdges() {
+		System.out.println("Renumbering " + edgeIDs.size() + " edges with IDs up to " + edgeIDs.lastKey());
+		long start = System.currentTimeMillis();
+		List<Integer> oldIDs = new ArrayList<Integer>(edgeIDs.keySet());
+		Map<Object, Element> nodes = nodesCache.getAll(nodeIDs.keySet());
+		Map<Object, Element> edges = edgesCache.getAll(oldIDs);
+		List<Element> renumbered = new ArrayList<Element>(oldIDs.size());
+		for(int newID = 0; newID < oldIDs.size(); newID++) {
+			Edge e = (Edge) edges.get(oldIDs.get(newID)).getObjectValue();
+			Node startNode = (Node) nodes.get(e.getSourceID()).getObjectValue();
+			Node endNode = (Node) nodes.get(e.getTargetID()).getObjectValue();
+			startNode.removeAdjacentEdge(e);
+			endNode.removeAdjacentEdge(e);
+			e.setID(newID);
+			startNode.addAdjacentEdge(e);
+			endNode.addAdjacentEdge(e);
+			renumbered.add(new Element(newID, e));
+		}
+		edgesCache.removeAll(oldIDs);
+		edgesCache.putAll(renumbered);
+		nodesCache.putAll(nodes.values());
+		edgeIDs.clear();
+		for(int newID = 0; newID < oldIDs.size(); newID++)
+			edgeIDs.put(newID, newID);
+		long end = System.currentTimeMillis();
+		System.out.println("Renumbering edges took: " + (end - start) + " ms");
 	}
 
 	/**
@@ -110,6 +150,15 @@ public class Graph {
 		}	
 	}
 	
+	/**
+	 * Returns the nodes with the given IDs, fetched from the cache at once. IDs not present in the graph are ignored.
+	 * @param ids the IDs of the nodes to be returned.
+	 * @return a list of node instances.
+	 */
+	public List<Node> getNodes(List<Integer> ids) {
+		return MiningTools.getCacheObjectsAsList(nodesCache, Node.class, ids);
+	}
+	
 	/**
 	 * Tests if there is a node in the graph with a certain ID.
 	 * @param id to be searched for in the graph.
@@ -164,7 +213,7 @@ public class Graph {
 			throw new IllegalStateException("Neighborhood should be reflexive");
 		}
 		
-		int id = generateEdgeID(); 
+		int id = reserveEdgeIDs(1); 
 		e.setID(id);
 		edgeIDs.put(id, id);
 		
@@ -174,6 +223,71 @@ public class Graph {
 		edgesCache.put(new Element(e.getID(), e));
 	}
 	
+	/**
+	 * Reserves a range of consecutive IDs for a number of edges that are going to be added later on through 
+	 * {@link #addEdges(List, int)}. Edge IDs are assigned in ascending order and never reused, hence two reserved ranges
+	 * never overlap. A graph loaded from its caches continues after the highest edge ID stored in them.
+	 * @param count the number of IDs to be reserved.
+	 * @return the first ID of the reserved range.
+	 * @throws IllegalStateException if the range would exceed the largest int value.
+	 */
+	public int reserveEdgeIDs(int count) {
+		if(count < 0)
+			throw new IllegalArgumentException("Invalid number of edge IDs: " + count);
+		int first = nextEdgeID.getAndAdd(count);
+		if(first < 0 || first + count < first) {
+			nextEdgeID.set(Integer.MIN_VALUE);
+			throw new IllegalStateException("No edge IDs left, the graph has to be regenerated");
+		}
+		return first;
+	}
+	
+	/**
+	 * Adds a list of edges to the graph, using a previously reserved range of IDs (see {@link #reserveEdgeIDs(int)}): 
+	 * the i-th edge of the list gets the ID firstID + i. In contrast to 
+	 * {@link #addEdge(Edge)}, this method is not synchronized on the graph: the ends of all edges are fetched at once and
+	 * all edges are written to the cache at once, so that several lists of edges can be added in parallel.
+	 * An edge linking two nodes that are already neighbors is skipped and its reserved ID remains unused. This also holds
+	 * for edges between the same nodes that are added concurrently, in either direction.
+	 * Nodes must not be added or removed while this method is being executed.
+	 * @param edges the edges to be added.
+	 * @param firstID the first ID of the reserved range.
+	 * @return the number of edges actually added.
+	 * @throws IllegalArgumentException If at least one of the edge's ends is not contained in the graph.
+	 */
+	public int addEdges(List<Edge> edges, int firstID) {
+		HashSet<Integer> endIDs = new HashSet<Integer>();
+		for(Edge e : edges) {
+			if(!containsNodeID(e.getSourceID())) {
+				throw new IllegalArgumentException("Start node does not exist.");
+			}
+			if(!containsNodeID(e.getTargetID())) {
+				throw new IllegalArgumentException("Target node does not exist.");
+			}
+			endIDs.add(e.getSourceID());
+			endIDs.add(e.getTargetID());
+		}
+		Map<Object, Element> ends = nodesCache.getAll(endIDs);
+		
+		List<Element> elements = new ArrayList<Element>(edges.size());
+		for(int i = 0; i < edges.size(); i++) {
+			Edge e = edges.get(i);
+			// Both ends are linked starting with the lowest ID, so that of two concurrent edges between the same nodes, in
+			// whichever direction, the first one to reach the lowest end wins and the other one is skipped
+			Node lowestNode = (Node) ends.get(e.getLowestNodeID()).getObjectValue();
+			Node highestNode = (Node) ends.get(e.getHighestNodeID()).getObjectValue();
+			e.setID(firstID + i);
+			if(!lowestNode.addAdjacentEdge(e))
+				continue;
+			if(!highestNode.addAdjacentEdge(e))
+				throw new IllegalStateException("Neighborhood should be reflexive");
+			edgeIDs.put(e.getID(), e.getID());
+			elements.add(new Element(e.getID(), e));
+		}
+		edgesCache.putAll(elements);
+		return elements.size();
+	}
+	
 	/**
 	 * Returns, if existent, the edge with the given ID.
 	 * @param id the ID of the searched edge.
@@ -188,6 +302,15 @@ public class Graph {
 		}
 	}
 	
+	/**
+	 * Returns the edges with the given IDs, fetched from the cache at once. IDs not present in the graph are ignored.
+	 * @param ids the IDs of the edges to be returned.
+	 * @return a list of edge instances.
+	 */
+	public List<Edge> getEdges(List<Integer> ids) {
+		return MiningTools.getCacheObjectsAsList(edgesCache, Edge.class, ids);
+	}
+	
 	/**
 	 * Tests whether two nodes are neighbors in the graph (as long as both are contained in it).
 	 * @param n1 The first node
@@ -230,6 +353,16 @@ public class Graph {
 		return edgeIDs.size();
 	}
 	
+	// Highest node ID in the graph, or -1 if it is empty
+	int getMaxNodeID() {
+		return nodeIDs.isEmpty() ? -1 : nodeIDs.lastKey();
+	}
+	
+	// Highest edge ID in the graph, or -1 if it is empty
+	int getMaxEdgeID() {
+		return edgeIDs.isEmpty() ? -1 : edgeIDs.lastKey();
+	}
+	
 	/**
 	 * Removes a given node from the graph, if present
 	 * @param n the node to be removed from the graph.
@@ -281,6 +414,7 @@ public class Graph {
 	public void clear() {
 		nodeIDs.clear();
 		edgeIDs.clear();
+		nextEdgeID.set(0);
 		nodesCache.removeAll();
 		nodesCache.evictExpiredElements();
 		edgesCache.removeAll();
@@ -428,13 +562,4 @@ public class Graph {
 		}
 		gephiInitialized = false;
 	}
-	
-	private int generateEdgeID() {
-		Random randGen = new Random();
-		int next = 0;
-		while(edgeIDs.containsKey(next)) {
-			next = randGen.nextInt(Integer.MAX_VALUE);
-		}
-		return next;		
-	}
 }
\ No newline at end of file
@@ -1,18 +1,28 @@
 package de.estadata.mining.graphmodel;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.TreeSet;
 
 /**
  * This class represents a 'filtered view' of a certain graph by storing a subset of its node and edge IDs.
- * 
+ * The IDs must not be negative. They are stored in bit sets as long as the IDs of the graph are dense, i.e. its highest ID
+ * is at most a small multiple of its number of nodes or edges. Otherwise (e.g. for sparse report IDs) a bit set would be
+ * mostly empty, and the IDs are stored in sorted sets instead.
+ *
  * @author Nicolas Loza (nico.loza@gmail.com)
  *
  */
 public class GraphView {
-	private List<Integer> nodeIDs;
-	private List<Integer> edgeIDs;
+	// Bit sets are used while the highest ID is below denseFactor times the number of IDs (plus a constant)
+	private static final long denseFactor = 64;
+	private static final long denseConstant = 1 << 16;
+
+	private IDSet nodeIDs;
+	private IDSet edgeIDs;
 	private Graph graph;
 	
 	/**
@@ -20,80 +30,245 @@ public class GraphView {
 	 * @param graph
 	 */
 	public GraphView(Graph graph) {
-		nodeIDs = new ArrayList<>();
-		edgeIDs = new ArrayList<>();
+		nodeIDs = new IDSet(isDense(graph.getMaxNodeID(), graph.getNodeCount()));
+		edgeIDs = new IDSet(isDense(graph.getMaxEdgeID(), graph.getEdgeCount()));
 		this.graph = graph;
 	}
 	
 	/**
 	 * Adds a node ID to the view, as long as the ID corresponds to a node in the associated graph.
 	 * @param id the node ID to be added to the view
+	 * @throws IllegalArgumentException if the ID is negative.
 	 */
 	public void addNodeID(int id) {
 		if(graph.containsNodeID(id))
-			nodeIDs.add(id);
+			nodeIDs.add(checkID(id));
 	}
 	
 	/**
 	 * Add a collection of node IDs to the view. However, IDs that cannot be associated with any node in the graph are discarded.
 	 * @param nodeIDs The collection of node IDs to be added to the view.
+	 * @throws IllegalArgumentException if one of the IDs is negative.
 	 */
 	public void addAllNodeIDs(Collection<Integer> nodeIDs) {
 		for(int id : nodeIDs) {
 			if(graph.containsNodeID(id))
-				this.nodeIDs.add(id);
+				this.nodeIDs.add(checkID(id));
 		}
 	}
 	
 	/**
 	 * Tests whether a certain node ID is associated with the view.
-	 * @param id the ID 
+	 * @param id the ID
 	 * @return true, if the view contains said node ID, false otherwise.
 	 */
 	public boolean containsNodeID(int id) {
-		return nodeIDs.contains(id);
+		return id >= 0 && nodeIDs.contains(id);
 	}
 	
 	/**
 	 * Adds a edge ID to the view, as long as the ID corresponds to an edge in the associated graph.
 	 * @param id the edge ID to be added to the view
+	 * @throws IllegalArgumentException if the ID is negative.
 	 */
 	public void addEdgeID(int id) {
-		edgeIDs.add(id);
+		edgeIDs.add(checkID(id));
 	}
 	
 	/**
 	 * Add a collection of edge IDs to the view. However, IDs that cannot be associated with any edge in the graph are discarded.
 	 * @param nodeIDs The collection of edge IDs to be added to the view.
+	 * @throws IllegalArgumentException if one of the IDs is negative.
 	 */
 	public void addAllEdgeIDs(Collection<Integer> edgeIDs) {
 		for(int id : edgeIDs) {
-			this.edgeIDs.add(id);
+			this.edgeIDs.add(checkID(id));
 		}
 	}
 	
 	/**
 	 * Tests whether a certain edge ID is associated with the view.
-	 * @param id the ID 
+	 * @param id the ID
 	 * @return true, if the view contains said edge ID, false otherwise.
 	 */
 	public boolean containsEdgeID(int id) {
-		return edgeIDs.contains(id);
+		return id >= 0 && edgeIDs.contains(id);
 	}
 	
 	/**
-	 * Returns a list containing all node IDs associated with the view. 
+	 * Returns a list containing all node IDs associated with the view, in ascending order. The list is a copy, i.e. changes
+	 * to it are not reflected in the view.
 	 * @return a list containing all node IDs associated with the view.
 	 */
 	public List<Integer> getNodeIDs() {
-		return nodeIDs;
+		return nodeIDs.toList();
 	}
 	
 	/**
-	 * Returns a list containing all edge IDs associated with the view.
+	 * Returns a list containing all edge IDs associated with the view, in ascending order. The list is a copy, i.e. changes
+	 * to it are not reflected in the view.
 	 * @return a list containing all edge IDs associated with the view.
 	 */
 	public List<Integer> getEdgeIDs() {
-		return edgeIDs;
+		return edgeIDs.toList();
+	}
+	
+	/**
+	 * Returns the number of node IDs associated with the view.
+	 * @return the number of node IDs associated with the view.
+	 */
+	public int getNodeCount() {
+		return nodeIDs.size();
+	}
+	
+	/**
+	 * Returns the number of edge IDs associated with the view.
+	 * @return the number of edge IDs associated with the view.
+	 */
+	public int getEdgeCount() {
+		return edgeIDs.size();
+	}
+	
+	/**
+	 * Returns a new view containing the node and edge IDs that are contained in this view or in another one.
+	 * @param view the other view, which must be associated with the same graph.
+	 * @return the union of both views.
+	 */
+	public GraphView union(GraphView view) {
+		GraphView result = copy(view);
+		result.nodeIDs.addAll(view.nodeIDs);
+		result.edgeIDs.addAll(view.edgeIDs);
+		return result;
+	}
+	
+	/**
+	 * Returns a new view containing the node and edge IDs that are contained both in this view and in another one.
+	 * @param view the other view, which must be associated with the same graph.
+	 * @return the intersection of both views.
+	 */
+	public GraphView intersection(GraphView view) {
+		GraphView result = copy(view);
+		result.nodeIDs.retainAll(view.nodeIDs);
+		result.edgeIDs.retainAll(view.edgeIDs);
+		return result;
+	}
+	
+	/**
+	 * Returns a new view containing the node and edge IDs that are contained in this view, but not in another one.
+	 * @param view the other view, which must be associated with the same graph.
+	 * @return the difference of both views.
+	 */
+	public GraphView difference(GraphView view) {
+		GraphView result = copy(view);
+		result.nodeIDs.removeAll(view.nodeIDs);
+		result.edgeIDs.removeAll(view.edgeIDs);
+		return result;
+	}
+	
+	private GraphView copy(GraphView view) {
+		if(!graph.equals(view.graph))
+			throw new IllegalArgumentException("Both views must be associated with the same graph");
+		GraphView result = new GraphView(graph);
+		result.nodeIDs = nodeIDs.copy();
+		result.edgeIDs = edgeIDs.copy();
+		return result;
+	}
+	
+	private static int checkID(int id) {
+		if(id < 0)
+			throw new IllegalArgumentException("Invalid ID: " + id + ", views can only contain non-negative IDs");
+		return id;
+	}
+	
+	private static boolean isDense(int maxID, int count) {
+		return maxID < denseFactor * count + denseConstant;
+	}
+	
+	/*
+	 * A set of non-negative IDs, stored either in a bit set or in a sorted set.
+	 */
+	private static class IDSet {
+		BitSet bits;
+		TreeSet<Integer> sorted;
+		
+		IDSet(boolean dense) {
+			if(dense)
+				bits = new BitSet();
+			else
+				sorted = new TreeSet<Integer>();
+		}
+		
+		void add(int id) {
+			if(bits != null)
+				bits.set(id);
+			else
+				sorted.add(id);
+		}
+		
+		boolean contains(int id) {
+			return (bits != null) ? bits.get(id) : sorted.contains(id);
+		}
+		
+		int size() {
+			return (bits != null) ? bits.cardinality() : sorted.size();
+		}
+		
+		List<Integer> toList() {
+			if(sorted != null)
+				return new ArrayList<Integer>(sorted);
+			List<Integer> list = new ArrayList<Integer>(bits.cardinality());
+			for(int id = bits.nextSetBit(0); id >= 0; id = bits.nextSetBit(id + 1))
+				list.add(id);
+			return list;
+		}
+		
+		void addAll(IDSet set) {
+			if(bits != null && set.bits != null) {
+				bits.or(set.bits);
+			} else {
+				toSorted();
+				sorted.addAll(set.toList());
+			}
+		}
+		
+		void retainAll(IDSet set) {
+			if(bits != null && set.bits != null) {
+				bits.and(set.bits);
+			} else {
+				toSorted();
+				for(Iterator<Integer> it = sorted.iterator(); it.hasNext();) {
+					if(!set.contains(it.next()))
+						it.remove();
+				}
+			}
+		}
+		
+		void removeAll(IDSet set) {
+			if(bits != null && set.bits != null) {
+				bits.andNot(set.bits);
+			} else {
+				toSorted();
+				for(Iterator<Integer> it = sorted.iterator(); it.hasNext();) {
+					if(set.contains(it.next()))
+						it.remove();
+				}
+			}
+		}
+		
+		IDSet copy() {
+			IDSet result = new IDSet(bits != null);
+			if(bits != null)
+				result.bits = (BitSet) bits.clone();
+			else
+				result.sorted = new TreeSet<Integer>(sorted);
+			return result;
+		}
+		
+		private void toSorted() {
+			if(sorted == null) {
+				sorted = new TreeSet<Integer>(toList());
+				bits = null;
+			}
+		}
 	}
 }
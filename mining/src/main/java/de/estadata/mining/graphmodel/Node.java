@@ -55,7 +55,7 @@ public class Node implements Serializable, Comparable<Node> {
 		return attributes.get(attribute);
 	}
 	
-	protected boolean addAdjacentEdge(Edge e) {
+	protected synchronized boolean addAdjacentEdge(Edge e) {
 		int otherEndID = e.getOtherEndID(this);
 		if(isNeighbor(otherEndID)) {
 			return false;
@@ -66,7 +66,7 @@ public class Node implements Serializable, Comparable<Node> {
 		}
 	}
 	
-	protected boolean removeAdjacentEdge(Edge e) {
+	protected synchronized boolean removeAdjacentEdge(Edge e) {
 		if(e == null || !edges.containsKey(e.getID())) {
 			throw new IllegalArgumentException("Edge cannot be removed: is either null or is not an adjacent edge of this node.");
 		}
@@ -2,33 +2,41 @@ package de.estadata.mining.modularityoptimizer;
 
 /**
  * This is an adaptation of the code provided in from http://www.ludowaltman.nl/slm, extended to read the necessary graph information from 
- * a {@link Graph} instance. The provided algorithms (SLM, Louvain and Louvain with multilevel refinement) remain unchanged. For further information
- * please visit the above mentioned website.
+ * a {@link Graph} instance. The provided algorithms (SLM, Louvain and Louvain with multilevel refinement) give the same results by default, while the
+ * random starts run in parallel and reuse their arrays. Louvain with parallel local moving (PARALLEL_LOUVAIN) and the Leiden algorithm
+ * have been added, as well as queue-based local moving (see {@link #setQueueMoving(boolean)}) and a reduced precision of the weights
+ * (see {@link #setWeightPrecision(Network.WeightPrecision)}) to save memory. For further information please visit the above mentioned website.
  *
  * @author Ludo Waltman
  * @author Nees Jan van Eck
  * @author Nicolas Loza
  */
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
+import de.estadata.mining.graphmodel.CSRGraph;
 import de.estadata.mining.graphmodel.Graph;
 import de.estadata.mining.graphmodel.Node;
-import de.estadata.mining.util.MiningTools;
 
 public class ModularityOptimizer {
 	
 	/**
-	 * Available modularity-based algorithms: Louvain, Louvain with multilevel and SLM.
+	 * Available modularity-based algorithms: Louvain, Louvain with multilevel, SLM, Louvain with parallel local moving
+	 * (see {@link Network#runParallelLocalMovingAlgorithm(double, Random, ForkJoinPool)}) and Leiden
+	 * (see {@link Network#runLeidenAlgorithm(double, double, Random, Network.Workspace)}), whose clusters are guaranteed to be connected.
 	 * @author Nicolas Loza
 	 *
 	 */
 	public enum Algorithm {
-        LOUVAIN, LOUVAIN_WITH_MULTILEVEL, SLM;
+        LOUVAIN, LOUVAIN_WITH_MULTILEVEL, SLM, PARALLEL_LOUVAIN, LEIDEN;
 	};
 	
 	/**
@@ -40,31 +48,44 @@ public class ModularityOptimizer {
 		STANDARD, ALTERNATIVE
 	};
 	
-	private Map<Integer, Integer> idMap;
-	private List<Integer> nodeIDs;
+	private int[] nodeIDs;			//key: node index in the network (i.e. ordinal in the CSR graph);	value: node ID
 	private Graph graph;
 	
 	private int nNodes;
     private int[] firstNeighborIndex;
     private int[] neighbor;
-    private double[] edgeWeight2;
+    private double[] edgeWeight;
     private double[] nodeWeight;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean queueMoving;
+    private Network.WeightPrecision weightPrecision = Network.WeightPrecision.DOUBLE;
 	
     /**
-     * Constructs an instance from a {@link Graph}. 
+     * Constructs an instance from a {@link Graph}, whose edges are read in chunks from its cache (see {@link CSRGraph#fromGraph(Graph)}).
      * @param graph the underlying graph for the analysis.
      */
     public ModularityOptimizer(Graph graph) {
+    	this(graph, CSRGraph.fromGraph(graph));
+    }
+    
+    /**
+     * Constructs an instance from a {@link Graph} and a copy of it in CSR format, e.g. the one stored by
+     * {@link de.estadata.mining.stclustering.STFiltering#getCSRGraph()}. The network is built from the CSR graph alone, whose
+     * ordinals are the indices of the nodes in the network, so that the graph is only accessed to store the clusters.
+     * @param graph the underlying graph for the analysis.
+     * @param csrGraph the same graph in CSR format.
+     */
+    public ModularityOptimizer(Graph graph, CSRGraph csrGraph) {
     	this.graph = graph;
     	
-    	nodeIDs = MiningTools.asSortedList(graph.getNodeIDs());
-    	if(nodeIDs == null || nodeIDs.size() == 0)
-    		throw new IllegalStateException("nodeIDs (" + nodeIDs + ") is empty");
-    	constructMap(nodeIDs);
+    	if(csrGraph.getNodeCount() == 0)
+    		throw new IllegalStateException("The graph has no nodes");
+    	if(csrGraph.getNodeCount() != graph.getNodeCount())
+    		throw new IllegalArgumentException("The CSR graph has " + csrGraph.getNodeCount() + " nodes, but the graph has " + graph.getNodeCount());
     	
     	System.out.println("Initializing Modularity Optimizer...");
         
-        precomputeNetworkDependencies(graph, nodeIDs);
+        precomputeNetworkDependencies(csrGraph);
     	
         System.out.println("Network precomputing finished");
     }
@@ -76,89 +97,169 @@ public class ModularityOptimizer {
      * 	Use a value of 1.0 for standard modularity-based community detection. 
      * Use a value above (below) 1.0 if you want to obtain a larger (smaller) number of communities.
      * @param algorithm the algorithm to be run (see {@link Algorithm}).
-     * @param randomStarts the number of random starts
+     * @param randomStarts the number of random starts, which are run in parallel on their own copies of the network (see {@link #setThreads(int)}).
      * @param iterations the number of iterations per random start.
-     * @param randomSeed the seed for the RNG.
+     * @param randomSeed the seed for the RNG. The seed of every random start is derived from it, so that the result only depends on this value.
      */
     public void run(ModularityFunction modFunc, double resolution, Algorithm algorithm, int randomStarts, int iterations, long randomSeed) {
         
-        double modularity, maxModularity, resolution2;
-        int i, j, nClusters;
+        double exactModularity, maxModularity, resolution2;
+        int i, nClusters;
         int[] cluster;
         long beginTime, endTime;
+        long[] seeds;
         Network network;
         Random random;
+        ForkJoinPool pool;
+        List<Callable<StartResult>> tasks;
+        List<Future<StartResult>> results;
 
         System.out.println("Running Modularity Optimizer...");
         
         System.out.println("graph has " + graph.getNodeCount() + " nodes and " + graph.getEdgeCount() + " edges");
         
         if (modFunc == ModularityFunction.STANDARD) {    
-            network = new Network(nNodes, firstNeighborIndex, neighbor, edgeWeight2, nodeWeight);
+            network = new Network(nNodes, firstNeighborIndex, neighbor, edgeWeight, nodeWeight, weightPrecision);
         } else {
-        	network = new Network(nNodes, firstNeighborIndex, neighbor, edgeWeight2);
+        	network = new Network(nNodes, firstNeighborIndex, neighbor, edgeWeight, null, weightPrecision);
         }
         
-        System.out.println("Generated network has " + network.getNNodes() + " nodes and " + network.getNEdges()/2 + " edges");
+        System.out.println("Generated network has " + network.getNNodes() + " nodes and " + network.getNEdges()/2 + " edges"
+        		+ ((weightPrecision != Network.WeightPrecision.DOUBLE) ? " with " + weightPrecision.toString().toLowerCase() + " weights" : ""));
 
         System.out.println("Running " + ((algorithm == Algorithm.LOUVAIN) ? "Louvain algorithm" 
         		: ((algorithm == Algorithm.LOUVAIN_WITH_MULTILEVEL) ? "Louvain algorithm with multilevel refinement" 
-        		: "smart local moving algorithm")) + "...");
+        		: ((algorithm == Algorithm.PARALLEL_LOUVAIN) ? "Louvain algorithm with parallel local moving"
+        		: ((algorithm == Algorithm.LEIDEN) ? "Leiden algorithm"
+        		: "smart local moving algorithm")))) + ((queueMoving && (algorithm != Algorithm.LEIDEN) && (algorithm != Algorithm.PARALLEL_LOUVAIN)) ? " with queue-based local moving" : "")
+        		+ " with " + randomStarts + " random starts on " + threads + " threads...");
         System.out.println();
 
         resolution2 = ((modFunc == ModularityFunction.STANDARD) ? (resolution / network.getTotalEdgeWeight()) : resolution);
 
         beginTime = System.currentTimeMillis();
+        
+        // Every start gets its own seed, drawn in order from randomSeed, so that the result does not depend on the threads
+        random = new Random(randomSeed);
+        seeds = new long[randomStarts];
+        for (i = 0; i < randomStarts; i++)
+        	seeds[i] = random.nextLong();
+        
+        // The parallel local moving of every start runs on the same pool as the starts
+        pool = new ForkJoinPool(threads);
+        tasks = new ArrayList<Callable<StartResult>>(randomStarts);
+        for (i = 0; i < randomStarts; i++)
+        	tasks.add(new RandomStart(network, algorithm, resolution2, iterations, seeds[i], queueMoving, pool));
+        try {
+        	results = pool.invokeAll(tasks);
+        } finally {
+        	pool.shutdown();
+        }
+        
+        // The first start with the maximum modularity wins, as in a sequential run
         cluster = null;
-        nClusters = -1;
         maxModularity = Double.NEGATIVE_INFINITY;
-        random = new Random(randomSeed);
-        for (i = 0; i < randomStarts; i++) {
-
-            network.initSingletonClusters();
-
-            j = 0;
-            boolean update = true;
-            do {
-
-                if (algorithm == Algorithm.LOUVAIN)
-                    update = network.runLouvainAlgorithm(resolution2, random);
-                else if (algorithm == Algorithm.LOUVAIN_WITH_MULTILEVEL)
-                    update = network.runLouvainAlgorithmWithMultilevelRefinement(resolution2, random);
-                else if (algorithm == Algorithm.SLM)
-                    network.runSmartLocalMovingAlgorithm(resolution2, random);
-                j++;
-
-                modularity = network.calcQualityFunction(resolution2);
-
-            }
-            while ((j < iterations) && update);
-
-            if (modularity > maxModularity) {
-                network.orderClustersByNNodes();
-                cluster = network.getClusters();
-                nClusters = network.getNClusters();
-                maxModularity = modularity;
-            }
-
+        for (Future<StartResult> future : results) {
+        	StartResult result;
+        	try {
+        		result = future.get();
+        	} catch (InterruptedException e) {
+        		Thread.currentThread().interrupt();
+        		throw new IllegalStateException("Interrupted while waiting for the random starts", e);
+        	} catch (ExecutionException e) {
+        		throw new IllegalStateException(e.getCause());
+        	}
+        	if (result.modularity > maxModularity) {
+        		cluster = result.cluster;
+        		maxModularity = result.modularity;
+        	}
         }
         endTime = System.currentTimeMillis();
         
+        // With rounded weights, the modularity is also reported for the exact weights of the CSR graph
+        exactModularity = maxModularity;
+        if (weightPrecision != Network.WeightPrecision.DOUBLE) {
+        	network = new Network(nNodes, firstNeighborIndex, neighbor, edgeWeight,
+        			(modFunc == ModularityFunction.STANDARD) ? nodeWeight : null, cluster);
+        	exactModularity = network.calcQualityFunction((modFunc == ModularityFunction.STANDARD) ? (resolution / network.getTotalEdgeWeight()) : resolution);
+        }
+        
         nClusters = adaptClusterIDs(cluster);
         
-        System.out.format("Maximum modularity in %d random starts: %.4f%n", randomStarts, maxModularity);
+        if (weightPrecision != Network.WeightPrecision.DOUBLE)
+        	System.out.format("Maximum modularity in %d random starts: %.4f (%s weights), %.4f (exact weights)%n", randomStarts, maxModularity,
+        			weightPrecision.toString().toLowerCase(), exactModularity);
+        else
+        	System.out.format("Maximum modularity in %d random starts: %.4f%n", randomStarts, maxModularity);
         System.out.format("Number of communities: %d%n", nClusters);
         System.out.format("Elapsed time: %d seconds%n", Math.round((endTime - beginTime) / 1000.0));
         System.out.println();
         
         i = 0;
-        for(Integer nodeID : nodeIDs) {
+        for(int nodeID : nodeIDs) {
         	Node n = graph.getNode(nodeID);
         	n.setClusterID(cluster[i++]);
 //        	MiningTools.setNodeLabel(n, STFiltering.clusterIDLabel, "" + cluster[i++]);
         }
     }
     
+    /**
+     * Returns the number of threads the random starts are run on.
+     * @return the number of threads.
+     */
+    public int getThreads() {
+    	return threads;
+    }
+    
+    /**
+     * Sets the number of threads the random starts are run on. The result for a given seed is the same for any number of threads.
+     * @param threads the number of threads, by default the number of processors.
+     */
+    public void setThreads(int threads) {
+    	if (threads < 1)
+    		throw new IllegalArgumentException("Invalid number of threads: " + threads);
+    	this.threads = threads;
+    }
+    
+    /**
+     * Returns whether LOUVAIN, LOUVAIN_WITH_MULTILEVEL and SLM use the queue-based local moving.
+     * @return true if the queue-based local moving is used.
+     */
+    public boolean isQueueMoving() {
+    	return queueMoving;
+    }
+    
+    /**
+     * Sets whether LOUVAIN, LOUVAIN_WITH_MULTILEVEL and SLM use the queue-based local moving, which only revisits the neighbors of
+     * moved nodes (see {@link Network.Workspace#setQueueMoving(boolean)}), instead of cycling over all nodes until none moves.
+     * LEIDEN always uses it, PARALLEL_LOUVAIN never does.
+     * @param queueMoving true to use the queue-based local moving, false by default.
+     */
+    public void setQueueMoving(boolean queueMoving) {
+    	this.queueMoving = queueMoving;
+    }
+    
+    /**
+     * Returns how the network stores its edge and node weights.
+     * @return the weight precision.
+     */
+    public Network.WeightPrecision getWeightPrecision() {
+    	return weightPrecision;
+    }
+    
+    /**
+     * Sets how the network stores its edge and node weights (see {@link Network.WeightPrecision}). FLOAT and SHORT need less
+     * memory and bandwidth during the local moving, but may lead to slightly different clusterings. The modularity reported by
+     * {@link #run(ModularityFunction, double, Algorithm, int, int, long)} is then computed both with the stored weights and
+     * with the exact weights.
+     * @param weightPrecision the weight precision, DOUBLE by default.
+     */
+    public void setWeightPrecision(Network.WeightPrecision weightPrecision) {
+    	if (weightPrecision == null)
+    		throw new IllegalArgumentException("The weight precision must not be null");
+    	this.weightPrecision = weightPrecision;
+    }
+    
     private int adaptClusterIDs(int[] clusterIDs) {
     	Map<Integer, Integer> idsMap = new HashMap<>(clusterIDs.length);
     	for(int id : clusterIDs) {
@@ -183,81 +284,91 @@ public class ModularityOptimizer {
     	return communities;
     }
     
-    private void constructMap(List<Integer> nodeIDs) {
-    	idMap = new HashMap<>(nodeIDs.size());
-    	for(int i = 0; i < nodeIDs.size(); i++) {
-    		int nodeID = nodeIDs.get(i);
-    		idMap.put(nodeID, i);
-    	}
-    }
-   
-    private void precomputeNetworkDependencies(Graph graph, List<Integer> nodeIDs) {
-        double[] edgeWeight1;
-        int i, j, nEdges, nLines;
-        int[] nNeighbors, node1, node2;
+    /*
+     * The network shares the rows and the edge weights of the CSR graph, which are never modified.
+     */
+    private void precomputeNetworkDependencies(CSRGraph csrGraph) {
+        int i, j;
         
-        nLines = graph.getEdgeCount();
+        nodeIDs = csrGraph.getNodeIDs();
+        nNodes = csrGraph.getNodeCount();
+        firstNeighborIndex = csrGraph.getOffsets();
+        neighbor = csrGraph.getTargets();
         
-        node1 = new int[nLines];
-        node2 = new int[nLines];
-        edgeWeight1 = new double[nLines];
-        i = -1;
-        j = 0;
-        for (Integer nodeID : nodeIDs) {
-       	  Node n = graph.getNode(nodeID);
-    	  for(Integer neighborID : n.getNeighborIDs()) {
-    		  if(neighborID > nodeID) {
-    			  node1[j] = idMap.get(nodeID);
-    		      if (node1[j] > i)
-    		          i = node1[j];
-    		      node2[j] = idMap.get(neighborID);
-    		      if (node2[j] > i)
-    		          i = node2[j];
-    		      edgeWeight1[j++] = graph.getEdge(n.getConnectingEdgeID(neighborID)).getWeight();
-    		  }
-    	  }
-        }
-        nNodes = i + 1;
-
-        nNeighbors = new int[nNodes];
-        for (i = 0; i < nLines; i++)
-            if (node1[i] < node2[i])
-            {
-                nNeighbors[node1[i]]++;
-                nNeighbors[node2[i]]++;
-            }
-
-        firstNeighborIndex = new int[nNodes + 1];
-        nEdges = 0;
-        for (i = 0; i < nNodes; i++)
-        {
-            firstNeighborIndex[i] = nEdges;
-            nEdges += nNeighbors[i];
-        }
-        firstNeighborIndex[nNodes] = nEdges;
-
-        neighbor = new int[nEdges];
-        edgeWeight2 = new double[nEdges];
-        Arrays.fill(nNeighbors, 0);
-        for (i = 0; i < nLines; i++)
-            if (node1[i] < node2[i])
-            {
-                j = firstNeighborIndex[node1[i]] + nNeighbors[node1[i]];
-                neighbor[j] = node2[i];
-                edgeWeight2[j] = edgeWeight1[i];
-                nNeighbors[node1[i]]++;
-                j = firstNeighborIndex[node2[i]] + nNeighbors[node2[i]];
-                neighbor[j] = node1[i];
-                edgeWeight2[j] = edgeWeight1[i];
-                nNeighbors[node2[i]]++;
-            }
-
+        edgeWeight = csrGraph.getWeights();
         nodeWeight = new double[nNodes];
-        for (i = 0; i < nEdges; i++) {
-            nodeWeight[neighbor[i]] += edgeWeight2[i];
-        }
-        
+        for (i = 0; i < nNodes; i++)
+            for (j = firstNeighborIndex[i]; j < firstNeighborIndex[i + 1]; j++)
+                nodeWeight[i] += edgeWeight[j];
+    }
 
+    /*
+     * One random start on its own clone of the network, with its own random number generator.
+     */
+    private static class RandomStart implements Callable<StartResult> {
+    	private Network network;
+    	private Algorithm algorithm;
+    	private double resolution;
+    	private int iterations;
+    	private long seed;
+    	private boolean queueMoving;
+    	private ForkJoinPool pool;
+    	
+    	RandomStart(Network network, Algorithm algorithm, double resolution, int iterations, long seed, boolean queueMoving, ForkJoinPool pool) {
+    		this.network = network;
+    		this.algorithm = algorithm;
+    		this.resolution = resolution;
+    		this.iterations = iterations;
+    		this.seed = seed;
+    		this.queueMoving = queueMoving;
+    		this.pool = pool;
+    	}
+    	
+    	@Override
+    	public StartResult call() {
+    		Network network = (Network) this.network.clone();
+    		Network.Workspace workspace = new Network.Workspace(network.getNNodes());
+    		workspace.setQueueMoving(queueMoving);
+    		Random random = new Random(seed);
+    		double modularity;
+    		int j;
+    		
+    		network.initSingletonClusters();
+    		
+    		j = 0;
+    		boolean update = true;
+    		do {
+    			
+    			if (algorithm == Algorithm.LOUVAIN)
+    				update = network.runLouvainAlgorithm(resolution, random, workspace);
+    			else if (algorithm == Algorithm.LOUVAIN_WITH_MULTILEVEL)
+    				update = network.runLouvainAlgorithmWithMultilevelRefinement(resolution, random, workspace);
+    			else if (algorithm == Algorithm.SLM)
+    				network.runSmartLocalMovingAlgorithm(resolution, random, workspace);
+    			else if (algorithm == Algorithm.PARALLEL_LOUVAIN)
+    				update = network.runParallelLouvainAlgorithm(resolution, random, pool, workspace);
+    			else if (algorithm == Algorithm.LEIDEN)
+    				update = network.runLeidenAlgorithm(resolution, random, workspace);
+    			j++;
+    			
+    			modularity = network.calcQualityFunction(resolution);
+    			
+    		}
+    		while ((j < iterations) && update);
+    		
+    		network.orderClustersByNNodes();
+    		return new StartResult(modularity, network.getClusters());
+    	}
+    }
+    
+    private static class StartResult {
+    	double modularity;
+    	int[] cluster;
+    	
+    	StartResult(double modularity, int[] cluster) {
+    		this.modularity = modularity;
+    		this.cluster = cluster;
+    	}
     }
 
 	public Graph getGraph() {
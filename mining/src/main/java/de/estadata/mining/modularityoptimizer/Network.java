@@ -9,25 +9,41 @@ package de.estadata.mining.modularityoptimizer;
  */
 
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
 import java.io.Serializable;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 
 public class Network implements Cloneable, Serializable
 {
     private static final long serialVersionUID = 1;
+    private static final int parallelGrain = 2048;
+    private static final int minNodesForParallelMoving = 4 * parallelGrain;
+    private static final double minRelativeQualityGain = 1e-6;
+    private static final double defaultRandomness = 0.01;
+    private static final int fileMagic = 0x4E657477;
+    private static final int fileVersion = 1;
+    private static final int fileHeaderSize = 32;
+    private static final int mappedRegionSize = 1 << 30;
 
     private int nNodes;
     private int[] firstNeighborIndex;
     private int[] neighbor;
     private double[] edgeWeight;
+    private float[] floatEdgeWeight;
+    private short[] shortEdgeWeight;
+    private double edgeWeightScale;
     private double totalEdgeWeightSelfLinks;
     private double[] nodeWeight;
+    private float[] floatNodeWeight;
     private int nClusters;
     private int[] cluster;
 
@@ -36,10 +52,76 @@ public class Network implements Cloneable, Serializable
     private int[][] nodePerCluster;
     private boolean clusteringStatsAvailable;
 
+    /**
+     * Storage of the edge and node weights (see {@link #setWeightPrecision(WeightPrecision)}). DOUBLE keeps them exact. FLOAT
+     * stores both as floats. SHORT stores every edge weight as the nearest unsigned 16-bit multiple of the largest edge weight
+     * of the network / 65535, so that each reduced network gets a scale of its own, and the node weights as floats, since node
+     * weights are sums of edge weights spanning a much wider range. Weights below half a unit are stored as 0.
+     */
+    public enum WeightPrecision
+    {
+        DOUBLE, FLOAT, SHORT
+    }
+
+    /**
+     * Loads a network stored by {@link #save(String)}. The arrays are copied in bulk from memory-mapped regions of the file, so
+     * that no serialized objects have to be decoded. Files written through Java serialization by earlier versions are read as
+     * before.
+     */
     public static Network load(String fileName) throws ClassNotFoundException, IOException
     {
+        FileChannel channel;
+        MappedByteBuffer header;
         Network network;
         ObjectInputStream objectInputStream;
+        RandomAccessFile file;
+        WeightPrecision weightPrecision;
+        double[] edgeWeight;
+        int nClusters, nEdges, precision;
+        long position;
+
+        file = new RandomAccessFile(fileName, "r");
+        try
+        {
+            channel = file.getChannel();
+            if ((channel.size() >= fileHeaderSize) && (file.readInt() == fileMagic))
+            {
+                header = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileHeaderSize);
+                if (header.getInt(4) != fileVersion)
+                    throw new IOException("Unsupported version " + header.getInt(4) + " of network file " + fileName);
+
+                network = new Network();
+                network.nNodes = header.getInt(8);
+                nEdges = header.getInt(12);
+                nClusters = header.getInt(16);
+                precision = header.getInt(20);
+                if ((precision < 0) || (precision >= WeightPrecision.values().length))
+                    throw new IOException("Unsupported weight precision " + precision + " in network file " + fileName);
+                weightPrecision = WeightPrecision.values()[precision];
+                network.totalEdgeWeightSelfLinks = header.getDouble(24);
+
+                if (channel.size() != getFileSize(network.nNodes, nEdges, nClusters >= 0))
+                    throw new IOException("Network file " + fileName + " has " + channel.size() + " bytes instead of "
+                            + getFileSize(network.nNodes, nEdges, nClusters >= 0));
+
+                position = fileHeaderSize;
+                network.firstNeighborIndex = readInts(channel, position, network.nNodes + 1);
+                position += 4L * (network.nNodes + 1);
+                network.neighbor = readInts(channel, position, nEdges);
+                position += 4L * nEdges;
+                edgeWeight = readDoubles(channel, position, nEdges);
+                position += 8L * nEdges;
+                network.setWeights(edgeWeight, nEdges, readDoubles(channel, position, network.nNodes), weightPrecision);
+                position += 8L * network.nNodes;
+                network.setClusters((nClusters >= 0) ? readInts(channel, position, network.nNodes) : null);
+
+                return network;
+            }
+        }
+        finally
+        {
+            file.close();
+        }
 
         objectInputStream = new ObjectInputStream(new FileInputStream(fileName));
 
@@ -121,17 +203,17 @@ public class Network implements Cloneable, Serializable
 
     public Network(int nNodes, int[] firstNeighborIndex, int[] neighbor)
     {
-        this(nNodes, firstNeighborIndex, neighbor, null, null, null);
+        this(nNodes, firstNeighborIndex, neighbor, (double[])null, null, (int[])null);
     }
 
     public Network(int nNodes, int[] firstNeighborIndex, int[] neighbor, double[] edgeWeight)
     {
-        this(nNodes, firstNeighborIndex, neighbor, edgeWeight, null, null);
+        this(nNodes, firstNeighborIndex, neighbor, edgeWeight, null, (int[])null);
     }
 
     public Network(int nNodes, int[] firstNeighborIndex, int[] neighbor, double[] edgeWeight, double[] nodeWeight)
     {
-        this(nNodes, firstNeighborIndex, neighbor, edgeWeight, nodeWeight, null);
+        this(nNodes, firstNeighborIndex, neighbor, edgeWeight, nodeWeight, (int[])null);
     }
 
     public Network(int nNodes, int[] firstNeighborIndex, int[] neighbor, double[] edgeWeight, double[] nodeWeight, int[] cluster)
@@ -165,6 +247,32 @@ public class Network implements Cloneable, Serializable
         setClusters(cluster);
     }
 
+    /**
+     * Constructs a network whose edge weights, e.g. those of a {@link de.estadata.mining.graphmodel.CSRGraph}, are stored
+     * with the given precision. With DOUBLE the edge weights are used without copying them.
+     */
+    public Network(int nNodes, int[] firstNeighborIndex, int[] neighbor, double[] edgeWeight, double[] nodeWeight, WeightPrecision weightPrecision)
+    {
+        int i;
+
+        this.nNodes = nNodes;
+
+        this.firstNeighborIndex = firstNeighborIndex;
+        this.neighbor = neighbor;
+
+        if (nodeWeight == null)
+        {
+            nodeWeight = new double[nNodes];
+            for (i = 0; i < nNodes; i++)
+                nodeWeight[i] = 1;
+        }
+
+        setEdgeWeights(edgeWeight, edgeWeight.length, weightPrecision);
+        setNodeWeights(nodeWeight, weightPrecision);
+
+        setClusters(null);
+    }
+
     public Object clone()
     {
         Network clonedNetwork;
@@ -185,15 +293,53 @@ public class Network implements Cloneable, Serializable
         }
     }
 
+    /**
+     * Stores the network in a binary file: a header of fileHeaderSize bytes (magic number, version, number of nodes, number of
+     * edge entries, number of clusters or -1 if there is no clustering, ordinal of the {@link WeightPrecision} and the total
+     * weight of the self links), followed by firstNeighborIndex, neighbor, edgeWeight, nodeWeight and cluster, big-endian. The
+     * weights are written as doubles and stored again with the saved precision on loading. The file is written through
+     * memory-mapped regions, which are forced to the disk before it is closed, and can be read back by {@link #load(String)}.
+     */
     public void save(String fileName) throws IOException
     {
-        ObjectOutputStream objectOutputStream;
-
-        objectOutputStream = new ObjectOutputStream(new FileOutputStream(fileName));
+        FileChannel channel;
+        MappedByteBuffer header;
+        RandomAccessFile file;
+        long position;
 
-        objectOutputStream.writeObject(this);
-
-        objectOutputStream.close();
+        file = new RandomAccessFile(fileName, "rw");
+        try
+        {
+            file.setLength(0);
+            file.setLength(getFileSize(nNodes, neighbor.length, cluster != null));
+            channel = file.getChannel();
+
+            header = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileHeaderSize);
+            header.putInt(fileMagic);
+            header.putInt(fileVersion);
+            header.putInt(nNodes);
+            header.putInt(neighbor.length);
+            header.putInt((cluster != null) ? nClusters : -1);
+            header.putInt(getWeightPrecision().ordinal());
+            header.putDouble(totalEdgeWeightSelfLinks);
+            header.force();
+
+            position = fileHeaderSize;
+            writeInts(channel, position, firstNeighborIndex);
+            position += 4L * firstNeighborIndex.length;
+            writeInts(channel, position, neighbor);
+            position += 4L * neighbor.length;
+            writeDoubles(channel, position, getEdgeWeights());
+            position += 8L * neighbor.length;
+            writeDoubles(channel, position, getNodeWeights());
+            position += 8L * nNodes;
+            if (cluster != null)
+                writeInts(channel, position, cluster);
+        }
+        finally
+        {
+            file.close();
+        }
     }
 
     public int getNNodes()
@@ -229,13 +375,26 @@ public class Network implements Cloneable, Serializable
 
         totalEdgeWeight = totalEdgeWeightSelfLinks;
         for (i = 0; i < neighbor.length; i++)
-            totalEdgeWeight += edgeWeight[i];
+            totalEdgeWeight += getEdgeWeight(i);
 
         return totalEdgeWeight;
     }
 
+    /**
+     * Returns the edge weights. Unless the weights are stored as doubles, this is a copy.
+     */
     public double[] getEdgeWeights()
     {
+        double[] edgeWeight;
+        int i;
+
+        if (this.edgeWeight != null)
+            return this.edgeWeight;
+
+        edgeWeight = new double[neighbor.length];
+        for (i = 0; i < neighbor.length; i++)
+            edgeWeight[i] = getEdgeWeight(i);
+
         return edgeWeight;
     }
 
@@ -246,16 +405,50 @@ public class Network implements Cloneable, Serializable
 
         totalNodeWeight = 0;
         for (i = 0; i < nNodes; i++)
-            totalNodeWeight += nodeWeight[i];
+            totalNodeWeight += getNodeWeight(i);
 
         return totalNodeWeight;
     }
 
+    /**
+     * Returns the node weights. Unless the weights are stored as doubles, this is a copy.
+     */
     public double[] getNodeWeights()
     {
+        double[] nodeWeight;
+        int i;
+
+        if (this.nodeWeight != null)
+            return this.nodeWeight;
+
+        nodeWeight = new double[nNodes];
+        for (i = 0; i < nNodes; i++)
+            nodeWeight[i] = floatNodeWeight[i];
+
         return nodeWeight;
     }
 
+    public WeightPrecision getWeightPrecision()
+    {
+        if (edgeWeight != null)
+            return WeightPrecision.DOUBLE;
+        else if (floatEdgeWeight != null)
+            return WeightPrecision.FLOAT;
+        else
+            return WeightPrecision.SHORT;
+    }
+
+    /**
+     * Changes the storage of the edge and node weights (see {@link WeightPrecision}). The reduced networks and subnetworks of
+     * the network use the same precision, so that all levels of the algorithms save the same share of memory. Going back to
+     * DOUBLE does not restore the precision lost.
+     */
+    public void setWeightPrecision(WeightPrecision weightPrecision)
+    {
+        if (weightPrecision != getWeightPrecision())
+            setWeights(getEdgeWeights(), neighbor.length, getNodeWeights(), weightPrecision);
+    }
+
     public int getNClusters()
     {
         return nClusters;
@@ -468,46 +661,74 @@ public class Network implements Cloneable, Serializable
 
         subnetworkNode = new int[nNodes];
         subnetworkNeighbor = new int[neighbor.length];
-        subnetworkEdgeWeight = new double[edgeWeight.length];
+        subnetworkEdgeWeight = new double[neighbor.length];
 
         return getSubnetwork(cluster, subnetworkNode, subnetworkNeighbor, subnetworkEdgeWeight);
     }
 
     public Network[] getSubnetworks()
     {
-        double[] subnetworkEdgeWeight;
-        int i;
-        int[] subnetworkNeighbor, subnetworkNode;
-        Network[] subnetwork;
+        if (cluster == null)
+            return null;
+
+        return getSubnetworks(new int[nNodes], new int[neighbor.length], new double[neighbor.length]);
+    }
 
+    public Network getReducedNetwork()
+    {
         if (cluster == null)
             return null;
 
+        return getReducedNetwork(new int[neighbor.length], new double[neighbor.length], new int[nClusters - 1], new double[nClusters]);
+    }
+
+    /*
+     * Same as getSubnetworks(), taking its temporary arrays from a workspace. nodeOrder is free between two runs of the
+     * local moving.
+     */
+    private Network[] getSubnetworks(Workspace workspace)
+    {
+        workspace.prepareCopy(nNodes, neighbor.length);
+        return getSubnetworks(workspace.nodeOrder, workspace.copyNeighbor, workspace.copyEdgeWeight);
+    }
+
+    /*
+     * Same as getReducedNetwork(), taking its temporary arrays from a workspace. The local moving leaves
+     * edgeWeightPerCluster zeroed, as required by getReducedNetwork(int[], double[], int[], double[]).
+     */
+    private Network getReducedNetwork(Workspace workspace)
+    {
+        workspace.prepareCopy(nNodes, neighbor.length);
+        return getReducedNetwork(workspace.copyNeighbor, workspace.copyEdgeWeight, workspace.neighboringCluster, workspace.edgeWeightPerCluster);
+    }
+
+    private Network[] getSubnetworks(int[] subnetworkNode, int[] subnetworkNeighbor, double[] subnetworkEdgeWeight)
+    {
+        int i;
+        Network[] subnetwork;
+
         if (!clusteringStatsAvailable)
             calcClusteringStats();
 
         subnetwork = new Network[nClusters];
 
-        subnetworkNode = new int[nNodes];
-        subnetworkNeighbor = new int[neighbor.length];
-        subnetworkEdgeWeight = new double[edgeWeight.length];
-
         for (i = 0; i < nClusters; i++)
             subnetwork[i] = getSubnetwork(i, subnetworkNode, subnetworkNeighbor, subnetworkEdgeWeight);
 
         return subnetwork;
     }
 
-    public Network getReducedNetwork()
+    /*
+     * Builds the reduced network in temporary arrays with room for all edges and, for the second pair, for all clusters.
+     * reducedNetworkEdgeWeight2 must be zeroed, and is left zeroed.
+     */
+    private Network getReducedNetwork(int[] reducedNetworkNeighbor1, double[] reducedNetworkEdgeWeight1, int[] reducedNetworkNeighbor2, double[] reducedNetworkEdgeWeight2)
     {
-        double[] reducedNetworkEdgeWeight1, reducedNetworkEdgeWeight2;
+        double weight;
+        double[] reducedNetworkNodeWeight;
         int i, j, k, l, m, reducedNetworkNEdges1, reducedNetworkNEdges2;
-        int[] reducedNetworkNeighbor1, reducedNetworkNeighbor2;
         Network reducedNetwork;
 
-        if (cluster == null)
-            return null;
-
         if (!clusteringStatsAvailable)
             calcClusteringStats();
 
@@ -516,13 +737,7 @@ public class Network implements Cloneable, Serializable
         reducedNetwork.nNodes = nClusters;
         reducedNetwork.firstNeighborIndex = new int[nClusters + 1];
         reducedNetwork.totalEdgeWeightSelfLinks = totalEdgeWeightSelfLinks;
-        reducedNetwork.nodeWeight = new double[nClusters];
-
-        reducedNetworkNeighbor1 = new int[neighbor.length];
-        reducedNetworkEdgeWeight1 = new double[edgeWeight.length];
-
-        reducedNetworkNeighbor2 = new int[nClusters - 1];
-        reducedNetworkEdgeWeight2 = new double[nClusters];
+        reducedNetworkNodeWeight = new double[nClusters];
 
         reducedNetworkNEdges1 = 0;
         for (i = 0; i < nClusters; i++)
@@ -535,20 +750,24 @@ public class Network implements Cloneable, Serializable
                 for (l = firstNeighborIndex[k]; l < firstNeighborIndex[k + 1]; l++)
                 {
                     m = cluster[neighbor[l]];
+                    weight = getEdgeWeight(l);
                     if (m != i)
                     {
+                        // Edges of weight 0, e.g. small ones stored as SHORT, are left out, as they would list m twice
+                        if (weight == 0)
+                            continue;
                         if (reducedNetworkEdgeWeight2[m] == 0)
                         {
                             reducedNetworkNeighbor2[reducedNetworkNEdges2] = m;
                             reducedNetworkNEdges2++;
                         }
-                        reducedNetworkEdgeWeight2[m] += edgeWeight[l];
+                        reducedNetworkEdgeWeight2[m] += weight;
                     }
                     else
-                        reducedNetwork.totalEdgeWeightSelfLinks += edgeWeight[l];
+                        reducedNetwork.totalEdgeWeightSelfLinks += weight;
                 }
 
-                reducedNetwork.nodeWeight[i] += nodeWeight[k];
+                reducedNetworkNodeWeight[i] += getNodeWeight(k);
             }
 
             for (j = 0; j < reducedNetworkNEdges2; j++)
@@ -563,9 +782,8 @@ public class Network implements Cloneable, Serializable
         }
 
         reducedNetwork.neighbor = new int[reducedNetworkNEdges1];
-        reducedNetwork.edgeWeight = new double[reducedNetworkNEdges1];
         System.arraycopy(reducedNetworkNeighbor1, 0, reducedNetwork.neighbor, 0, reducedNetworkNEdges1);
-        System.arraycopy(reducedNetworkEdgeWeight1, 0, reducedNetwork.edgeWeight, 0, reducedNetworkNEdges1);
+        reducedNetwork.setWeights(reducedNetworkEdgeWeight1, reducedNetworkNEdges1, reducedNetworkNodeWeight, getWeightPrecision());
 
         return reducedNetwork;
     }
@@ -612,8 +830,8 @@ public class Network implements Cloneable, Serializable
             for (k = firstNeighborIndex[i]; k < firstNeighborIndex[i + 1]; k++)
             {
                 if (cluster[neighbor[k]] == j)
-                    qualityFunction += edgeWeight[k];
-                totalEdgeWeight += edgeWeight[k];
+                    qualityFunction += getEdgeWeight(k);
+                totalEdgeWeight += getEdgeWeight(k);
             }
         }
 
@@ -631,6 +849,14 @@ public class Network implements Cloneable, Serializable
     }
 
     public boolean runLocalMovingAlgorithm(double resolution, Random random)
+    {
+        return runLocalMovingAlgorithm(resolution, random, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runLocalMovingAlgorithm(double, Random)}, taking its arrays from a workspace instead of allocating them.
+     */
+    public boolean runLocalMovingAlgorithm(double resolution, Random random, Workspace workspace)
     {
         boolean update;
         double maxQualityFunction, qualityFunction;
@@ -643,16 +869,17 @@ public class Network implements Cloneable, Serializable
 
         update = false;
 
-        clusterWeight = new double[nNodes];
-        nNodesPerCluster = new int[nNodes];
+        workspace.prepare(nNodes);
+        clusterWeight = workspace.clusterWeight;
+        nNodesPerCluster = workspace.nNodesPerCluster;
         for (i = 0; i < nNodes; i++)
         {
-            clusterWeight[cluster[i]] += nodeWeight[i];
+            clusterWeight[cluster[i]] += getNodeWeight(i);
             nNodesPerCluster[cluster[i]]++;
         }
 
         nUnusedClusters = 0;
-        unusedCluster = new int[nNodes];
+        unusedCluster = workspace.unusedCluster;
         for (i = 0; i < nNodes; i++)
             if (nNodesPerCluster[i] == 0)
             {
@@ -660,7 +887,7 @@ public class Network implements Cloneable, Serializable
                 nUnusedClusters++;
             }
 
-        nodeOrder = new int[nNodes];
+        nodeOrder = workspace.nodeOrder;
         for (i = 0; i < nNodes; i++)
             nodeOrder[i] = i;
         for (i = 0; i < nNodes; i++)
@@ -671,8 +898,8 @@ public class Network implements Cloneable, Serializable
             nodeOrder[j] = k;
         }
 
-        edgeWeightPerCluster = new double[nNodes];
-        neighboringCluster = new int[nNodes - 1];
+        edgeWeightPerCluster = workspace.edgeWeightPerCluster;
+        neighboringCluster = workspace.neighboringCluster;
 
         nStableNodes = 0;
         i = 0;
@@ -689,10 +916,10 @@ public class Network implements Cloneable, Serializable
                     neighboringCluster[nNeighboringClusters] = l;
                     nNeighboringClusters++;
                 }
-                edgeWeightPerCluster[l] += edgeWeight[k];
+                edgeWeightPerCluster[l] += getEdgeWeight(k);
             }
 
-            clusterWeight[cluster[j]] -= nodeWeight[j];
+            clusterWeight[cluster[j]] -= getNodeWeight(j);
             nNodesPerCluster[cluster[j]]--;
             if (nNodesPerCluster[cluster[j]] == 0)
             {
@@ -705,7 +932,7 @@ public class Network implements Cloneable, Serializable
             for (k = 0; k < nNeighboringClusters; k++)
             {
                 l = neighboringCluster[k];
-                qualityFunction = edgeWeightPerCluster[l] - nodeWeight[j] * clusterWeight[l] * resolution;
+                qualityFunction = edgeWeightPerCluster[l] - getNodeWeight(j) * clusterWeight[l] * resolution;
                 if ((qualityFunction > maxQualityFunction) || ((qualityFunction == maxQualityFunction) && (l < bestCluster)))
                 {
                     bestCluster = l;
@@ -719,7 +946,7 @@ public class Network implements Cloneable, Serializable
                 nUnusedClusters--;
             }
 
-            clusterWeight[bestCluster] += nodeWeight[j];
+            clusterWeight[bestCluster] += getNodeWeight(j);
             nNodesPerCluster[bestCluster]++;
             if (bestCluster == cluster[j])
                 nStableNodes++;
@@ -734,7 +961,143 @@ public class Network implements Cloneable, Serializable
         }
         while (nStableNodes < nNodes);
 
-        newCluster = new int[nNodes];
+        newCluster = workspace.newCluster;
+        nClusters = 0;
+        for (i = 0; i < nNodes; i++)
+            if (nNodesPerCluster[i] > 0)
+            {
+                newCluster[i] = nClusters;
+                nClusters++;
+            }
+        for (i = 0; i < nNodes; i++)
+            cluster[i] = newCluster[cluster[i]];
+
+        deleteClusteringStats();
+
+        return update;
+    }
+
+    /**
+     * Parallel variant of {@link #runLocalMovingAlgorithm(double, Random)}, in the spirit of Grappolo (H. Lu et al., Parallel
+     * Heuristics for Scalable Community Detection). Every sweep decides the best cluster of all nodes concurrently against a
+     * snapshot of the clustering, and applies all moves at once. Two conflicts are resolved: a node alone in its cluster only
+     * joins another single-node cluster if the latter has a lower random rank (otherwise both nodes could swap clusters
+     * forever), and a sweep lowering the quality function is undone, the remaining moves being left to the sequential
+     * algorithm. Sweeps are repeated until the quality function improves by less than a fraction of the total edge weight.
+     * <p>
+     * Since all decisions depend only on the snapshot and on the random ranks, the result does not depend on the number of
+     * threads of the pool. Networks with fewer than a few thousand nodes are handed to the sequential algorithm.
+     */
+    public boolean runParallelLocalMovingAlgorithm(double resolution, Random random, ForkJoinPool pool)
+    {
+        return runParallelLocalMovingAlgorithm(resolution, random, pool, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runParallelLocalMovingAlgorithm(double, Random, ForkJoinPool)}, taking its arrays, including those of
+     * every thread of the pool, from a workspace instead of allocating them.
+     */
+    public boolean runParallelLocalMovingAlgorithm(double resolution, Random random, ForkJoinPool pool, Workspace workspace)
+    {
+        boolean update;
+        double quality, newQuality, totalEdgeWeight;
+        double[] clusterWeight;
+        int i, j, k, nMoves, nUnusedClusters;
+        int[] newCluster, nNodesPerCluster, oldCluster, rank, unusedCluster;
+        ThreadLocal<MovingScratch> scratch;
+
+        if ((cluster == null) || (nNodes == 1))
+            return false;
+
+        if (nNodes < minNodesForParallelMoving)
+            return runLocalMovingAlgorithm(resolution, random, workspace);
+
+        update = false;
+
+        // neighboringCluster holds the old clusters, since it is only used by the sequential algorithm, which runs once
+        // they are no longer needed
+        workspace.prepare(nNodes);
+        rank = workspace.nodeOrder;
+        for (i = 0; i < nNodes; i++)
+            rank[i] = i;
+        for (i = 0; i < nNodes; i++)
+        {
+            j = random.nextInt(nNodes);
+            k = rank[i];
+            rank[i] = rank[j];
+            rank[j] = k;
+        }
+
+        clusterWeight = workspace.clusterWeight;
+        nNodesPerCluster = workspace.nNodesPerCluster;
+        for (i = 0; i < nNodes; i++)
+        {
+            clusterWeight[cluster[i]] += getNodeWeight(i);
+            nNodesPerCluster[cluster[i]]++;
+        }
+
+        totalEdgeWeight = getTotalEdgeWeight();
+        newCluster = workspace.newCluster;
+        oldCluster = workspace.neighboringCluster;
+        unusedCluster = workspace.unusedCluster;
+        scratch = workspace.getMovingScratch();
+        quality = calcUnnormalizedQuality(resolution, clusterWeight, pool);
+        do
+        {
+            pool.invoke(new ParallelMoves(this, 0, nNodes, resolution, rank, clusterWeight, nNodesPerCluster, newCluster, scratch));
+
+            // Nodes leaving a cluster of several nodes without a better one (-1) get an unused cluster
+            System.arraycopy(cluster, 0, oldCluster, 0, nNodes);
+            nMoves = 0;
+            for (i = 0; i < nNodes; i++)
+                if (newCluster[i] != cluster[i])
+                {
+                    nNodesPerCluster[cluster[i]]--;
+                    clusterWeight[cluster[i]] -= getNodeWeight(i);
+                    if (newCluster[i] >= 0)
+                    {
+                        cluster[i] = newCluster[i];
+                        nNodesPerCluster[cluster[i]]++;
+                        clusterWeight[cluster[i]] += getNodeWeight(i);
+                    }
+                    nMoves++;
+                }
+            nUnusedClusters = 0;
+            for (i = nNodes - 1; i >= 0; i--)
+                if (nNodesPerCluster[i] == 0)
+                {
+                    unusedCluster[nUnusedClusters] = i;
+                    nUnusedClusters++;
+                }
+            for (i = 0; i < nNodes; i++)
+                if (newCluster[i] < 0)
+                {
+                    nUnusedClusters--;
+                    cluster[i] = unusedCluster[nUnusedClusters];
+                    nNodesPerCluster[cluster[i]]++;
+                    clusterWeight[cluster[i]] += getNodeWeight(i);
+                }
+
+            if (nMoves == 0)
+                break;
+
+            newQuality = calcUnnormalizedQuality(resolution, clusterWeight, pool);
+            if (newQuality < quality)
+            {
+                System.arraycopy(oldCluster, 0, cluster, 0, nNodes);
+                update |= runLocalMovingAlgorithm(resolution, random, workspace);
+                break;
+            }
+            update = true;
+            if (newQuality - quality < minRelativeQualityGain * totalEdgeWeight)
+                break;
+            quality = newQuality;
+        }
+        while (true);
+
+        Arrays.fill(nNodesPerCluster, 0, nNodes, 0);
+        for (i = 0; i < nNodes; i++)
+            nNodesPerCluster[cluster[i]]++;
         nClusters = 0;
         for (i = 0; i < nNodes; i++)
             if (nNodesPerCluster[i] > 0)
@@ -750,12 +1113,64 @@ public class Network implements Cloneable, Serializable
         return update;
     }
 
+    /**
+     * Louvain algorithm running {@link #runParallelLocalMovingAlgorithm(double, Random, ForkJoinPool)} on every level.
+     */
+    public boolean runParallelLouvainAlgorithm(double resolution, Random random, ForkJoinPool pool)
+    {
+        return runParallelLouvainAlgorithm(resolution, random, pool, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runParallelLouvainAlgorithm(double, Random, ForkJoinPool)}, with all levels taking their arrays from
+     * one workspace.
+     */
+    public boolean runParallelLouvainAlgorithm(double resolution, Random random, ForkJoinPool pool, Workspace workspace)
+    {
+        boolean update, update2;
+        Network reducedNetwork;
+
+        if ((cluster == null) || (nNodes == 1))
+            return false;
+
+        update = runParallelLocalMovingAlgorithm(resolution, random, pool, workspace);
+
+        if (nClusters < nNodes)
+        {
+            reducedNetwork = getReducedNetwork(workspace);
+            reducedNetwork.initSingletonClusters();
+
+            update2 = reducedNetwork.runParallelLouvainAlgorithm(resolution, random, pool, workspace);
+
+            if (update2)
+            {
+                update = true;
+
+                mergeClusters(reducedNetwork.getClusters());
+            }
+        }
+
+        deleteClusteringStats();
+
+        return update;
+    }
+
     public boolean runLouvainAlgorithm(double resolution)
     {
         return runLouvainAlgorithm(resolution, new Random());
     }
 
     public boolean runLouvainAlgorithm(double resolution, Random random)
+    {
+        return runLouvainAlgorithm(resolution, random, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runLouvainAlgorithm(double, Random)}, with all levels taking their arrays from one workspace, and
+     * moving nodes with {@link #runFastLocalMovingAlgorithm(double, Random, Workspace)} if the workspace is set to queue
+     * moving.
+     */
+    public boolean runLouvainAlgorithm(double resolution, Random random, Workspace workspace)
     {
         boolean update, update2;
         Network reducedNetwork;
@@ -763,14 +1178,14 @@ public class Network implements Cloneable, Serializable
         if ((cluster == null) || (nNodes == 1))
             return false;
 
-        update = runLocalMovingAlgorithm(resolution, random);
+        update = moveNodes(resolution, random, workspace);
 
         if (nClusters < nNodes)
         {
-            reducedNetwork = getReducedNetwork();
+            reducedNetwork = getReducedNetwork(workspace);
             reducedNetwork.initSingletonClusters();
 
-            update2 = reducedNetwork.runLouvainAlgorithm(resolution, random);
+            update2 = reducedNetwork.runLouvainAlgorithm(resolution, random, workspace);
 
             if (update2)
             {
@@ -791,6 +1206,16 @@ public class Network implements Cloneable, Serializable
     }
 
     public boolean runLouvainAlgorithmWithMultilevelRefinement(double resolution, Random random)
+    {
+        return runLouvainAlgorithmWithMultilevelRefinement(resolution, random, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runLouvainAlgorithmWithMultilevelRefinement(double, Random)}, with all levels taking their arrays from
+     * one workspace, and moving nodes with {@link #runFastLocalMovingAlgorithm(double, Random, Workspace)} if the workspace
+     * is set to queue moving.
+     */
+    public boolean runLouvainAlgorithmWithMultilevelRefinement(double resolution, Random random, Workspace workspace)
     {
         boolean update, update2;
         Network reducedNetwork;
@@ -798,14 +1223,14 @@ public class Network implements Cloneable, Serializable
         if ((cluster == null) || (nNodes == 1))
             return false;
 
-        update = runLocalMovingAlgorithm(resolution, random);
+        update = moveNodes(resolution, random, workspace);
 
         if (nClusters < nNodes)
         {
-            reducedNetwork = getReducedNetwork();
+            reducedNetwork = getReducedNetwork(workspace);
             reducedNetwork.initSingletonClusters();
 
-            update2 = reducedNetwork.runLouvainAlgorithm(resolution, random);
+            update2 = reducedNetwork.runLouvainAlgorithm(resolution, random, workspace);
 
             if (update2)
             {
@@ -813,7 +1238,7 @@ public class Network implements Cloneable, Serializable
 
                 mergeClusters(reducedNetwork.getClusters());
 
-                runLocalMovingAlgorithm(resolution, random);
+                moveNodes(resolution, random, workspace);
             }
         }
 
@@ -828,6 +1253,16 @@ public class Network implements Cloneable, Serializable
     }
 
     public boolean runSmartLocalMovingAlgorithm(double resolution, Random random)
+    {
+        return runSmartLocalMovingAlgorithm(resolution, random, new Workspace(nNodes));
+    }
+
+    /**
+     * Same as {@link #runSmartLocalMovingAlgorithm(double, Random)}, with all levels and subnetworks taking their arrays from
+     * one workspace, and moving nodes with {@link #runFastLocalMovingAlgorithm(double, Random, Workspace)} if the workspace
+     * is set to queue moving.
+     */
+    public boolean runSmartLocalMovingAlgorithm(double resolution, Random random, Workspace workspace)
     {
         boolean update;
         int i, j, k;
@@ -838,20 +1273,20 @@ public class Network implements Cloneable, Serializable
         if ((cluster == null) || (nNodes == 1))
             return false;
 
-        update = runLocalMovingAlgorithm(resolution, random);
+        update = moveNodes(resolution, random, workspace);
 
         if (nClusters < nNodes)
         {
             if (!clusteringStatsAvailable)
                 calcClusteringStats();
 
-            subnetwork = getSubnetworks();
+            subnetwork = getSubnetworks(workspace);
 
             nClusters = 0;
             for (i = 0; i < subnetwork.length; i++)
             {
                 subnetwork[i].initSingletonClusters();
-                subnetwork[i].runLocalMovingAlgorithm(resolution, random);
+                subnetwork[i].moveNodes(resolution, random, workspace);
 
                 subnetworkCluster = subnetwork[i].getClusters();
                 for (j = 0; j < subnetworkCluster.length; j++)
@@ -860,7 +1295,7 @@ public class Network implements Cloneable, Serializable
             }
             calcClusteringStats();
 
-            reducedNetwork = getReducedNetwork();
+            reducedNetwork = getReducedNetwork(workspace);
 
             reducedNetworkCluster = new int[nClusters];
             i = 0;
@@ -872,7 +1307,7 @@ public class Network implements Cloneable, Serializable
                 }
             reducedNetwork.setClusters(reducedNetworkCluster);
 
-            update |= reducedNetwork.runSmartLocalMovingAlgorithm(resolution, random);
+            update |= reducedNetwork.runSmartLocalMovingAlgorithm(resolution, random, workspace);
 
             mergeClusters(reducedNetwork.getClusters());
         }
@@ -882,75 +1317,448 @@ public class Network implements Cloneable, Serializable
         return update;
     }
 
-    private Network()
+    /**
+     * Variant of {@link #runLocalMovingAlgorithm(double, Random)} keeping the nodes to visit in a queue, as in the Leiden
+     * algorithm. All nodes are queued once in random order; when a node moves, its neighbors outside its new cluster that
+     * are not queued anymore are appended to the queue. The algorithm ends when the queue is empty, so that stable parts of
+     * the network are not visited again.
+     */
+    public boolean runFastLocalMovingAlgorithm(double resolution, Random random)
     {
+        return runFastLocalMovingAlgorithm(resolution, random, new Workspace(nNodes));
     }
 
-    private void writeObject(ObjectOutputStream out) throws IOException
+    /**
+     * Same as {@link #runFastLocalMovingAlgorithm(double, Random)}, taking its arrays from a workspace instead of allocating them.
+     */
+    public boolean runFastLocalMovingAlgorithm(double resolution, Random random, Workspace workspace)
     {
-        deleteClusteringStats();
+        boolean update;
+        boolean[] stableNode;
+        double maxQualityFunction, qualityFunction;
+        double[] clusterWeight, edgeWeightPerCluster;
+        int bestCluster, i, j, k, l, nNeighboringClusters, nUnstableNodes, nUnusedClusters, queueHead;
+        int[] neighboringCluster, newCluster, nNodesPerCluster, nodeQueue, unusedCluster;
 
-        out.defaultWriteObject();
-    }
+        if ((cluster == null) || (nNodes == 1))
+            return false;
 
-    private boolean removeCluster2(int cluster)
-    {
-        double maxQualityFunction, qualityFunction;
-        double[] reducedNetworkEdgeWeight;
-        int bestCluster, i, j;
+        update = false;
 
-        reducedNetworkEdgeWeight = new double[nClusters];
+        workspace.prepare(nNodes);
+        clusterWeight = workspace.clusterWeight;
+        nNodesPerCluster = workspace.nNodesPerCluster;
         for (i = 0; i < nNodes; i++)
-            if (this.cluster[i] == cluster)
-                for (j = firstNeighborIndex[i]; j < firstNeighborIndex[i + 1]; j++)
-                    reducedNetworkEdgeWeight[this.cluster[neighbor[j]]] += edgeWeight[j];
+        {
+            clusterWeight[cluster[i]] += getNodeWeight(i);
+            nNodesPerCluster[cluster[i]]++;
+        }
 
-        bestCluster = -1;
-        maxQualityFunction = 0;
-        for (i = 0; i < nClusters; i++)
-            if ((i != cluster) && (clusterWeight[i] > 0))
+        nUnusedClusters = 0;
+        unusedCluster = workspace.unusedCluster;
+        for (i = 0; i < nNodes; i++)
+            if (nNodesPerCluster[i] == 0)
             {
-                qualityFunction = reducedNetworkEdgeWeight[i] / clusterWeight[i];
-                if (qualityFunction > maxQualityFunction)
-                {
-                    bestCluster = i;
-                    maxQualityFunction = qualityFunction;
-                }
+                unusedCluster[nUnusedClusters] = i;
+                nUnusedClusters++;
             }
 
-        if (bestCluster == -1)
-            return false;
-
+        nodeQueue = workspace.nodeOrder;
+        for (i = 0; i < nNodes; i++)
+            nodeQueue[i] = i;
         for (i = 0; i < nNodes; i++)
-            if (this.cluster[i] == cluster)
-                this.cluster[i] = bestCluster;
-
-        clusterWeight[bestCluster] += clusterWeight[cluster];
-        clusterWeight[cluster] = 0;
-
-        if (cluster == nClusters - 1)
         {
-            i = 0;
-            for (j = 0; j < nNodes; j++)
-                if (this.cluster[j] > i)
-                    i = this.cluster[j];
-            nClusters = i + 1;
+            j = random.nextInt(nNodes);
+            k = nodeQueue[i];
+            nodeQueue[i] = nodeQueue[j];
+            nodeQueue[j] = k;
         }
 
-        return true;
-    }
+        stableNode = workspace.stableNode;
+        edgeWeightPerCluster = workspace.edgeWeightPerCluster;
+        neighboringCluster = workspace.neighboringCluster;
 
-    private void orderClusters(boolean orderByWeight)
-    {
-        class ClusterSize implements Comparable<ClusterSize>
+        nUnstableNodes = nNodes;
+        queueHead = 0;
+        do
         {
-            public int cluster;
-            public double size;
+            j = nodeQueue[queueHead];
+            stableNode[j] = true;
+            queueHead = (queueHead < nNodes - 1) ? (queueHead + 1) : 0;
+            nUnstableNodes--;
 
-            public ClusterSize(int cluster, double size)
+            nNeighboringClusters = 0;
+            for (k = firstNeighborIndex[j]; k < firstNeighborIndex[j + 1]; k++)
             {
-                this.cluster = cluster;
-                this.size = size;
+                l = cluster[neighbor[k]];
+                if (edgeWeightPerCluster[l] == 0)
+                {
+                    neighboringCluster[nNeighboringClusters] = l;
+                    nNeighboringClusters++;
+                }
+                edgeWeightPerCluster[l] += getEdgeWeight(k);
+            }
+
+            clusterWeight[cluster[j]] -= getNodeWeight(j);
+            nNodesPerCluster[cluster[j]]--;
+            if (nNodesPerCluster[cluster[j]] == 0)
+            {
+                unusedCluster[nUnusedClusters] = cluster[j];
+                nUnusedClusters++;
+            }
+
+            bestCluster = -1;
+            maxQualityFunction = 0;
+            for (k = 0; k < nNeighboringClusters; k++)
+            {
+                l = neighboringCluster[k];
+                qualityFunction = edgeWeightPerCluster[l] - getNodeWeight(j) * clusterWeight[l] * resolution;
+                if ((qualityFunction > maxQualityFunction) || ((qualityFunction == maxQualityFunction) && (l < bestCluster)))
+                {
+                    bestCluster = l;
+                    maxQualityFunction = qualityFunction;
+                }
+                edgeWeightPerCluster[l] = 0;
+            }
+            if (maxQualityFunction == 0)
+            {
+                bestCluster = unusedCluster[nUnusedClusters - 1];
+                nUnusedClusters--;
+            }
+
+            clusterWeight[bestCluster] += getNodeWeight(j);
+            nNodesPerCluster[bestCluster]++;
+            if (bestCluster != cluster[j])
+            {
+                cluster[j] = bestCluster;
+                update = true;
+
+                for (k = firstNeighborIndex[j]; k < firstNeighborIndex[j + 1]; k++)
+                {
+                    l = neighbor[k];
+                    if (stableNode[l] && (cluster[l] != bestCluster))
+                    {
+                        stableNode[l] = false;
+                        i = queueHead + nUnstableNodes;
+                        nodeQueue[(i < nNodes) ? i : (i - nNodes)] = l;
+                        nUnstableNodes++;
+                    }
+                }
+            }
+        }
+        while (nUnstableNodes > 0);
+
+        newCluster = workspace.newCluster;
+        nClusters = 0;
+        for (i = 0; i < nNodes; i++)
+            if (nNodesPerCluster[i] > 0)
+            {
+                newCluster[i] = nClusters;
+                nClusters++;
+            }
+        for (i = 0; i < nNodes; i++)
+            cluster[i] = newCluster[cluster[i]];
+
+        deleteClusteringStats();
+
+        return update;
+    }
+
+    public boolean runLeidenAlgorithm(double resolution)
+    {
+        return runLeidenAlgorithm(resolution, new Random());
+    }
+
+    public boolean runLeidenAlgorithm(double resolution, Random random)
+    {
+        return runLeidenAlgorithm(resolution, defaultRandomness, random, new Workspace(nNodes));
+    }
+
+    public boolean runLeidenAlgorithm(double resolution, Random random, Workspace workspace)
+    {
+        return runLeidenAlgorithm(resolution, defaultRandomness, random, workspace);
+    }
+
+    public boolean runLeidenAlgorithm(double resolution, double randomness, Random random)
+    {
+        return runLeidenAlgorithm(resolution, randomness, random, new Workspace(nNodes));
+    }
+
+    /**
+     * Leiden algorithm (V. A. Traag, L. Waltman and N. J. van Eck, From Louvain to Leiden: guaranteeing well-connected
+     * communities). The clustering is first improved by {@link #runFastLocalMovingAlgorithm(double, Random)}. Every cluster
+     * is then refined by merging its nodes, starting from singletons, into well-connected subclusters, each node choosing
+     * among the subclusters it does not lower the quality function with a probability growing exponentially with the gain
+     * divided by the randomness. The reduced network is built from the refined clusters and starts from the clusters found by
+     * the local moving, so that a cluster can be split on the next level if its subclusters fit better elsewhere.
+     * @param resolution the resolution.
+     * @param randomness the randomness of the refinement, 0.01 by default. Smaller values make it greedier.
+     * @param random the random number generator.
+     * @param workspace the arrays of the local moving, shared by all levels.
+     * @return whether the clustering has been changed.
+     */
+    public boolean runLeidenAlgorithm(double resolution, double randomness, Random random, Workspace workspace)
+    {
+        boolean update;
+        int i, nRefinedClusters;
+        int[] reducedNetworkCluster, refinedCluster;
+        Network reducedNetwork;
+
+        if ((cluster == null) || (nNodes == 1))
+            return false;
+
+        update = runFastLocalMovingAlgorithm(resolution, random, workspace);
+
+        if (nClusters < nNodes)
+        {
+            refinedCluster = calcRefinedClusters(resolution, randomness, random, workspace);
+            nRefinedClusters = 0;
+            for (i = 0; i < nNodes; i++)
+                if (refinedCluster[i] >= nRefinedClusters)
+                    nRefinedClusters = refinedCluster[i] + 1;
+
+            // Without any merge the refined clusters would not reduce the network, so the clusters themselves are used
+            if (nRefinedClusters == nNodes)
+            {
+                refinedCluster = cluster;
+                nRefinedClusters = nClusters;
+            }
+
+            reducedNetworkCluster = new int[nRefinedClusters];
+            for (i = 0; i < nNodes; i++)
+                reducedNetworkCluster[refinedCluster[i]] = cluster[i];
+
+            setClusters(refinedCluster);
+            reducedNetwork = getReducedNetwork(workspace);
+            reducedNetwork.setClusters(reducedNetworkCluster);
+
+            update |= reducedNetwork.runLeidenAlgorithm(resolution, randomness, random, workspace);
+
+            mergeClusters(reducedNetwork.getClusters());
+        }
+
+        deleteClusteringStats();
+
+        return update;
+    }
+
+    private static long getFileSize(int nNodes, int nEdges, boolean hasClusters)
+    {
+        return fileHeaderSize + 4L * (nNodes + 1) + 12L * nEdges + 8L * nNodes + (hasClusters ? 4L * nNodes : 0);
+    }
+
+    /*
+     * The arrays are mapped in regions of at most mappedRegionSize bytes, since a single mapping cannot exceed 2 GB.
+     */
+    private static int[] readInts(FileChannel channel, long position, int length) throws IOException
+    {
+        int i, n;
+        int[] array;
+
+        array = new int[length];
+        for (i = 0; i < length; i += n)
+        {
+            n = Math.min(length - i, mappedRegionSize / 4);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + 4L * i, 4L * n).asIntBuffer().get(array, i, n);
+        }
+        return array;
+    }
+
+    private static double[] readDoubles(FileChannel channel, long position, int length) throws IOException
+    {
+        int i, n;
+        double[] array;
+
+        array = new double[length];
+        for (i = 0; i < length; i += n)
+        {
+            n = Math.min(length - i, mappedRegionSize / 8);
+            channel.map(FileChannel.MapMode.READ_ONLY, position + 8L * i, 8L * n).asDoubleBuffer().get(array, i, n);
+        }
+        return array;
+    }
+
+    private static void writeInts(FileChannel channel, long position, int[] array) throws IOException
+    {
+        MappedByteBuffer region;
+        int i, n;
+
+        for (i = 0; i < array.length; i += n)
+        {
+            n = Math.min(array.length - i, mappedRegionSize / 4);
+            region = channel.map(FileChannel.MapMode.READ_WRITE, position + 4L * i, 4L * n);
+            region.asIntBuffer().put(array, i, n);
+            region.force();
+        }
+    }
+
+    private static void writeDoubles(FileChannel channel, long position, double[] array) throws IOException
+    {
+        MappedByteBuffer region;
+        int i, n;
+
+        for (i = 0; i < array.length; i += n)
+        {
+            n = Math.min(array.length - i, mappedRegionSize / 8);
+            region = channel.map(FileChannel.MapMode.READ_WRITE, position + 8L * i, 8L * n);
+            region.asDoubleBuffer().put(array, i, n);
+            region.force();
+        }
+    }
+
+    private double getEdgeWeight(int index)
+    {
+        if (edgeWeight != null)
+            return edgeWeight[index];
+        else if (floatEdgeWeight != null)
+            return floatEdgeWeight[index];
+        else
+            return (shortEdgeWeight[index] & 0xFFFF) * edgeWeightScale;
+    }
+
+    private double getNodeWeight(int node)
+    {
+        return (nodeWeight != null) ? nodeWeight[node] : floatNodeWeight[node];
+    }
+
+    private void setWeights(double[] edgeWeight, int nEdges, double[] nodeWeight, WeightPrecision weightPrecision)
+    {
+        setEdgeWeights(edgeWeight, nEdges, weightPrecision);
+        setNodeWeights(nodeWeight, weightPrecision);
+    }
+
+    /*
+     * Stores the first nEdges entries of edgeWeight with the given precision.
+     */
+    private void setEdgeWeights(double[] edgeWeight, int nEdges, WeightPrecision weightPrecision)
+    {
+        double maxEdgeWeight;
+        int i;
+
+        this.edgeWeight = null;
+        floatEdgeWeight = null;
+        shortEdgeWeight = null;
+
+        if (weightPrecision == WeightPrecision.DOUBLE)
+            this.edgeWeight = (edgeWeight.length == nEdges) ? edgeWeight : Arrays.copyOf(edgeWeight, nEdges);
+        else if (weightPrecision == WeightPrecision.FLOAT)
+        {
+            floatEdgeWeight = new float[nEdges];
+            for (i = 0; i < nEdges; i++)
+                floatEdgeWeight[i] = (float)edgeWeight[i];
+        }
+        else
+        {
+            maxEdgeWeight = 0;
+            for (i = 0; i < nEdges; i++)
+            {
+                if (edgeWeight[i] < 0)
+                    throw new IllegalArgumentException("Negative edge weight " + edgeWeight[i] + " cannot be stored as SHORT");
+                maxEdgeWeight = Math.max(maxEdgeWeight, edgeWeight[i]);
+            }
+            edgeWeightScale = (maxEdgeWeight > 0) ? (maxEdgeWeight / 0xFFFF) : 1;
+
+            // Weights are rounded to the nearest unit rather than raised to one, which would inflate the many small edges
+            shortEdgeWeight = new short[nEdges];
+            for (i = 0; i < nEdges; i++)
+                shortEdgeWeight[i] = (short)Math.round(edgeWeight[i] / edgeWeightScale);
+        }
+    }
+
+    private void setNodeWeights(double[] nodeWeight, WeightPrecision weightPrecision)
+    {
+        int i;
+
+        this.nodeWeight = null;
+        floatNodeWeight = null;
+
+        if (weightPrecision == WeightPrecision.DOUBLE)
+            this.nodeWeight = nodeWeight;
+        else
+        {
+            floatNodeWeight = new float[nNodes];
+            for (i = 0; i < nNodes; i++)
+                floatNodeWeight[i] = (float)nodeWeight[i];
+        }
+    }
+
+    private boolean moveNodes(double resolution, Random random, Workspace workspace)
+    {
+        if (workspace.queueMoving)
+            return runFastLocalMovingAlgorithm(resolution, random, workspace);
+        else
+            return runLocalMovingAlgorithm(resolution, random, workspace);
+    }
+
+    private Network()
+    {
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        deleteClusteringStats();
+
+        out.defaultWriteObject();
+    }
+
+    private boolean removeCluster2(int cluster)
+    {
+        double maxQualityFunction, qualityFunction;
+        double[] reducedNetworkEdgeWeight;
+        int bestCluster, i, j;
+
+        reducedNetworkEdgeWeight = new double[nClusters];
+        for (i = 0; i < nNodes; i++)
+            if (this.cluster[i] == cluster)
+                for (j = firstNeighborIndex[i]; j < firstNeighborIndex[i + 1]; j++)
+                    reducedNetworkEdgeWeight[this.cluster[neighbor[j]]] += getEdgeWeight(j);
+
+        bestCluster = -1;
+        maxQualityFunction = 0;
+        for (i = 0; i < nClusters; i++)
+            if ((i != cluster) && (clusterWeight[i] > 0))
+            {
+                qualityFunction = reducedNetworkEdgeWeight[i] / clusterWeight[i];
+                if (qualityFunction > maxQualityFunction)
+                {
+                    bestCluster = i;
+                    maxQualityFunction = qualityFunction;
+                }
+            }
+
+        if (bestCluster == -1)
+            return false;
+
+        for (i = 0; i < nNodes; i++)
+            if (this.cluster[i] == cluster)
+                this.cluster[i] = bestCluster;
+
+        clusterWeight[bestCluster] += clusterWeight[cluster];
+        clusterWeight[cluster] = 0;
+
+        if (cluster == nClusters - 1)
+        {
+            i = 0;
+            for (j = 0; j < nNodes; j++)
+                if (this.cluster[j] > i)
+                    i = this.cluster[j];
+            nClusters = i + 1;
+        }
+
+        return true;
+    }
+
+    private void orderClusters(boolean orderByWeight)
+    {
+        class ClusterSize implements Comparable<ClusterSize>
+        {
+            public int cluster;
+            public double size;
+
+            public ClusterSize(int cluster, double size)
+            {
+                this.cluster = cluster;
+                this.size = size;
             }
 
             public int compareTo(ClusterSize cluster)
@@ -992,6 +1800,7 @@ public class Network implements Cloneable, Serializable
 
     private Network getSubnetwork(int cluster, int[] subnetworkNode, int[] subnetworkNeighbor, double[] subnetworkEdgeWeight)
     {
+        double[] subnetworkNodeWeight;
         int i, j, k, subnetworkNEdges, subnetworkNNodes;
         Network subnetwork;
 
@@ -1004,8 +1813,7 @@ public class Network implements Cloneable, Serializable
         {
             subnetwork.firstNeighborIndex = new int[2];
             subnetwork.neighbor = new int[0];
-            subnetwork.edgeWeight = new double[0];
-            subnetwork.nodeWeight = new double[] {nodeWeight[nodePerCluster[cluster][0]]};
+            subnetwork.setWeights(new double[0], 0, new double[] {getNodeWeight(nodePerCluster[cluster][0])}, getWeightPrecision());
         }
         else
         {
@@ -1013,7 +1821,7 @@ public class Network implements Cloneable, Serializable
                 subnetworkNode[nodePerCluster[cluster][i]] = i;
 
             subnetwork.firstNeighborIndex = new int[subnetworkNNodes + 1];
-            subnetwork.nodeWeight = new double[subnetworkNNodes];
+            subnetworkNodeWeight = new double[subnetworkNNodes];
 
             subnetworkNEdges = 0;
             for (i = 0; i < subnetworkNNodes; i++)
@@ -1024,18 +1832,17 @@ public class Network implements Cloneable, Serializable
                     if (this.cluster[neighbor[k]] == cluster)
                     {
                         subnetworkNeighbor[subnetworkNEdges] = subnetworkNode[neighbor[k]];
-                        subnetworkEdgeWeight[subnetworkNEdges] = edgeWeight[k];
+                        subnetworkEdgeWeight[subnetworkNEdges] = getEdgeWeight(k);
                         subnetworkNEdges++;
                     }
                 subnetwork.firstNeighborIndex[i + 1] = subnetworkNEdges;
 
-                subnetwork.nodeWeight[i] = nodeWeight[j];
+                subnetworkNodeWeight[i] = getNodeWeight(j);
             }
 
             subnetwork.neighbor = new int[subnetworkNEdges];
-            subnetwork.edgeWeight = new double[subnetworkNEdges];
             System.arraycopy(subnetworkNeighbor, 0, subnetwork.neighbor, 0, subnetworkNEdges);
-            System.arraycopy(subnetworkEdgeWeight, 0, subnetwork.edgeWeight, 0, subnetworkNEdges);
+            subnetwork.setWeights(subnetworkEdgeWeight, subnetworkNEdges, subnetworkNodeWeight, getWeightPrecision());
         }
 
         subnetwork.totalEdgeWeightSelfLinks = 0;
@@ -1043,6 +1850,443 @@ public class Network implements Cloneable, Serializable
         return subnetwork;
     }
 
+    /*
+     * Refinement phase of the Leiden algorithm, see runLeidenAlgorithm(double, double, Random, Workspace). All clusters are refined
+     * in one pass over the nodes, since subclusters never cross the clusters. Returns the consecutively numbered subclusters.
+     */
+    private int[] calcRefinedClusters(double resolution, double randomness, Random random, Workspace workspace)
+    {
+        boolean[] nonSingletonCluster;
+        double maxQualityFunction, qualityFunction, r, totalTransformedQualityFunction;
+        double[] clusterWeight, cumTransformedQualityFunction, edgeWeightPerCluster, externalEdgeWeightPerCluster, refinedClusterWeight;
+        int bestCluster, chosenCluster, i, j, k, l, m, nNeighboringClusters, nRefinedClusters;
+        int[] neighboringCluster, newCluster, nodeOrder, refinedCluster;
+
+        workspace.prepareRefinement(nNodes);
+        clusterWeight = workspace.clusterWeight;
+        refinedCluster = new int[nNodes];
+        refinedClusterWeight = workspace.refinedClusterWeight;
+        externalEdgeWeightPerCluster = workspace.externalEdgeWeightPerCluster;
+        for (i = 0; i < nNodes; i++)
+        {
+            clusterWeight[cluster[i]] += getNodeWeight(i);
+            refinedCluster[i] = i;
+            refinedClusterWeight[i] = getNodeWeight(i);
+            for (k = firstNeighborIndex[i]; k < firstNeighborIndex[i + 1]; k++)
+                if (cluster[neighbor[k]] == cluster[i])
+                    externalEdgeWeightPerCluster[i] += getEdgeWeight(k);
+        }
+
+        nodeOrder = workspace.nodeOrder;
+        for (i = 0; i < nNodes; i++)
+            nodeOrder[i] = i;
+        for (i = 0; i < nNodes; i++)
+        {
+            j = random.nextInt(nNodes);
+            k = nodeOrder[i];
+            nodeOrder[i] = nodeOrder[j];
+            nodeOrder[j] = k;
+        }
+
+        nonSingletonCluster = workspace.stableNode;
+        edgeWeightPerCluster = workspace.edgeWeightPerCluster;
+        neighboringCluster = workspace.neighboringCluster;
+        cumTransformedQualityFunction = workspace.cumTransformedQualityFunction;
+
+        for (i = 0; i < nNodes; i++)
+        {
+            j = nodeOrder[i];
+            m = cluster[j];
+
+            // Only nodes still alone in their subcluster and well connected to their cluster are moved
+            if (nonSingletonCluster[j] || (externalEdgeWeightPerCluster[j] < refinedClusterWeight[j] * (clusterWeight[m] - refinedClusterWeight[j]) * resolution))
+                continue;
+
+            refinedClusterWeight[j] = 0;
+            externalEdgeWeightPerCluster[j] = 0;
+
+            neighboringCluster[0] = j;
+            nNeighboringClusters = 1;
+            for (k = firstNeighborIndex[j]; k < firstNeighborIndex[j + 1]; k++)
+                if ((cluster[neighbor[k]] == m) && (getEdgeWeight(k) != 0))
+                {
+                    l = refinedCluster[neighbor[k]];
+                    if (edgeWeightPerCluster[l] == 0)
+                    {
+                        neighboringCluster[nNeighboringClusters] = l;
+                        nNeighboringClusters++;
+                    }
+                    edgeWeightPerCluster[l] += getEdgeWeight(k);
+                }
+
+            bestCluster = j;
+            maxQualityFunction = 0;
+            totalTransformedQualityFunction = 0;
+            for (k = 0; k < nNeighboringClusters; k++)
+            {
+                l = neighboringCluster[k];
+                if (externalEdgeWeightPerCluster[l] >= refinedClusterWeight[l] * (clusterWeight[m] - refinedClusterWeight[l]) * resolution)
+                {
+                    qualityFunction = edgeWeightPerCluster[l] - getNodeWeight(j) * refinedClusterWeight[l] * resolution;
+                    if (qualityFunction > maxQualityFunction)
+                    {
+                        bestCluster = l;
+                        maxQualityFunction = qualityFunction;
+                    }
+                    if (qualityFunction >= 0)
+                        totalTransformedQualityFunction += Math.exp(qualityFunction / randomness);
+                }
+                cumTransformedQualityFunction[k] = totalTransformedQualityFunction;
+                edgeWeightPerCluster[l] = 0;
+            }
+
+            // The own subcluster always contributes exp(0), so that the sampling below ends
+            if (totalTransformedQualityFunction < Double.POSITIVE_INFINITY)
+            {
+                r = totalTransformedQualityFunction * random.nextDouble();
+                k = 0;
+                while (cumTransformedQualityFunction[k] <= r)
+                    k++;
+                chosenCluster = neighboringCluster[k];
+            }
+            else
+                chosenCluster = bestCluster;
+
+            refinedClusterWeight[chosenCluster] += getNodeWeight(j);
+            for (k = firstNeighborIndex[j]; k < firstNeighborIndex[j + 1]; k++)
+                if (cluster[neighbor[k]] == m)
+                {
+                    if (refinedCluster[neighbor[k]] == chosenCluster)
+                        externalEdgeWeightPerCluster[chosenCluster] -= getEdgeWeight(k);
+                    else
+                        externalEdgeWeightPerCluster[chosenCluster] += getEdgeWeight(k);
+                }
+
+            if (chosenCluster != j)
+            {
+                refinedCluster[j] = chosenCluster;
+                nonSingletonCluster[chosenCluster] = true;
+            }
+        }
+
+        newCluster = workspace.nNodesPerCluster;
+        for (i = 0; i < nNodes; i++)
+            newCluster[refinedCluster[i]] = 1;
+        nRefinedClusters = 0;
+        for (i = 0; i < nNodes; i++)
+            if (newCluster[i] > 0)
+            {
+                newCluster[i] = nRefinedClusters;
+                nRefinedClusters++;
+            }
+        for (i = 0; i < nNodes; i++)
+            refinedCluster[i] = newCluster[refinedCluster[i]];
+
+        return refinedCluster;
+    }
+
+    /*
+     * Sum of the weights of the edges within clusters minus the resolution times the sum of the squared cluster weights,
+     * i.e. the quality function up to constants. The edges are summed per fixed range of nodes, so that the result does not
+     * depend on the number of threads.
+     */
+    private double calcUnnormalizedQuality(double resolution, double[] clusterWeight, ForkJoinPool pool)
+    {
+        double qualityFunction;
+        double[] internalEdgeWeight;
+        int i;
+
+        internalEdgeWeight = new double[(nNodes + parallelGrain - 1) / parallelGrain];
+        pool.invoke(new InternalEdgeWeight(this, 0, internalEdgeWeight.length, internalEdgeWeight));
+
+        qualityFunction = 0;
+        for (i = 0; i < internalEdgeWeight.length; i++)
+            qualityFunction += internalEdgeWeight[i];
+        for (i = 0; i < nNodes; i++)
+            qualityFunction -= clusterWeight[i] * clusterWeight[i] * resolution;
+
+        return qualityFunction;
+    }
+
+    /*
+     * Decides the best cluster of the nodes [from, to) against the current clustering: the index of a cluster, or -1 if the
+     * node should leave its cluster for an unused one.
+     */
+    private static class ParallelMoves extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1;
+
+        private Network network;
+        private int from, to;
+        private double resolution;
+        private int[] rank, nNodesPerCluster, newCluster;
+        private double[] clusterWeight;
+        private ThreadLocal<MovingScratch> scratch;
+
+        ParallelMoves(Network network, int from, int to, double resolution, int[] rank, double[] clusterWeight, int[] nNodesPerCluster, int[] newCluster, ThreadLocal<MovingScratch> scratch)
+        {
+            this.network = network;
+            this.from = from;
+            this.to = to;
+            this.resolution = resolution;
+            this.rank = rank;
+            this.clusterWeight = clusterWeight;
+            this.nNodesPerCluster = nNodesPerCluster;
+            this.newCluster = newCluster;
+            this.scratch = scratch;
+        }
+
+        protected void compute()
+        {
+            double maxQualityFunction, qualityFunction;
+            double[] edgeWeightPerCluster;
+            int bestCluster, currentCluster, i, j, k, l, middle, nNeighboringClusters;
+            int[] neighboringCluster;
+
+            if (to - from > parallelGrain)
+            {
+                middle = from + (to - from) / 2;
+                invokeAll(new ParallelMoves(network, from, middle, resolution, rank, clusterWeight, nNodesPerCluster, newCluster, scratch),
+                        new ParallelMoves(network, middle, to, resolution, rank, clusterWeight, nNodesPerCluster, newCluster, scratch));
+                return;
+            }
+
+            // Both arrays are left zeroed for the next range of the thread
+            edgeWeightPerCluster = scratch.get().edgeWeightPerCluster;
+            neighboringCluster = scratch.get().neighboringCluster;
+            for (j = from; j < to; j++)
+            {
+                currentCluster = network.cluster[j];
+
+                nNeighboringClusters = 0;
+                for (k = network.firstNeighborIndex[j]; k < network.firstNeighborIndex[j + 1]; k++)
+                {
+                    l = network.cluster[network.neighbor[k]];
+                    if (edgeWeightPerCluster[l] == 0)
+                    {
+                        neighboringCluster[nNeighboringClusters] = l;
+                        nNeighboringClusters++;
+                    }
+                    edgeWeightPerCluster[l] += network.getEdgeWeight(k);
+                }
+
+                bestCluster = -1;
+                maxQualityFunction = 0;
+                for (i = 0; i < nNeighboringClusters; i++)
+                {
+                    l = neighboringCluster[i];
+                    qualityFunction = edgeWeightPerCluster[l] - network.getNodeWeight(j) * (clusterWeight[l] - ((l == currentCluster) ? network.getNodeWeight(j) : 0)) * resolution;
+                    if ((qualityFunction > maxQualityFunction) || ((qualityFunction == maxQualityFunction) && (qualityFunction > 0) && (rank[l] < rank[bestCluster])))
+                    {
+                        bestCluster = l;
+                        maxQualityFunction = qualityFunction;
+                    }
+                    edgeWeightPerCluster[l] = 0;
+                }
+
+                if (nNodesPerCluster[currentCluster] == 1)
+                {
+                    // A node alone in its cluster stays there instead of moving to an unused cluster, and only joins another
+                    // single-node cluster of lower rank
+                    if ((bestCluster == -1) || ((nNodesPerCluster[bestCluster] == 1) && (rank[bestCluster] > rank[currentCluster])))
+                        bestCluster = currentCluster;
+                }
+                newCluster[j] = bestCluster;
+            }
+        }
+    }
+
+    /**
+     * Arrays used by the local moving algorithms and by the construction of reduced networks and subnetworks, so that the
+     * levels of the Louvain algorithm, the subnetworks of the SLM algorithm or the iterations of a random start can share
+     * them instead of allocating them on every call. The parallel local moving also keeps the arrays of every thread of its
+     * pool here. A workspace grows to the largest network it is used with and must not be used by two networks at the same
+     * time.
+     */
+    public static final class Workspace
+    {
+        private boolean queueMoving;
+        private double[] clusterWeight, edgeWeightPerCluster;
+        private int[] neighboringCluster, newCluster, nNodesPerCluster, nodeOrder, unusedCluster;
+        private boolean[] stableNode;
+        private double[] cumTransformedQualityFunction, externalEdgeWeightPerCluster, refinedClusterWeight;
+        private int[] copyNeighbor;
+        private double[] copyEdgeWeight;
+        private ThreadLocal<MovingScratch> movingScratch;
+
+        /**
+         * Creates a workspace for networks of up to nNodes nodes.
+         */
+        public Workspace(int nNodes)
+        {
+            allocate(nNodes);
+        }
+
+        /**
+         * Returns whether the Louvain and SLM algorithms run with this workspace move nodes with
+         * {@link Network#runFastLocalMovingAlgorithm(double, Random, Workspace)}.
+         */
+        public boolean isQueueMoving()
+        {
+            return queueMoving;
+        }
+
+        /**
+         * Sets whether the Louvain and SLM algorithms run with this workspace move nodes with
+         * {@link Network#runFastLocalMovingAlgorithm(double, Random, Workspace)}, which only revisits the neighbors of moved
+         * nodes, instead of {@link Network#runLocalMovingAlgorithm(double, Random, Workspace)}, which cycles over all nodes
+         * until none of them moves. False by default.
+         */
+        public void setQueueMoving(boolean queueMoving)
+        {
+            this.queueMoving = queueMoving;
+        }
+
+        private void allocate(int nNodes)
+        {
+            clusterWeight = new double[nNodes];
+            edgeWeightPerCluster = new double[nNodes];
+            neighboringCluster = new int[nNodes];
+            newCluster = new int[nNodes];
+            nNodesPerCluster = new int[nNodes];
+            nodeOrder = new int[nNodes];
+            unusedCluster = new int[nNodes];
+            stableNode = new boolean[nNodes];
+            cumTransformedQualityFunction = null;
+            externalEdgeWeightPerCluster = null;
+            refinedClusterWeight = null;
+            movingScratch = null;
+        }
+
+        /*
+         * Makes room for nNodes nodes and clears the arrays the algorithms expect to be zero. edgeWeightPerCluster is left as
+         * is, since the algorithms reset it after every node.
+         */
+        private void prepare(int nNodes)
+        {
+            if (clusterWeight.length < nNodes)
+                allocate(nNodes);
+            else
+            {
+                Arrays.fill(clusterWeight, 0, nNodes, 0);
+                Arrays.fill(nNodesPerCluster, 0, nNodes, 0);
+                Arrays.fill(stableNode, 0, nNodes, false);
+            }
+        }
+
+        /*
+         * Same as prepare(int) for the refinement of the Leiden algorithm, whose arrays are only allocated when it is run.
+         * refinedClusterWeight is overwritten for every node.
+         */
+        private void prepareRefinement(int nNodes)
+        {
+            prepare(nNodes);
+            if (refinedClusterWeight == null)
+            {
+                cumTransformedQualityFunction = new double[clusterWeight.length];
+                externalEdgeWeightPerCluster = new double[clusterWeight.length];
+                refinedClusterWeight = new double[clusterWeight.length];
+            }
+            else
+                Arrays.fill(externalEdgeWeightPerCluster, 0, nNodes, 0);
+        }
+
+        /*
+         * Makes room for copying the edges of a network into its reduced network or its subnetworks. The edge arrays get a
+         * spare entry, so that setWeights copies them instead of keeping them.
+         */
+        private void prepareCopy(int nNodes, int nEdges)
+        {
+            if (clusterWeight.length < nNodes)
+                allocate(nNodes);
+            if ((copyNeighbor == null) || (copyNeighbor.length <= nEdges))
+            {
+                copyNeighbor = new int[nEdges + 1];
+                copyEdgeWeight = new double[nEdges + 1];
+            }
+        }
+
+        /*
+         * The arrays of every thread of the parallel local moving, created on first use in a thread and sized for the
+         * largest network of the workspace.
+         */
+        private ThreadLocal<MovingScratch> getMovingScratch()
+        {
+            final int capacity;
+
+            if (movingScratch == null)
+            {
+                capacity = clusterWeight.length;
+                movingScratch = new ThreadLocal<MovingScratch>()
+                {
+                    protected MovingScratch initialValue()
+                    {
+                        return new MovingScratch(capacity);
+                    }
+                };
+            }
+            return movingScratch;
+        }
+    }
+
+    /*
+     * The arrays every thread needs to collect the clusters around a node.
+     */
+    private static class MovingScratch
+    {
+        double[] edgeWeightPerCluster;
+        int[] neighboringCluster;
+
+        MovingScratch(int nNodes)
+        {
+            edgeWeightPerCluster = new double[nNodes];
+            neighboringCluster = new int[nNodes];
+        }
+    }
+
+    /*
+     * Sums the weights of the edges within clusters for the ranges [from, to) of parallelGrain nodes.
+     */
+    private static class InternalEdgeWeight extends RecursiveAction
+    {
+        private static final long serialVersionUID = 1;
+
+        private Network network;
+        private int from, to;
+        private double[] internalEdgeWeight;
+
+        InternalEdgeWeight(Network network, int from, int to, double[] internalEdgeWeight)
+        {
+            this.network = network;
+            this.from = from;
+            this.to = to;
+            this.internalEdgeWeight = internalEdgeWeight;
+        }
+
+        protected void compute()
+        {
+            double sum;
+            int i, j, k, middle;
+
+            if (to - from > 1)
+            {
+                middle = from + (to - from) / 2;
+                invokeAll(new InternalEdgeWeight(network, from, middle, internalEdgeWeight), new InternalEdgeWeight(network, middle, to, internalEdgeWeight));
+                return;
+            }
+
+            sum = 0;
+            for (i = from * parallelGrain; i < Math.min(network.nNodes, to * parallelGrain); i++)
+            {
+                j = network.cluster[i];
+                for (k = network.firstNeighborIndex[i]; k < network.firstNeighborIndex[i + 1]; k++)
+                    if (network.cluster[network.neighbor[k]] == j)
+                        sum += network.getEdgeWeight(k);
+            }
+            internalEdgeWeight[from] = sum;
+        }
+    }
+
     private void calcClusteringStats()
     {
         int i, j;
@@ -1053,7 +2297,7 @@ public class Network implements Cloneable, Serializable
 
         for (i = 0; i < nNodes; i++)
         {
-            clusterWeight[cluster[i]] += nodeWeight[i];
+            clusterWeight[cluster[i]] += getNodeWeight(i);
             nNodesPerCluster[cluster[i]]++;
         }
 
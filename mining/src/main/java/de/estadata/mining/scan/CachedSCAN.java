@@ -0,0 +1,136 @@
+package de.estadata.mining.scan;
+
+import java.util.BitSet;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * This class implements the same cluster expansion as {@link SCAN}, but on a {@link CSRGraph} and with the structural
+ * similarity of every edge computed exactly once (see {@link StructuralSimilarity}). Moreover, whether a node is a core
+ * is decided only once, even though the expansion asks for it every time the node is reached.
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class CachedSCAN extends SCANEngine {
+	private static final byte unknown = 0;
+	private static final byte core = 1;
+	private static final byte nonCore = 2;
+
+	private static final byte unclassified = 0;
+	private static final byte nonMember = 1;
+	private static final byte member = 2;
+
+	private EdgeKernel kernel;
+	private StructuralSimilarity similarity;
+	private byte[] coreStatus;		//key: ordinal;	value: unknown, core or nonCore
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters.
+	 * @param graph the graph.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 */
+	public CachedSCAN(CSRGraph graph, double epsilon, int mu) {
+		this(graph, epsilon, mu, null);
+	}
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters, which uses the weighted structural similarity.
+	 * @param graph the graph.
+	 * @param epsilon the minimum weighted structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 * @param kernel the kernel turning the edges into weights. If null, the unweighted similarity is used.
+	 */
+	public CachedSCAN(CSRGraph graph, double epsilon, int mu, EdgeKernel kernel) {
+		super(graph, epsilon, mu);
+		this.kernel = kernel;
+	}
+
+	@Override
+	public ScanResult run(int startFrom) {
+		long start = System.currentTimeMillis();
+		similarity = new StructuralSimilarity(graph, kernel);
+		long end = System.currentTimeMillis();
+		System.out.println("Computing structural similarities took: " + (end - start) + " ms");
+
+		int nodeCount = graph.getNodeCount();
+		coreStatus = new byte[nodeCount];
+		byte[] state = new byte[nodeCount];
+		int[] clusterIDs = new int[nodeCount];
+		for (int v = 0; v < nodeCount; v++)
+			clusterIDs[v] = Integer.MIN_VALUE;
+
+		int[] queue = new int[nodeCount];
+		BitSet queued = new BitSet(nodeCount);
+		int currentClusterID = startFrom;
+		for (int v = 0; v < nodeCount; v++) {
+			if (state[v] != unclassified)
+				continue;
+			if (!isCore(v)) {
+				state[v] = nonMember;
+				continue;
+			}
+			// The queue starts with the epsilon-neighborhood of v (v itself included)
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = v;
+			queued.set(v);
+			for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v); slot++) {
+				if (similarity.isSimilar(v, slot, epsilon)) {
+					queue[tail++] = graph.getTarget(slot);
+					queued.set(graph.getTarget(slot));
+				}
+			}
+			while (head < tail) {
+				int y = queue[head++];
+				if (!isCore(y))
+					continue;
+				// Every node is epsilon-similar to itself
+				if (state[y] != member) {
+					state[y] = member;
+					clusterIDs[y] = currentClusterID;
+				}
+				for (int slot = graph.getFirstSlot(y); slot < graph.getEndSlot(y); slot++) {
+					if (!similarity.isSimilar(y, slot, epsilon))
+						continue;
+					int x = graph.getTarget(slot);
+					if (state[x] == member)
+						continue;
+					boolean wasUnclassified = state[x] == unclassified;
+					state[x] = member;
+					clusterIDs[x] = currentClusterID;
+					if (wasUnclassified && !queued.get(x)) {
+						queue[tail++] = x;
+						queued.set(x);
+					}
+				}
+			}
+			for (int i = 0; i < tail; i++)
+				queued.clear(queue[i]);
+			currentClusterID++;
+		}
+		return createResult(clusterIDs, currentClusterID - 1);
+	}
+
+	/**
+	 * Returns the structural similarities computed by the last run.
+	 * @return the structural similarities, or null if the engine was not run yet.
+	 */
+	public StructuralSimilarity getSimilarity() {
+		return similarity;
+	}
+
+	private boolean isCore(int v) {
+		if (coreStatus[v] == unknown) {
+			// v belongs to its own epsilon-neighborhood
+			int size = 1;
+			for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v) && size < mu; slot++) {
+				if (similarity.isSimilar(v, slot, epsilon))
+					size++;
+			}
+			coreStatus[v] = (size >= mu) ? core : nonCore;
+		}
+		return coreStatus[v] == core;
+	}
+}
@@ -0,0 +1,77 @@
+package de.estadata.mining.scan;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * This class turns the attributes of an edge of a {@link CSRGraph} (the category similarity stored as its weight, and its
+ * spatial and temporal distances) into the weight the weighted structural similarity works with (see
+ * {@link StructuralSimilarity#StructuralSimilarity(CSRGraph, EdgeKernel)}). Weights must not be negative, and a weight of 1
+ * corresponds to the link of a node to itself.
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public abstract class EdgeKernel {
+
+	/**
+	 * Returns the weight of the edge of a slot. Both slots of an edge must get the same weight.
+	 * @param graph the graph.
+	 * @param slot the slot.
+	 * @return the weight, at least 0.
+	 */
+	public abstract double getWeight(CSRGraph graph, int slot);
+
+	/**
+	 * Returns a kernel weighting every edge by the similarity of the categories of its ends, i.e. by {@link CSRGraph#getWeight(int)}.
+	 * @return the kernel.
+	 */
+	public static EdgeKernel category() {
+		return new EdgeKernel() {
+			@Override
+			public double getWeight(CSRGraph graph, int slot) {
+				return graph.getWeight(slot);
+			}
+		};
+	}
+
+	/**
+	 * Returns a kernel multiplying the category similarity of every edge by two factors decreasing linearly with its spatial
+	 * and temporal distances, (1 - spaceDist / (maxMeters + 1)) * (1 - timeDist / (maxDays + 1)), both clamped to 0. Given
+	 * the thresholds of the ST-filtering, all of its edges get a positive weight.
+	 * @param maxMeters the largest spatial distance in meters.
+	 * @param maxDays the largest temporal distance in days.
+	 * @return the kernel.
+	 */
+	public static EdgeKernel linear(final int maxMeters, final int maxDays) {
+		if (maxMeters < 0 || maxDays < 0)
+			throw new IllegalArgumentException("Invalid distances for the linear kernel: " + maxMeters + " m, " + maxDays + " days");
+		return new EdgeKernel() {
+			@Override
+			public double getWeight(CSRGraph graph, int slot) {
+				double space = Math.max(0, 1 - graph.getSpaceDist(slot) / (maxMeters + 1.0));
+				double time = Math.max(0, 1 - graph.getTimeDist(slot) / (maxDays + 1.0));
+				return graph.getWeight(slot) * space * time;
+			}
+		};
+	}
+
+	/**
+	 * Returns a kernel multiplying the category similarity of every edge by a Gaussian of its spatial and temporal distances,
+	 * exp(-(spaceDist / metersBandwidth)^2 / 2 - (timeDist / daysBandwidth)^2 / 2).
+	 * @param metersBandwidth the spatial bandwidth in meters.
+	 * @param daysBandwidth the temporal bandwidth in days.
+	 * @return the kernel.
+	 */
+	public static EdgeKernel gaussian(final double metersBandwidth, final double daysBandwidth) {
+		if (!(metersBandwidth > 0) || !(daysBandwidth > 0))
+			throw new IllegalArgumentException("Invalid bandwidths for the Gaussian kernel: " + metersBandwidth + " m, " + daysBandwidth + " days");
+		return new EdgeKernel() {
+			@Override
+			public double getWeight(CSRGraph graph, int slot) {
+				double space = graph.getSpaceDist(slot) / metersBandwidth;
+				double time = graph.getTimeDist(slot) / daysBandwidth;
+				return graph.getWeight(slot) * Math.exp(-0.5 * (space * space + time * time));
+			}
+		};
+	}
+}
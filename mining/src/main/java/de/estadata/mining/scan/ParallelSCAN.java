@@ -0,0 +1,242 @@
+package de.estadata.mining.scan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+import de.estadata.mining.util.ConcurrentUnionFind;
+import de.estadata.mining.util.MiningTools;
+
+/**
+ * This class implements SCAN with several threads, in the spirit of anySCAN and ppSCAN. The nodes are split into ranges
+ * with roughly the same number of slots, and every phase processes all ranges in parallel:
+ * <ol>
+ * <li>the structural similarity of every edge is computed by the range of its smaller end (see {@link StructuralSimilarity});</li>
+ * <li>the cores are found;</li>
+ * <li>epsilon-similar cores are connected through a lock-free union-find ({@link ConcurrentUnionFind}), whose
+ * representatives are the smallest cores of their clusters;</li>
+ * <li>clusters are numbered by their smallest core, and every non-core node joins the cluster with the smallest ID among
+ * its epsilon-similar cores;</li>
+ * <li>the remaining nodes are classified as hubs or outliers.</li>
+ * </ol>
+ * Since every phase only reads what the previous phases wrote, the result does not depend on the scheduling of the threads,
+ * and it is the same as the one of {@link SCAN} (see {@link SCANEngine}).
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class ParallelSCAN extends SCANEngine {
+	private static final int rangesPerThread = 8;
+	private static final int minSlotsPerRange = 10000;
+
+	private EdgeKernel kernel;
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters.
+	 * @param graph the graph.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 */
+	public ParallelSCAN(CSRGraph graph, double epsilon, int mu) {
+		this(graph, epsilon, mu, null);
+	}
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters, which uses the weighted structural similarity.
+	 * @param graph the graph.
+	 * @param epsilon the minimum weighted structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 * @param kernel the kernel turning the edges into weights. If null, the unweighted similarity is used.
+	 */
+	public ParallelSCAN(CSRGraph graph, double epsilon, int mu, EdgeKernel kernel) {
+		super(graph, epsilon, mu);
+		this.kernel = kernel;
+	}
+
+	@Override
+	public ScanResult run(final int startFrom) {
+		final int nodeCount = graph.getNodeCount();
+		final int[] bounds = getRanges();
+		final int rangeCount = bounds.length - 1;
+
+		// Phase 1. structural similarities
+		long start = System.currentTimeMillis();
+		final StructuralSimilarity similarity = new StructuralSimilarity(graph, kernel, false);
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				similarity.computeRange(from, to);
+				return 0;
+			}
+		});
+		long end = System.currentTimeMillis();
+		System.out.println("Computing structural similarities took: " + (end - start) + " ms");
+
+		// Phase 2. cores
+		start = System.currentTimeMillis();
+		final boolean[] isCore = new boolean[nodeCount];
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				for (int v = from; v < to; v++) {
+					// v belongs to its own epsilon-neighborhood
+					int size = 1;
+					for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v) && size < mu; slot++) {
+						if (similarity.isSimilar(v, slot, epsilon))
+							size++;
+					}
+					isCore[v] = size >= mu;
+				}
+				return 0;
+			}
+		});
+
+		// Phase 3. connect epsilon-similar cores
+		final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(nodeCount);
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				for (int v = from; v < to; v++) {
+					if (!isCore[v])
+						continue;
+					for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v); slot++) {
+						int w = graph.getTarget(slot);
+						if (w > v && isCore[w] && similarity.isSimilar(v, slot, epsilon))
+							unionFind.union(v, w);
+					}
+				}
+				return 0;
+			}
+		});
+
+		// Phase 4. number the clusters by their representatives, i.e. their smallest cores
+		final int[] clusterIDs = new int[nodeCount];
+		final int[] firstClusterID = new int[rangeCount + 1];
+		List<Integer> rootCounts = runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				int count = 0;
+				for (int v = from; v < to; v++) {
+					clusterIDs[v] = Integer.MIN_VALUE;
+					if (isCore[v] && unionFind.find(v) == v)
+						count++;
+				}
+				return count;
+			}
+		});
+		firstClusterID[0] = startFrom;
+		for (int range = 0; range < rangeCount; range++)
+			firstClusterID[range + 1] = firstClusterID[range] + rootCounts.get(range);
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				int clusterID = firstClusterID[range];
+				for (int v = from; v < to; v++) {
+					if (isCore[v] && unionFind.find(v) == v)
+						clusterIDs[v] = clusterID++;
+				}
+				return 0;
+			}
+		});
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				for (int v = from; v < to; v++) {
+					if (isCore[v])
+						clusterIDs[v] = clusterIDs[unionFind.find(v)];
+				}
+				return 0;
+			}
+		});
+
+		// Phase 5. a non-core node joins the cluster with the smallest ID among its epsilon-similar cores
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				for (int v = from; v < to; v++) {
+					if (isCore[v])
+						continue;
+					int best = Integer.MAX_VALUE;
+					for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v); slot++) {
+						int w = graph.getTarget(slot);
+						if (isCore[w] && clusterIDs[w] < best && similarity.isSimilar(v, slot, epsilon))
+							best = clusterIDs[w];
+					}
+					if (best != Integer.MAX_VALUE)
+						clusterIDs[v] = best;
+				}
+				return 0;
+			}
+		});
+		end = System.currentTimeMillis();
+		System.out.println("Growing clusters took: " + (end - start) + " ms");
+
+		// Phase 6. hubs and outliers. Roles are decided before any non-member gets the cluster ID -1
+		final byte[] roles = new byte[nodeCount];
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				classifyNonMembers(clusterIDs, roles, from, to);
+				return 0;
+			}
+		});
+		runOnRanges(bounds, new RangeTask() {
+			@Override
+			public int run(int range, int from, int to) {
+				setNonMemberIDs(clusterIDs, roles, from, to);
+				return 0;
+			}
+		});
+		return new ScanResult(graph, clusterIDs, roles, firstClusterID[rangeCount] - 1);
+	}
+
+	/*
+	 * Work on the ordinals [from, to) of a range.
+	 */
+	private interface RangeTask {
+		int run(int range, int from, int to);
+	}
+
+	private static List<Integer> runOnRanges(final int[] bounds, final RangeTask task) {
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(bounds.length - 1);
+		for (int range = 0; range < bounds.length - 1; range++) {
+			final int finalRange = range;
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					return task.run(finalRange, bounds[finalRange], bounds[finalRange + 1]);
+				}
+			});
+		}
+		return MiningTools.invokeAll(tasks);
+	}
+
+	/*
+	 * Splits the ordinals into consecutive ranges with roughly the same number of slots (plus one per node, so that isolated
+	 * nodes are also taken into account). Returns the bounds of the ranges: range i is [bounds[i], bounds[i + 1]).
+	 */
+	private int[] getRanges() {
+		int nodeCount = graph.getNodeCount();
+		long work = (long) graph.getOffsets()[nodeCount] + nodeCount;
+		int rangeCount = Runtime.getRuntime().availableProcessors() * rangesPerThread;
+		rangeCount = (int) Math.max(1, Math.min(rangeCount, work / minSlotsPerRange));
+		long workPerRange = (work + rangeCount - 1) / rangeCount;
+
+		List<Integer> bounds = new ArrayList<Integer>(rangeCount + 1);
+		bounds.add(0);
+		long rangeWork = 0;
+		for (int v = 0; v < nodeCount; v++) {
+			rangeWork += graph.getDegree(v) + 1;
+			if (rangeWork >= workPerRange && v + 1 < nodeCount) {
+				bounds.add(v + 1);
+				rangeWork = 0;
+			}
+		}
+		bounds.add(nodeCount);
+		int[] result = new int[bounds.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = bounds.get(i);
+		return result;
+	}
+}
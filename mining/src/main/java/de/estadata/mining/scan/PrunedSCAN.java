@@ -0,0 +1,162 @@
+package de.estadata.mining.scan;
+
+import java.util.Arrays;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+import de.estadata.mining.util.UnionFind;
+
+/**
+ * This class implements SCAN following the pruning ideas of pSCAN (L. Chang et al., pSCAN: Fast and Exact Structural Graph
+ * Clustering) and SCAN++. Instead of computing the structural similarity of every edge, it
+ * <ul>
+ * <li>decides whether an edge is epsilon-similar from the degrees of both ends whenever possible: since
+ * 2 &lt;= |S(v) &amp; S(w)| &lt;= min(|S(v)|, |S(w)|), some edges are similar or dissimilar regardless of their common
+ * neighbors;</li>
+ * <li>stops merging the rows of both ends as soon as the number of common neighbors reaches, or can no longer reach, the
+ * minimum required by epsilon;</li>
+ * <li>keeps for every node its similar degree (epsilon-similar neighbors found so far) and its effective degree (neighbors
+ * not known to be dissimilar), and stops checking its edges once either of them decides whether it is a core;</li>
+ * <li>merges the cores into clusters with a union-find, skipping the edges between cores that are already connected.</li>
+ * </ul>
+ * The clusters, hubs and outliers are the same as those of {@link SCAN} (see {@link SCANEngine}).
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class PrunedSCAN extends SCANEngine {
+	private static final byte unknown = 0;
+	private static final byte similar = 1;
+	private static final byte dissimilar = 2;
+
+	private int[] offsets;
+	private int[] targets;
+	private byte[] edgeState;		//key: slot;	value: unknown, similar or dissimilar
+	private int[] similarDegree;	//key: ordinal;	value: number of epsilon-similar nodes found so far, the node itself included
+	private int[] effectiveDegree;	//key: ordinal;	value: number of nodes that might still be epsilon-similar, the node itself included
+	private long computedCount;
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters.
+	 * @param graph the graph.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 */
+	public PrunedSCAN(CSRGraph graph, double epsilon, int mu) {
+		super(graph, epsilon, mu);
+	}
+
+	@Override
+	public ScanResult run(int startFrom) {
+		int nodeCount = graph.getNodeCount();
+		offsets = graph.getOffsets();
+		targets = graph.getTargets();
+		edgeState = new byte[targets.length];
+		similarDegree = new int[nodeCount];
+		effectiveDegree = new int[nodeCount];
+		for (int v = 0; v < nodeCount; v++) {
+			similarDegree[v] = 1;
+			effectiveDegree[v] = graph.getDegree(v) + 1;
+		}
+		computedCount = 0;
+
+		// Step 1. decide which nodes are cores
+		long start = System.currentTimeMillis();
+		boolean[] isCore = new boolean[nodeCount];
+		for (int v = 0; v < nodeCount; v++)
+			isCore[v] = decideCore(v);
+		long end = System.currentTimeMillis();
+		System.out.println("Finding cores took: " + (end - start) + " ms");
+
+		// Step 2. connect epsilon-similar cores
+		start = System.currentTimeMillis();
+		UnionFind unionFind = new UnionFind(nodeCount);
+		for (int v = 0; v < nodeCount; v++) {
+			if (!isCore[v])
+				continue;
+			for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+				int w = targets[slot];
+				if (w > v && isCore[w] && unionFind.find(v) != unionFind.find(w) && isSimilar(v, slot))
+					unionFind.union(v, w);
+			}
+		}
+
+		// Clusters are numbered by their smallest core, as in the expansion of SCAN
+		int[] clusterIDs = new int[nodeCount];
+		int[] rootClusterID = new int[nodeCount];
+		Arrays.fill(rootClusterID, Integer.MIN_VALUE);
+		int currentClusterID = startFrom;
+		for (int v = 0; v < nodeCount; v++) {
+			clusterIDs[v] = Integer.MIN_VALUE;
+			if (!isCore[v])
+				continue;
+			int root = unionFind.find(v);
+			if (rootClusterID[root] == Integer.MIN_VALUE)
+				rootClusterID[root] = currentClusterID++;
+			clusterIDs[v] = rootClusterID[root];
+		}
+
+		// Step 3. a non-core node joins the cluster with the smallest ID among its epsilon-similar cores
+		for (int v = 0; v < nodeCount; v++) {
+			if (isCore[v])
+				continue;
+			int best = Integer.MAX_VALUE;
+			for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+				int w = targets[slot];
+				if (isCore[w] && clusterIDs[w] < best && isSimilar(v, slot))
+					best = clusterIDs[w];
+			}
+			if (best != Integer.MAX_VALUE)
+				clusterIDs[v] = best;
+		}
+		end = System.currentTimeMillis();
+		System.out.println("Growing clusters took: " + (end - start) + " ms");
+		System.out.println("Merged the rows of " + computedCount + " of " + (targets.length / 2) + " edges");
+
+		return createResult(clusterIDs, currentClusterID - 1);
+	}
+
+	/*
+	 * Checks the edges of v until its similar or effective degree decides whether it is a core.
+	 */
+	private boolean decideCore(int v) {
+		for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+			if (similarDegree[v] >= mu || effectiveDegree[v] < mu)
+				break;
+			isSimilar(v, slot);
+		}
+		return similarDegree[v] >= mu;
+	}
+
+	/*
+	 * Tests whether the edge of a slot is epsilon-similar, computing it only once for both of its slots.
+	 */
+	private boolean isSimilar(int v, int slot) {
+		if (edgeState[slot] == unknown) {
+			int w = targets[slot];
+			byte state = computeSimilar(v, w) ? similar : dissimilar;
+			edgeState[slot] = state;
+			edgeState[graph.getReverseSlot(v, slot)] = state;
+			if (state == similar) {
+				similarDegree[v]++;
+				similarDegree[w]++;
+			} else {
+				effectiveDegree[v]--;
+				effectiveDegree[w]--;
+			}
+		}
+		return edgeState[slot] == similar;
+	}
+
+	private boolean computeSimilar(int v, int w) {
+		int size1 = offsets[v + 1] - offsets[v] + 1;
+		int size2 = offsets[w + 1] - offsets[w] + 1;
+		// Both ends belong to both structures, and the overlap cannot exceed the smaller structure
+		if (StructuralSimilarity.getSimilarity(Math.min(size1, size2), size1, size2) < epsilon)
+			return false;
+		if (StructuralSimilarity.getSimilarity(2, size1, size2) >= epsilon)
+			return true;
+		computedCount++;
+		int required = StructuralSimilarity.getMinOverlap(epsilon, size1, size2) - 2;
+		return StructuralSimilarity.hasCommonNeighbors(offsets, targets, v, w, required);
+	}
+}
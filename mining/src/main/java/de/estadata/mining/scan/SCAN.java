@@ -5,6 +5,8 @@ import de.estadata.mining.graphmodel.*;
 import de.estadata.mining.util.MiningTools;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
@@ -19,6 +21,23 @@ import java.util.Map;
  */
 
 public class SCAN {
+	
+	/**
+	 * The implementations SCAN can be run with. All of them produce the same clusters, hubs and outliers.
+	 * <ul>
+	 * <li>BASIC: the original implementation, working directly on the nodes of the graph.</li>
+	 * <li>CACHED: works on a {@link CSRGraph} and computes the structural similarity of every edge only once (see {@link CachedSCAN}).</li>
+	 * <li>PRUNED: works on a {@link CSRGraph} and skips the similarities that cannot change the result (see {@link PrunedSCAN}).</li>
+	 * <li>PARALLEL: works on a {@link CSRGraph} with one thread per processor (see {@link ParallelSCAN}).</li>
+	 * </ul>
+	 * CACHED and PARALLEL can also use the weighted structural similarity (see {@link #setKernel(EdgeKernel)}).
+	 */
+	public enum Engine {
+		BASIC, CACHED, PRUNED, PARALLEL
+	}
+	
+	private static final int chunkSize = 10000;
+	
 	private Graph graph;
 	private double epsilon;
 	private int mu;
@@ -26,6 +45,14 @@ public class SCAN {
 	private List<Node> hubs;
 	private List<Node> outliers;
 	private List<Integer> clusterIDs;
+	private Engine engine;
+	private EdgeKernel kernel;
+	
+	private static final byte unclassified = 0;
+	private static final byte nonMember = 1;
+	private static final byte member = 2;
+	
+	private boolean writeLabels;
 	
 	private final String unclassifiedLabel = "unclassified";
 	private final String nonMemberLabel = "non-member";
@@ -40,6 +67,17 @@ public class SCAN {
 	 * @param mu
 	 */
 	public SCAN(Graph graph, double epsilon, int mu) {
+		this(graph, epsilon, mu, Engine.BASIC);
+	}
+	
+	/**
+	 * Constructs a SCAN instance for a graph with the specified parameters, which is run with the given engine.
+	 * @param graph
+	 * @param epsilon
+	 * @param mu
+	 * @param engine
+	 */
+	public SCAN(Graph graph, double epsilon, int mu, Engine engine) {
 		System.out.println("Initializing SCAN...");
 		if(epsilon < 0 || epsilon > 1) {
 			throw new IllegalArgumentException("Invalid value for epsilon: " + epsilon + ", must be in the range [0,1]");
@@ -50,6 +88,7 @@ public class SCAN {
 		this.graph = graph;
 		this.epsilon = epsilon;
 		this.mu = mu;
+		this.engine = engine;
 		clustersMap = new HashMap<>();
 		System.out.println("SCAN initalized.");
 	}
@@ -102,6 +141,57 @@ public class SCAN {
 		this.mu = mu;
 	}
 	
+	/**
+	 * 
+	 * @return The engine SCAN is run with
+	 */
+	public Engine getEngine() {
+		return engine;
+	}
+	
+	/**
+	 * 
+	 * @param engine A new engine to run SCAN with
+	 */
+	public void setEngine(Engine engine) {
+		this.engine = engine;
+	}
+	
+	/**
+	 * 
+	 * @return The kernel turning the edges into weights, or null if the unweighted structural similarity is used
+	 */
+	public EdgeKernel getKernel() {
+		return kernel;
+	}
+	
+	/**
+	 * Sets the kernel turning the edges into weights, so that SCAN uses the weighted structural similarity (see
+	 * {@link StructuralSimilarity}) instead of the unweighted one. Only supported by the CACHED and PARALLEL engines.
+	 * @param kernel A kernel, or null for the unweighted structural similarity
+	 */
+	public void setKernel(EdgeKernel kernel) {
+		this.kernel = kernel;
+	}
+	
+	/**
+	 * 
+	 * @return Whether run() stores the labels of the nodes as node attributes
+	 */
+	public boolean getWriteLabels() {
+		return writeLabels;
+	}
+	
+	/**
+	 * Sets whether run() stores, once finished, the labels of every node as node attributes: non-member, hub and outlier
+	 * ("TRUE" or "FALSE", see {@link #getHubLabel()} and {@link #getOutlierLabel()}) as well as unclassified ("FALSE").
+	 * Off by default, since the results are also available through getClustersMap(), getHubs() and getOutliers().
+	 * @param writeLabels true, if the labels are to be stored
+	 */
+	public void setWriteLabels(boolean writeLabels) {
+		this.writeLabels = writeLabels;
+	}
+	
 	/**
 	 * 
 	 * @return 
@@ -157,110 +247,170 @@ public class SCAN {
 	 * @return the highest cluster ID
 	 */
 	public int run(int startFrom) {
+		if(kernel != null && (engine == Engine.BASIC || engine == Engine.PRUNED)) {
+			throw new IllegalStateException("The weighted structural similarity is not supported by the engine " + engine);
+		}
+		if(engine != Engine.BASIC) {
+			return runOnCSRGraph(startFrom);
+		}
 		System.out.println("Starting SCAN...");
 		
-		hubs = new LinkedList<Node>();
-		outliers = new LinkedList<Node>();
-		
-		System.out.println("Starting inititial classification of SCAN nodes...");
+		//The state and cluster ID of every node are indexed by its ordinal, i.e. its position in the sorted node IDs
+		int[] nodeIDs = new int[graph.getNodeCount()];
+		int i = 0;
 		for(int id : graph.getNodeIDs()) {
-			Node v = graph.getNode(id);
-			MiningTools.setNodeLabel(v, unclassifiedLabel, "TRUE");
-			MiningTools.setNodeLabel(v, nonMemberLabel, "FALSE");
-			MiningTools.setNodeLabel(v, hubLabel, "FALSE");
-			MiningTools.setNodeLabel(v, outlierLabel, "FALSE");
-			v.setClusterID(Integer.MIN_VALUE);
+			nodeIDs[i++] = id;
 		}
+		Arrays.sort(nodeIDs);
+		int nodeCount = nodeIDs.length;
+		byte[] state = new byte[nodeCount];
+		int[] clusterId = new int[nodeCount];
+		Arrays.fill(clusterId, Integer.MIN_VALUE);
 		
 		System.out.println("Growing clusters...");
-		LinkedList<Node> nonMemberNodes = new LinkedList<Node>();
-		clusterIDs = new ArrayList<Integer>();
+		int[] queue = new int[nodeCount];
+		BitSet queued = new BitSet(nodeCount);
 		int currentClusterID = startFrom;
-		for(int id : graph.getNodeIDs()) {
-			Node v = graph.getNode(id);
-			if(MiningTools.nodeIsLabeledAs(v, unclassifiedLabel)) {
+		for(int v = 0; v < nodeCount; v++) {
+			if(state[v] == unclassified) {
 				//Step 1. check whether v is a core;
-				if(isCore(v)) {
+				List<Node> vENeigh = getEpsilonNeighborhood(graph.getNode(nodeIDs[v]));
+				if(vENeigh.size() >= this.mu) {
 					//Step 2.1. if v is a core, a new cluster is expanded;
-					clusterIDs.add(currentClusterID);
-					LinkedList<Node> queue = new LinkedList<Node>();
-					queue.addAll(getEpsilonNeighborhood(v));
-					while(!queue.isEmpty()) {
-						Node y = queue.peek();
-						if(isCore(y)) {
-							List<Node> yENeigh = getEpsilonNeighborhood(y);
-							for(Node x : yENeigh) {
-								if(MiningTools.nodeIsLabeledAs(x, nonMemberLabel)) {
-									MiningTools.setNodeLabel(x, nonMemberLabel, "FALSE");
-//									MiningTools.setNodeLabel(x, clusterIdLabel, ""+currentClusterID);
-									x.setClusterID(currentClusterID);
-									assignToCluster(x, currentClusterID);
-									nonMemberNodes.remove(x);
-								}
-								if(MiningTools.nodeIsLabeledAs(x, unclassifiedLabel)) {
-									MiningTools.setNodeLabel(x, unclassifiedLabel, "FALSE");
-//									MiningTools.setNodeLabel(x, clusterIdLabel, ""+currentClusterID);
-									x.setClusterID(currentClusterID);
-									assignToCluster(x, currentClusterID);
-									if(!queue.contains(x)) {
-										queue.add(x);
+					int head = 0;
+					int tail = 0;
+					for(Node x : vENeigh) {
+						int xOrdinal = Arrays.binarySearch(nodeIDs, x.getID());
+						queue[tail++] = xOrdinal;
+						queued.set(xOrdinal);
+					}
+					while(head < tail) {
+						int y = queue[head++];
+						List<Node> yENeigh = getEpsilonNeighborhood(graph.getNode(nodeIDs[y]));
+						if(yENeigh.size() >= this.mu) {
+							for(Node xNode : yENeigh) {
+								int x = Arrays.binarySearch(nodeIDs, xNode.getID());
+								if(state[x] == nonMember) {
+									state[x] = member;
+									clusterId[x] = currentClusterID;
+								} else if(state[x] == unclassified) {
+									state[x] = member;
+									clusterId[x] = currentClusterID;
+									if(!queued.get(x)) {
+										queue[tail++] = x;
+										queued.set(x);
 									}
 								}
 							}
 						}
-						queue.remove(y);
+					}
+					for(int j = 0; j < tail; j++) {
+						queued.clear(queue[j]);
 					}
 					currentClusterID++;
 				} else {
 					//Step 2.2. if v is not a core, it is labeled as non-member
-					MiningTools.setNodeLabel(v, nonMemberLabel, "TRUE");
-					MiningTools.setNodeLabel(v, unclassifiedLabel, "FALSE");
-					nonMemberNodes.add(v);
+					state[v] = nonMember;
 				}
 			}
 		}
-		//Step 3. further classifies non-members
-		for(Node v : nonMemberNodes) {
-			List<Node> vStructure = getStructure(v);
-			List<String> neighborClusterIDs = new ArrayList<>();
-			boolean labeled = false;
-			for(Node x : vStructure) {
-//				String xCLusterID = MiningTools.getNodeLabelValue(x, clusterIdLabel);
-				String xCLusterID = "" + x.getClusterID();
-				if(!xCLusterID.equals("")) {
-					if(neighborClusterIDs.isEmpty()) {
-						neighborClusterIDs.add(xCLusterID);
-					} else if(!neighborClusterIDs.contains(xCLusterID)){
-						MiningTools.setNodeLabel(v, hubLabel, "TRUE");
-//						MiningTools.setNodeLabel(v, clusterIdLabel, "-1");
-						v.setClusterID(-1);
-						assignToCluster(v, -1);
-						hubs.add(v);
-						labeled = true;
-						break;
-					}
-				}
+		//Step 3. further classifies non-members, in ascending order: a non-member is a hub if one of its neighbors
+		//belongs to a cluster or is a non-member that was already classified, and an outlier otherwise
+		byte[] roles = new byte[nodeCount];
+		for(int v = 0; v < nodeCount; v++) {
+			if(state[v] != nonMember) {
+				continue;
 			}
-			if(!labeled) {
-				MiningTools.setNodeLabel(v, outlierLabel, "TRUE");
-//				MiningTools.setNodeLabel(v, clusterIdLabel, "-1");
-				v.setClusterID(-1);
-				assignToCluster(v, -1);
-				outliers.add(v);
+			roles[v] = ScanResult.OUTLIER;
+			for(int id : graph.getNode(nodeIDs[v]).getNeighborIDs()) {
+				int x = Arrays.binarySearch(nodeIDs, id);
+				if(x >= 0 && clusterId[x] != Integer.MIN_VALUE) {
+					roles[v] = ScanResult.HUB;
+					break;
+				}
 			}
+			clusterId[v] = -1;
 		}
+		applyResult(nodeIDs, clusterId, roles, startFrom, currentClusterID - 1);
 		System.out.println("SCAN finished");
 		return --currentClusterID;
 	}
 	
-	private void assignToCluster(Node v, int clusterID) {
-		if(clustersMap.containsKey(clusterID)) {
-			clustersMap.get(clusterID).add(v.getID());
-		} else {
-			List<Integer> cluster = new ArrayList<>();
-			cluster.add(v.getID());
+	/*
+	 * Runs one of the engines working on a CSRGraph, and transfers its result to the nodes of the graph.
+	 */
+	private int runOnCSRGraph(int startFrom) {
+		System.out.println("Starting SCAN (" + engine + ")...");
+		long start = System.currentTimeMillis();
+		CSRGraph csrGraph = CSRGraph.fromGraph(graph);
+		long end = System.currentTimeMillis();
+		System.out.println("Copying the graph to CSR format took: " + (end - start) + " ms");
+		
+		SCANEngine scanEngine;
+		switch(engine) {
+		case CACHED:
+			scanEngine = new CachedSCAN(csrGraph, epsilon, mu, kernel);
+			break;
+		case PRUNED:
+			scanEngine = new PrunedSCAN(csrGraph, epsilon, mu);
+			break;
+		case PARALLEL:
+			scanEngine = new ParallelSCAN(csrGraph, epsilon, mu, kernel);
+			break;
+		default:
+			throw new IllegalStateException("Unsupported engine: " + engine);
+		}
+		ScanResult result = scanEngine.run(startFrom);
+		applyResult(csrGraph.getNodeIDs(), result.getClusterIDs(), result.getRoles(), startFrom, result.getLastClusterID());
+		System.out.println("SCAN finished");
+		return result.getLastClusterID();
+	}
+	
+	/*
+	 * Stores the cluster IDs (and the labels, if requested) in the nodes of the graph, which are fetched in chunks, and
+	 * collects the clusters, hubs and outliers. All arrays are indexed by the ordinal of the nodes.
+	 */
+	private void applyResult(int[] nodeIDs, int[] clusterId, byte[] roles, int startFrom, int lastClusterID) {
+		hubs = new LinkedList<Node>();
+		outliers = new LinkedList<Node>();
+		clusterIDs = new ArrayList<Integer>();
+		for(int id = startFrom; id <= lastClusterID; id++) {
+			clusterIDs.add(id);
+		}
+		
+		List<Integer> chunk = new ArrayList<Integer>(chunkSize);
+		for(int v = 0; v < nodeIDs.length; v++) {
+			chunk.add(nodeIDs[v]);
+			assignToCluster(nodeIDs[v], clusterId[v]);
+			if(chunk.size() == chunkSize || v == nodeIDs.length - 1) {
+				for(Node n : graph.getNodes(chunk)) {
+					int ordinal = Arrays.binarySearch(nodeIDs, n.getID());
+					byte role = roles[ordinal];
+					n.setClusterID(clusterId[ordinal]);
+					if(writeLabels) {
+						MiningTools.setNodeLabel(n, unclassifiedLabel, "FALSE");
+						MiningTools.setNodeLabel(n, nonMemberLabel, (role == ScanResult.MEMBER) ? "FALSE" : "TRUE");
+						MiningTools.setNodeLabel(n, hubLabel, (role == ScanResult.HUB) ? "TRUE" : "FALSE");
+						MiningTools.setNodeLabel(n, outlierLabel, (role == ScanResult.OUTLIER) ? "TRUE" : "FALSE");
+					}
+					if(role == ScanResult.HUB) {
+						hubs.add(n);
+					} else if(role == ScanResult.OUTLIER) {
+						outliers.add(n);
+					}
+				}
+				chunk.clear();
+			}
+		}
+	}
+	
+	private void assignToCluster(int nodeID, int clusterID) {
+		List<Integer> cluster = clustersMap.get(clusterID);
+		if(cluster == null) {
+			cluster = new ArrayList<>();
 			clustersMap.put(clusterID, cluster);
 		}
+		cluster.add(nodeID);
 	}
 
 	private List<Node> getStructure(Node v) {
@@ -302,8 +452,4 @@ public class SCAN {
 		}
 		return eNeighborhood;
 	}
-	
-	private boolean isCore(Node v) {
-		return getEpsilonNeighborhood(v).size() >= this.mu;
-	}
 }
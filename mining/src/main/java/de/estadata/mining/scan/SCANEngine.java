@@ -0,0 +1,97 @@
+package de.estadata.mining.scan;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * Base class of the SCAN implementations working on a {@link CSRGraph}. Every engine must produce exactly the same clusters,
+ * hubs and outliers as {@link SCAN}, visiting the nodes in ascending order of their IDs (i.e. by ordinal):
+ * <ul>
+ * <li>the cores are the nodes whose epsilon-neighborhood (which contains the node itself) has at least mu nodes, and two
+ * cores belong to the same cluster if they are connected through a path of epsilon-similar cores;</li>
+ * <li>clusters are numbered in ascending order of their smallest core, starting from the given ID;</li>
+ * <li>a non-core node that is epsilon-similar to the cores of several clusters belongs to the one with the smallest ID;</li>
+ * <li>the remaining nodes are non-members. In ascending order, each one becomes a hub if one of its neighbors is a member of
+ * a cluster or a non-member already classified before it, and an outlier otherwise.</li>
+ * </ul>
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public abstract class SCANEngine {
+	protected CSRGraph graph;
+	protected double epsilon;
+	protected int mu;
+
+	/**
+	 * Constructs an engine for a graph with the specified parameters.
+	 * @param graph the graph.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 */
+	protected SCANEngine(CSRGraph graph, double epsilon, int mu) {
+		this.graph = graph;
+		this.epsilon = epsilon;
+		this.mu = mu;
+	}
+
+	/**
+	 * Executes SCAN.
+	 * @param startFrom the starting cluster ID.
+	 * @return the result.
+	 */
+	public abstract ScanResult run(int startFrom);
+
+	/**
+	 * Classifies the non-members of the ordinals in [from, to) as hubs or outliers. The roles of all ordinals are decided on
+	 * the cluster IDs of the members, hence different ranges can be classified in parallel, as long as the cluster IDs are
+	 * not modified in the meantime.
+	 * @param clusterIDs the cluster IDs of the members, Integer.MIN_VALUE for the non-members.
+	 * @param roles the array receiving the roles.
+	 * @param from the first ordinal (inclusive).
+	 * @param to the last ordinal (exclusive).
+	 */
+	protected void classifyNonMembers(int[] clusterIDs, byte[] roles, int from, int to) {
+		for (int v = from; v < to; v++) {
+			if (clusterIDs[v] != Integer.MIN_VALUE) {
+				roles[v] = ScanResult.MEMBER;
+				continue;
+			}
+			roles[v] = ScanResult.OUTLIER;
+			for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v); slot++) {
+				int w = graph.getTarget(slot);
+				// Non-members classified before v already have the cluster ID -1
+				if (clusterIDs[w] != Integer.MIN_VALUE || w < v) {
+					roles[v] = ScanResult.HUB;
+					break;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Classifies all non-members and assigns them the cluster ID -1.
+	 * @param clusterIDs the cluster IDs of the members, Integer.MIN_VALUE for the non-members.
+	 * @param lastClusterID the highest cluster ID assigned.
+	 * @return the result.
+	 */
+	protected ScanResult createResult(int[] clusterIDs, int lastClusterID) {
+		byte[] roles = new byte[clusterIDs.length];
+		classifyNonMembers(clusterIDs, roles, 0, clusterIDs.length);
+		setNonMemberIDs(clusterIDs, roles, 0, clusterIDs.length);
+		return new ScanResult(graph, clusterIDs, roles, lastClusterID);
+	}
+
+	/**
+	 * Assigns the cluster ID -1 to the hubs and outliers of the ordinals in [from, to).
+	 * @param clusterIDs the cluster IDs.
+	 * @param roles the roles.
+	 * @param from the first ordinal (inclusive).
+	 * @param to the last ordinal (exclusive).
+	 */
+	protected static void setNonMemberIDs(int[] clusterIDs, byte[] roles, int from, int to) {
+		for (int v = from; v < to; v++) {
+			if (roles[v] != ScanResult.MEMBER)
+				clusterIDs[v] = -1;
+		}
+	}
+}
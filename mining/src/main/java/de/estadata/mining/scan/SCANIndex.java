@@ -0,0 +1,416 @@
+package de.estadata.mining.scan;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+import de.estadata.mining.util.MiningTools;
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.Element;
+
+/**
+ * This class implements the GS*-Index (D. Wen et al., Efficient Structural Graph Clustering: An Index-Based Approach) of a
+ * {@link CSRGraph}, which answers SCAN queries for any pair of parameters (epsilon, mu) without touching the graph again:
+ * <ul>
+ * <li>the neighbor order stores the neighbors of every node sorted by descending structural similarity, hence the
+ * epsilon-neighborhood of a node is the node itself plus a prefix of its sorted neighbors;</li>
+ * <li>the core order stores, for every mu, the nodes with at least mu-1 neighbors sorted by descending similarity of their
+ * (mu-1)-th sorted neighbor, hence the cores for (epsilon, mu) are a prefix of the core order of mu.</li>
+ * </ul>
+ * A query expands the clusters from these prefixes only, so that its cost is proportional to the size of the clusters found
+ * rather than to the size of the graph. The clusters are the same as those of {@link SCAN} (see {@link SCANEngine}).
+ * <p>
+ * Both orders take as much space as the slots of the graph. An index can be stored in a cache and loaded later on, so that it
+ * is built only once per graph (see {@link #save(Cache)} and {@link #load(Cache)}).
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class SCANIndex {
+	private static final String headerKey = "header";
+
+	private int nodeCount;
+	private int[] nodeIDs;				//key: ordinal;	value: node ID (sorted)
+	private int[] offsets;				//key: ordinal;	value: first position of the node in the neighbor order
+	private int[] neighbors;			//key: position;	value: ordinal of the neighbor, sorted by descending similarity per row
+	private double[] similarities;		//key: position;	value: structural similarity of the node and the neighbor
+	private int[] coreOffsets;			//key: mu - 2;	value: first position of mu in the core order
+	private int[] cores;				//key: position;	value: ordinal of a node with at least mu-1 neighbors
+	private double[] coreSimilarities;	//key: position;	value: similarity of the (mu-1)-th sorted neighbor of the node
+
+	private int[] clusterOf;			//key: ordinal;	value: cluster ID during a query, Integer.MIN_VALUE otherwise
+
+	private SCANIndex() {
+	}
+
+	/**
+	 * Builds the index of a graph, computing all of its structural similarities.
+	 * @param graph the graph.
+	 */
+	public SCANIndex(CSRGraph graph) {
+		this(graph, null);
+	}
+
+	/**
+	 * Builds the index of a graph for the weighted structural similarity.
+	 * @param graph the graph.
+	 * @param kernel the kernel turning the edges into weights. If null, the unweighted similarity is used.
+	 */
+	public SCANIndex(CSRGraph graph, EdgeKernel kernel) {
+		long start = System.currentTimeMillis();
+		StructuralSimilarity similarity = new StructuralSimilarity(graph, kernel);
+		nodeCount = graph.getNodeCount();
+		nodeIDs = graph.getNodeIDs();
+		offsets = graph.getOffsets();
+		int[] targets = graph.getTargets();
+		int slots = targets.length;
+
+		// Neighbor order
+		neighbors = new int[slots];
+		similarities = new double[slots];
+		int maxDegree = 0;
+		long[] keys = new long[0];
+		for (int v = 0; v < nodeCount; v++) {
+			int first = offsets[v];
+			int degree = offsets[v + 1] - first;
+			maxDegree = Math.max(maxDegree, degree);
+			for (int i = 0; i < degree; i++) {
+				neighbors[first + i] = targets[first + i];
+				similarities[first + i] = similarity.getSimilarity(v, first + i);
+			}
+			keys = sortDescending(neighbors, similarities, first, first + degree, keys);
+		}
+
+		// Core order: the nodes of mu are those with degree >= mu-1, i.e. a prefix of the nodes sorted by descending degree
+		int[] byDegree = new int[nodeCount];
+		int[] degreeCount = new int[maxDegree + 2];
+		for (int v = 0; v < nodeCount; v++)
+			degreeCount[maxDegree - (offsets[v + 1] - offsets[v]) + 1]++;
+		for (int d = 0; d <= maxDegree; d++)
+			degreeCount[d + 1] += degreeCount[d];
+		for (int v = 0; v < nodeCount; v++)
+			byDegree[degreeCount[maxDegree - (offsets[v + 1] - offsets[v])]++] = v;
+
+		coreOffsets = new int[maxDegree + 1];
+		cores = new int[slots];
+		coreSimilarities = new double[slots];
+		int position = 0;
+		int candidates = nodeCount;
+		for (int mu = 2; mu <= maxDegree + 1; mu++) {
+			coreOffsets[mu - 2] = position;
+			while (candidates > 0 && getDegree(byDegree[candidates - 1]) < mu - 1)
+				candidates--;
+			int first = position;
+			for (int i = 0; i < candidates; i++) {
+				int v = byDegree[i];
+				cores[position] = v;
+				coreSimilarities[position++] = similarities[offsets[v] + mu - 2];
+			}
+			keys = sortDescending(cores, coreSimilarities, first, position, keys);
+		}
+		coreOffsets[maxDegree] = position;
+
+		clusterOf = new int[nodeCount];
+		Arrays.fill(clusterOf, Integer.MIN_VALUE);
+		long end = System.currentTimeMillis();
+		System.out.println("Building the SCAN index took: " + (end - start) + " ms");
+	}
+
+	/**
+	 * Returns the number of nodes of the indexed graph.
+	 * @return the number of nodes.
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Returns the number of (undirected) edges of the indexed graph.
+	 * @return the number of edges.
+	 */
+	public int getEdgeCount() {
+		return neighbors.length / 2;
+	}
+
+	/**
+	 * Returns the node IDs of all ordinals. The returned array must not be modified.
+	 * @return the node IDs.
+	 */
+	public int[] getNodeIDs() {
+		return nodeIDs;
+	}
+
+	/**
+	 * Tests whether this index was built for a graph, i.e. whether both have the same nodes and the same rows.
+	 * @param graph the graph.
+	 * @return true, if the index belongs to the graph.
+	 */
+	public boolean isIndexOf(CSRGraph graph) {
+		return Arrays.equals(nodeIDs, graph.getNodeIDs()) && Arrays.equals(offsets, graph.getOffsets());
+	}
+
+	/**
+	 * Returns the number of neighbors of a node whose structural similarity is at least epsilon, i.e. the size of its
+	 * epsilon-neighborhood minus one. Since the neighbors are sorted, they are the first ones of the row of the node.
+	 * @param ordinal the ordinal of the node.
+	 * @param epsilon the threshold.
+	 * @return the number of epsilon-similar neighbors.
+	 */
+	public int getSimilarNeighborCount(int ordinal, double epsilon) {
+		return countAtLeast(similarities, offsets[ordinal], offsets[ordinal + 1], epsilon);
+	}
+
+	/**
+	 * Tests whether a node is a core for the given parameters.
+	 * @param ordinal the ordinal of the node.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 * @return true, if the node is a core.
+	 */
+	public boolean isCore(int ordinal, double epsilon, int mu) {
+		return mu - 1 <= getDegree(ordinal) && similarities[offsets[ordinal] + mu - 2] >= epsilon;
+	}
+
+	/**
+	 * Computes the clusters for a pair of parameters. Only the cores and the nodes epsilon-similar to them are visited, and
+	 * the hubs and outliers are not classified (see {@link SCANSweep} for a complete result).
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 * @param startFrom the starting cluster ID.
+	 * @return the members of the clusters.
+	 */
+	public synchronized Clustering query(double epsilon, int mu, int startFrom) {
+		checkParameters(epsilon, mu);
+		int[] members = new int[0];
+		int[] memberClusterIDs = new int[0];
+		int memberCount = 0;
+		int currentClusterID = startFrom;
+		if (mu - 2 < coreOffsets.length - 1) {
+			int first = coreOffsets[mu - 2];
+			int coreCount = countAtLeast(coreSimilarities, first, coreOffsets[mu - 1], epsilon);
+			// Clusters are numbered by their smallest core, as in the expansion of SCAN
+			int[] sortedCores = Arrays.copyOfRange(cores, first, first + coreCount);
+			Arrays.sort(sortedCores);
+			members = new int[Math.max(16, 2 * coreCount)];
+			for (int c : sortedCores) {
+				if (clusterOf[c] != Integer.MIN_VALUE)
+					continue;
+				int head = memberCount;
+				clusterOf[c] = currentClusterID;
+				members = append(members, memberCount++, c);
+				while (head < memberCount) {
+					int y = members[head++];
+					if (!isCore(y, epsilon, mu))
+						continue;
+					// A non-core node already reached belongs to a cluster with a smaller ID
+					for (int i = offsets[y]; i < offsets[y + 1] && similarities[i] >= epsilon; i++) {
+						int x = neighbors[i];
+						if (clusterOf[x] == Integer.MIN_VALUE) {
+							clusterOf[x] = currentClusterID;
+							members = append(members, memberCount++, x);
+						}
+					}
+				}
+				currentClusterID++;
+			}
+			memberClusterIDs = new int[memberCount];
+			for (int i = 0; i < memberCount; i++) {
+				memberClusterIDs[i] = clusterOf[members[i]];
+				clusterOf[members[i]] = Integer.MIN_VALUE;
+			}
+		}
+		return new Clustering(Arrays.copyOf(members, memberCount), memberClusterIDs, currentClusterID - 1);
+	}
+
+	/**
+	 * Stores the index in an empty cache, split in chunks.
+	 * @param cache the cache.
+	 */
+	public void save(Cache cache) {
+		long start = System.currentTimeMillis();
+		cache.put(new Element(headerKey, new int[] { nodeCount, neighbors.length, coreOffsets.length }));
+		MiningTools.putChunks(cache, "nodeIDs", nodeIDs);
+		MiningTools.putChunks(cache, "offsets", offsets);
+		MiningTools.putChunks(cache, "neighbors", neighbors);
+		MiningTools.putChunks(cache, "similarities", similarities);
+		MiningTools.putChunks(cache, "coreOffsets", coreOffsets);
+		MiningTools.putChunks(cache, "cores", cores);
+		MiningTools.putChunks(cache, "coreSimilarities", coreSimilarities);
+		long end = System.currentTimeMillis();
+		System.out.println("Storing the SCAN index took: " + (end - start) + " ms");
+	}
+
+	/**
+	 * Loads an index stored through {@link #save(Cache)}.
+	 * @param cache the cache.
+	 * @return the index, or null if the cache does not contain one.
+	 */
+	public static SCANIndex load(Cache cache) {
+		Element header = cache.get(headerKey);
+		if (header == null)
+			return null;
+		long start = System.currentTimeMillis();
+		int[] sizes = (int[]) header.getObjectValue();
+		SCANIndex index = new SCANIndex();
+		index.nodeCount = sizes[0];
+		index.nodeIDs = (int[]) MiningTools.getChunks(cache, "nodeIDs", new int[sizes[0]]);
+		index.offsets = (int[]) MiningTools.getChunks(cache, "offsets", new int[sizes[0] + 1]);
+		index.neighbors = (int[]) MiningTools.getChunks(cache, "neighbors", new int[sizes[1]]);
+		index.similarities = (double[]) MiningTools.getChunks(cache, "similarities", new double[sizes[1]]);
+		index.coreOffsets = (int[]) MiningTools.getChunks(cache, "coreOffsets", new int[sizes[2]]);
+		index.cores = (int[]) MiningTools.getChunks(cache, "cores", new int[sizes[1]]);
+		index.coreSimilarities = (double[]) MiningTools.getChunks(cache, "coreSimilarities", new double[sizes[1]]);
+		index.clusterOf = new int[sizes[0]];
+		Arrays.fill(index.clusterOf, Integer.MIN_VALUE);
+		long end = System.currentTimeMillis();
+		System.out.println("Loading the SCAN index took: " + (end - start) + " ms");
+		return index;
+	}
+
+	private int getDegree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	// Number of values at least 'threshold' in the range [from, to) of an array sorted in descending order
+	private static int countAtLeast(double[] values, int from, int to, double threshold) {
+		int low = from;
+		int high = to;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (values[middle] >= threshold)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+		return low - from;
+	}
+
+	private static int[] append(int[] array, int size, int value) {
+		if (size == array.length)
+			array = Arrays.copyOf(array, Math.max(16, 2 * array.length));
+		array[size] = value;
+		return array;
+	}
+
+	/*
+	 * Sorts the range [from, to) of both arrays by descending value, returning the (possibly grown) buffer of keys. Sorting by
+	 * the value rounded to float (a non-negative float sorts like its bits) is nearly exact, and an insertion sort on the exact
+	 * values fixes the order of the few values rounded to the same float.
+	 */
+	private static long[] sortDescending(int[] items, double[] values, int from, int to, long[] keys) {
+		int length = to - from;
+		if (keys.length < length)
+			keys = new long[Math.max(length, 2 * keys.length)];
+		int[] sortedItems = Arrays.copyOfRange(items, from, to);
+		double[] sortedValues = Arrays.copyOfRange(values, from, to);
+		for (int i = 0; i < length; i++)
+			keys[i] = ((long) Float.floatToIntBits((float) sortedValues[i]) << 32) | i;
+		Arrays.sort(keys, 0, length);
+		for (int i = 0; i < length; i++) {
+			int k = (int) keys[length - 1 - i];
+			items[from + i] = sortedItems[k];
+			values[from + i] = sortedValues[k];
+		}
+		for (int i = from + 1; i < to; i++) {
+			double s = values[i];
+			int item = items[i];
+			int j = i - 1;
+			while (j >= from && values[j] < s) {
+				values[j + 1] = values[j];
+				items[j + 1] = items[j];
+				j--;
+			}
+			values[j + 1] = s;
+			items[j + 1] = item;
+		}
+		return keys;
+	}
+
+	private static void checkParameters(double epsilon, int mu) {
+		if (epsilon < 0 || epsilon > 1)
+			throw new IllegalArgumentException("Invalid value for epsilon: " + epsilon + ", must be in the range [0,1]");
+		if (mu < 2)
+			throw new IllegalArgumentException("Invalid value for mu: " + mu + ", should be at least 2");
+	}
+
+	/**
+	 * The members of the clusters found by a query, i.e. every node belonging to a cluster together with its cluster ID.
+	 * Hubs and outliers are not included.
+	 */
+	public class Clustering {
+		private int[] members;			//key: position;	value: ordinal of a member, grouped by cluster
+		private int[] clusterIDs;		//key: position;	value: cluster ID of the member
+		private int lastClusterID;
+
+		private Clustering(int[] members, int[] clusterIDs, int lastClusterID) {
+			this.members = members;
+			this.clusterIDs = clusterIDs;
+			this.lastClusterID = lastClusterID;
+		}
+
+		/**
+		 * Returns the highest cluster ID assigned.
+		 * @return the highest cluster ID.
+		 */
+		public int getLastClusterID() {
+			return lastClusterID;
+		}
+
+		/**
+		 * Returns the number of nodes belonging to a cluster.
+		 * @return the number of members.
+		 */
+		public int getMemberCount() {
+			return members.length;
+		}
+
+		/**
+		 * Returns the ordinals of the members, grouped by cluster. The returned array must not be modified.
+		 * @return the ordinals of the members.
+		 */
+		public int[] getMembers() {
+			return members;
+		}
+
+		/**
+		 * Returns the cluster IDs of the members, in the same order as {@link #getMembers()}. The returned array must not be
+		 * modified.
+		 * @return the cluster IDs of the members.
+		 */
+		public int[] getClusterIDs() {
+			return clusterIDs;
+		}
+
+		/**
+		 * Returns a map containing as keys the cluster IDs and as values the IDs of the nodes in each cluster.
+		 * @return the clusters.
+		 */
+		public Map<Integer, List<Integer>> getClustersMap() {
+			Map<Integer, List<Integer>> clustersMap = new HashMap<Integer, List<Integer>>();
+			for (int i = 0; i < members.length; i++) {
+				List<Integer> cluster = clustersMap.get(clusterIDs[i]);
+				if (cluster == null) {
+					cluster = new ArrayList<Integer>();
+					clustersMap.put(clusterIDs[i], cluster);
+				}
+				cluster.add(nodeIDs[members[i]]);
+			}
+			return clustersMap;
+		}
+
+		/**
+		 * Returns the cluster ID of every node, indexed by ordinal.
+		 * @return the cluster IDs, Integer.MIN_VALUE for the nodes not belonging to any cluster.
+		 */
+		public int[] toArray() {
+			int[] array = new int[nodeCount];
+			Arrays.fill(array, Integer.MIN_VALUE);
+			for (int i = 0; i < members.length; i++)
+				array[members[i]] = clusterIDs[i];
+			return array;
+		}
+	}
+}
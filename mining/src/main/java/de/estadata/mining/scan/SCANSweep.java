@@ -0,0 +1,81 @@
+package de.estadata.mining.scan;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * This class runs SCAN on the same graph for many pairs of parameters (epsilon, mu) while computing the structural
+ * similarities only once, by querying the {@link SCANIndex} of the graph (in the spirit of the GS*-Index, D. Wen et al.,
+ * Efficient Structural Graph Clustering: An Index-Based Approach).
+ * <p>
+ * For any epsilon, the epsilon-neighborhood of a node is a prefix of its neighbors sorted by descending similarity, and the
+ * cores for (epsilon, mu) are a prefix of the nodes sorted by the similarity of their (mu-1)-th neighbor. Each pair is
+ * then answered by visiting only these prefixes, plus a final pass classifying the hubs and outliers. The clusters, hubs
+ * and outliers are the same as those of {@link SCAN} (see {@link SCANEngine}).
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class SCANSweep extends SCANEngine {
+	private SCANIndex index;
+
+	/**
+	 * Computes the structural similarities of a graph and builds its index.
+	 * @param graph the graph.
+	 */
+	public SCANSweep(CSRGraph graph) {
+		this(graph, new SCANIndex(graph));
+	}
+
+	/**
+	 * Constructs a sweep over a graph with an index built before, e.g. one loaded through {@link SCANIndex#load(net.sf.ehcache.Cache)}.
+	 * @param graph the graph.
+	 * @param index the index of the graph.
+	 * @throws IllegalArgumentException if the index was not built for the graph.
+	 */
+	public SCANSweep(CSRGraph graph, SCANIndex index) {
+		super(graph, 1.0, 2);
+		if (!index.isIndexOf(graph))
+			throw new IllegalArgumentException("The SCAN index does not belong to the graph");
+		this.index = index;
+	}
+
+	/**
+	 * Executes SCAN with the values of epsilon and mu that were set last.
+	 * @param startFrom the starting cluster ID.
+	 * @return the result.
+	 */
+	@Override
+	public ScanResult run(int startFrom) {
+		SCANIndex.Clustering clustering = index.query(epsilon, mu, startFrom);
+		return createResult(clustering.toArray(), clustering.getLastClusterID());
+	}
+
+	/**
+	 * Returns the index the sweep queries.
+	 * @return the index.
+	 */
+	public SCANIndex getIndex() {
+		return index;
+	}
+
+	/**
+	 * Executes SCAN for one pair of parameters.
+	 * @param epsilon the minimum structural similarity of two epsilon-similar nodes.
+	 * @param mu the minimum size of the epsilon-neighborhood of a core.
+	 * @param startFrom the starting cluster ID.
+	 * @return the result.
+	 */
+	public ScanResult run(double epsilon, int mu, int startFrom) {
+		checkParameters(epsilon, mu);
+		this.epsilon = epsilon;
+		this.mu = mu;
+		return run(startFrom);
+	}
+
+	private static void checkParameters(double epsilon, int mu) {
+		if (epsilon < 0 || epsilon > 1)
+			throw new IllegalArgumentException("Invalid value for epsilon: " + epsilon + ", must be in the range [0,1]");
+		if (mu < 2)
+			throw new IllegalArgumentException("Invalid value for mu: " + mu + ", should be at least 2");
+	}
+}
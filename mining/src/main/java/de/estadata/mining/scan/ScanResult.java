@@ -0,0 +1,129 @@
+package de.estadata.mining.scan;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * This class stores the outcome of a SCAN run on a {@link CSRGraph}: the cluster ID and the role (member, hub or outlier)
+ * of every node, both indexed by ordinal. Hubs and outliers have the cluster ID -1, as in {@link SCAN}.
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class ScanResult {
+	public static final byte MEMBER = 0;
+	public static final byte HUB = 1;
+	public static final byte OUTLIER = 2;
+
+	private CSRGraph graph;
+	private int[] clusterIDs;		//key: ordinal;	value: cluster ID
+	private byte[] roles;			//key: ordinal;	value: MEMBER, HUB or OUTLIER
+	private int lastClusterID;
+
+	/**
+	 * Constructs a result.
+	 * @param graph the graph SCAN was run on.
+	 * @param clusterIDs the cluster ID of every node, indexed by ordinal.
+	 * @param roles the role of every node, indexed by ordinal.
+	 * @param lastClusterID the highest cluster ID assigned.
+	 */
+	public ScanResult(CSRGraph graph, int[] clusterIDs, byte[] roles, int lastClusterID) {
+		this.graph = graph;
+		this.clusterIDs = clusterIDs;
+		this.roles = roles;
+		this.lastClusterID = lastClusterID;
+	}
+
+	public CSRGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Returns the highest cluster ID assigned, i.e. the value returned by {@link SCAN#run(int)}.
+	 * @return the highest cluster ID.
+	 */
+	public int getLastClusterID() {
+		return lastClusterID;
+	}
+
+	/**
+	 * Returns the cluster ID of a node.
+	 * @param ordinal the ordinal of the node.
+	 * @return its cluster ID, or -1 if it is a hub or an outlier.
+	 */
+	public int getClusterID(int ordinal) {
+		return clusterIDs[ordinal];
+	}
+
+	/**
+	 * Returns the cluster IDs of all nodes, indexed by ordinal. The returned array must not be modified.
+	 * @return the cluster IDs.
+	 */
+	public int[] getClusterIDs() {
+		return clusterIDs;
+	}
+
+	/**
+	 * Returns the role of a node.
+	 * @param ordinal the ordinal of the node.
+	 * @return {@link #MEMBER}, {@link #HUB} or {@link #OUTLIER}.
+	 */
+	public byte getRole(int ordinal) {
+		return roles[ordinal];
+	}
+
+	/**
+	 * Returns the roles of all nodes, indexed by ordinal. The returned array must not be modified.
+	 * @return the roles.
+	 */
+	public byte[] getRoles() {
+		return roles;
+	}
+
+	/**
+	 * Returns a map containing as keys the cluster IDs and as values the IDs of the nodes in each cluster, in ascending order.
+	 * Hubs and outliers are stored under the key -1.
+	 * @return the clusters.
+	 */
+	public Map<Integer, List<Integer>> getClustersMap() {
+		Map<Integer, List<Integer>> clustersMap = new HashMap<Integer, List<Integer>>();
+		for (int v = 0; v < clusterIDs.length; v++) {
+			List<Integer> cluster = clustersMap.get(clusterIDs[v]);
+			if (cluster == null) {
+				cluster = new ArrayList<Integer>();
+				clustersMap.put(clusterIDs[v], cluster);
+			}
+			cluster.add(graph.getNodeID(v));
+		}
+		return clustersMap;
+	}
+
+	/**
+	 * Returns the IDs of the hubs, in ascending order.
+	 * @return the IDs of the hubs.
+	 */
+	public List<Integer> getHubIDs() {
+		return getNodeIDs(HUB);
+	}
+
+	/**
+	 * Returns the IDs of the outliers, in ascending order.
+	 * @return the IDs of the outliers.
+	 */
+	public List<Integer> getOutlierIDs() {
+		return getNodeIDs(OUTLIER);
+	}
+
+	private List<Integer> getNodeIDs(byte role) {
+		List<Integer> ids = new ArrayList<Integer>();
+		for (int v = 0; v < roles.length; v++) {
+			if (roles[v] == role)
+				ids.add(graph.getNodeID(v));
+		}
+		return ids;
+	}
+}
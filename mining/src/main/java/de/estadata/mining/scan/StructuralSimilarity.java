@@ -0,0 +1,270 @@
+package de.estadata.mining.scan;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+
+/**
+ * This class computes the structural similarity of every edge of a {@link CSRGraph} exactly once. The structure of a node
+ * v is the set S(v) containing v and its neighbors, and the similarity of two nodes is
+ * sigma(v,w) = |S(v) &amp; S(w)| / sqrt(|S(v)| * |S(w)|) (see {@link SCAN}).
+ * <p>
+ * Since the rows of a CSR graph are sorted, |S(v) &amp; S(w)| is obtained by merging the rows of v and w. The sizes of the
+ * intersections are cached per slot (both slots of an edge share the same value), and sigma is derived from them with the same
+ * floating point operations as in {@link SCAN}, so that comparisons against epsilon give exactly the same results.
+ * <p>
+ * Given an {@link EdgeKernel}, the weighted cosine similarity is computed instead: with w(v,v) = 1 and w(v,x) the weight of
+ * the edge (v,x), sigma(v,w) = sum of w(v,x) * w(w,x) over x in S(v) &amp; S(w), divided by the square root of the product
+ * of the sums of w(v,x)^2 over S(v) and of w(w,x)^2 over S(w). The weights of all slots are read from a primitive array
+ * during the same merge of both rows, hence weighted similarities cost no more than unweighted ones. With all weights set to
+ * 1, both similarities are equal up to rounding.
+ *
+ * @author Nicolas Loza (nico.loza@gmail.com)
+ *
+ */
+public class StructuralSimilarity {
+	private CSRGraph graph;
+	private int[] offsets;
+	private int[] targets;
+	private int[] overlap;		//key: slot;	value: |S(v) & S(w)| for the edge (v,w) of the slot, if unweighted
+	private double[] weights;		//key: slot;	value: kernel weight of the edge, if weighted
+	private double[] norms;			//key: ordinal;	value: sum of the squared weights of the structure, if weighted
+	private double[] similarity;	//key: slot;	value: weighted similarity of the edge, if weighted
+
+	/**
+	 * Computes the similarities of all edges of a graph.
+	 * @param graph the graph.
+	 */
+	public StructuralSimilarity(CSRGraph graph) {
+		this(graph, null, true);
+	}
+
+	/**
+	 * Computes the weighted similarities of all edges of a graph.
+	 * @param graph the graph.
+	 * @param kernel the kernel turning the edges into weights. If null, the unweighted similarities are computed.
+	 */
+	public StructuralSimilarity(CSRGraph graph, EdgeKernel kernel) {
+		this(graph, kernel, true);
+	}
+
+	/**
+	 * Constructs an instance for a graph.
+	 * @param graph the graph.
+	 * @param kernel the kernel turning the edges into weights. If null, the unweighted similarities are computed.
+	 * @param computeAll if set to true, the similarities of all edges are computed right away. Otherwise, they have to be
+	 * computed through {@link #computeRange(int, int)}.
+	 */
+	protected StructuralSimilarity(CSRGraph graph, EdgeKernel kernel, boolean computeAll) {
+		this.graph = graph;
+		offsets = graph.getOffsets();
+		targets = graph.getTargets();
+		if (kernel == null) {
+			overlap = new int[targets.length];
+		} else {
+			weights = new double[targets.length];
+			norms = new double[graph.getNodeCount()];
+			similarity = new double[targets.length];
+			for (int v = 0; v < norms.length; v++) {
+				// v belongs to its own structure with weight 1
+				double norm = 1;
+				for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+					double weight = kernel.getWeight(graph, slot);
+					if (!(weight >= 0))
+						throw new IllegalArgumentException("Invalid weight " + weight + " of the edge of slot " + slot);
+					weights[slot] = weight;
+					norm += weight * weight;
+				}
+				norms[v] = norm;
+			}
+		}
+		if (computeAll)
+			computeRange(0, graph.getNodeCount());
+	}
+
+	/**
+	 * Tests whether the similarities are weighted.
+	 * @return true, if the similarities were computed with an {@link EdgeKernel}.
+	 */
+	public boolean isWeighted() {
+		return weights != null;
+	}
+
+	/**
+	 * Computes the similarities of the edges (v,w) with v in [from, to) and w > v, storing them in the slots of both ends.
+	 * Ranges that do not overlap can be computed in parallel.
+	 * @param from the first ordinal (inclusive).
+	 * @param to the last ordinal (exclusive).
+	 */
+	protected void computeRange(int from, int to) {
+		for (int v = from; v < to; v++) {
+			for (int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+				int w = targets[slot];
+				if (w < v)
+					continue;
+				if (weights != null) {
+					// v and w contribute w(v,w) * 1 each, and rounding must not push sigma above 1
+					double value = (2 * weights[slot] + sumCommonNeighborWeights(v, w)) / Math.sqrt(norms[v] * norms[w]);
+					value = Math.min(1, value);
+					similarity[slot] = value;
+					similarity[graph.getReverseSlot(v, slot)] = value;
+					continue;
+				}
+				// v and w belong to both structures
+				int value = countCommonNeighbors(v, w) + 2;
+				overlap[slot] = value;
+				overlap[graph.getReverseSlot(v, slot)] = value;
+			}
+		}
+	}
+
+	/**
+	 * Returns the structural similarity of the edge of a slot.
+	 * @param source the ordinal of the node the slot belongs to.
+	 * @param slot the slot.
+	 * @return the structural similarity, in range [0,1].
+	 */
+	public double getSimilarity(int source, int slot) {
+		if (weights != null)
+			return similarity[slot];
+		return getSimilarity(overlap[slot], getDegree(source) + 1, getDegree(targets[slot]) + 1);
+	}
+
+	/**
+	 * Tests whether the edge of a slot is similar enough, i.e. whether its structural similarity is at least epsilon.
+	 * @param source the ordinal of the node the slot belongs to.
+	 * @param slot the slot.
+	 * @param epsilon the threshold.
+	 * @return true, if the similarity is at least epsilon, false otherwise.
+	 */
+	public boolean isSimilar(int source, int slot, double epsilon) {
+		return getSimilarity(source, slot) >= epsilon;
+	}
+
+	/**
+	 * Returns the size of the intersection of the structures of both ends of the edge of a slot. Only available for
+	 * unweighted similarities.
+	 * @param slot the slot.
+	 * @return |S(v) &amp; S(w)|.
+	 */
+	public int getOverlap(int slot) {
+		return overlap[slot];
+	}
+
+	public CSRGraph getGraph() {
+		return graph;
+	}
+
+	/**
+	 * Computes sigma from the size of the intersection and the sizes of both structures, using the same operations as SCAN.
+	 * @param overlap |S(v) &amp; S(w)|.
+	 * @param structureSize1 |S(v)|.
+	 * @param structureSize2 |S(w)|.
+	 * @return the structural similarity.
+	 */
+	protected static double getSimilarity(int overlap, int structureSize1, int structureSize2) {
+		double b = (double) (structureSize1 * structureSize2);
+		b = Math.sqrt(b);
+		return (double) overlap / b;
+	}
+
+	/**
+	 * Returns the smallest overlap for which two structures of the given sizes are epsilon-similar, according to
+	 * {@link #getSimilarity(int, int, int)}.
+	 * @param epsilon the threshold.
+	 * @param structureSize1 |S(v)|.
+	 * @param structureSize2 |S(w)|.
+	 * @return the minimum |S(v) &amp; S(w)| for sigma(v,w) &gt;= epsilon, which may exceed both sizes.
+	 */
+	protected static int getMinOverlap(double epsilon, int structureSize1, int structureSize2) {
+		int overlap = (int) Math.ceil(epsilon * Math.sqrt((double) (structureSize1 * structureSize2)));
+		// The estimate may be off by one due to rounding, so it is corrected with the exact formula
+		while (overlap > 0 && getSimilarity(overlap - 1, structureSize1, structureSize2) >= epsilon)
+			overlap--;
+		while (getSimilarity(overlap, structureSize1, structureSize2) < epsilon)
+			overlap++;
+		return overlap;
+	}
+
+	/**
+	 * Tests whether two nodes of a CSR graph have at least a certain number of common neighbors. The merge of both rows stops
+	 * as soon as the answer is known.
+	 * @param offsets the offsets of the rows.
+	 * @param targets the targets of the slots.
+	 * @param v the ordinal of the first node.
+	 * @param w the ordinal of the second node.
+	 * @param required the number of common neighbors.
+	 * @return true, if v and w have at least 'required' common neighbors.
+	 */
+	protected static boolean hasCommonNeighbors(int[] offsets, int[] targets, int v, int w, int required) {
+		int i = offsets[v];
+		int iEnd = offsets[v + 1];
+		int j = offsets[w];
+		int jEnd = offsets[w + 1];
+		int count = 0;
+		while (count < required) {
+			if (count + Math.min(iEnd - i, jEnd - j) < required)
+				return false;
+			int a = targets[i];
+			int b = targets[j];
+			if (a == b) {
+				count++;
+				i++;
+				j++;
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return true;
+	}
+
+	// Sum of w(v,x) * w(w,x) over the common neighbors x of v and w, obtained in the same merge of their rows
+	private double sumCommonNeighborWeights(int v, int w) {
+		int i = offsets[v];
+		int iEnd = offsets[v + 1];
+		int j = offsets[w];
+		int jEnd = offsets[w + 1];
+		double sum = 0;
+		while (i < iEnd && j < jEnd) {
+			int a = targets[i];
+			int b = targets[j];
+			if (a == b) {
+				sum += weights[i] * weights[j];
+				i++;
+				j++;
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return sum;
+	}
+
+	private int getDegree(int v) {
+		return offsets[v + 1] - offsets[v];
+	}
+
+	// Number of common neighbors of v and w, obtained by merging their (sorted) rows
+	private int countCommonNeighbors(int v, int w) {
+		int i = offsets[v];
+		int iEnd = offsets[v + 1];
+		int j = offsets[w];
+		int jEnd = offsets[w + 1];
+		int count = 0;
+		while (i < iEnd && j < jEnd) {
+			int a = targets[i];
+			int b = targets[j];
+			if (a == b) {
+				count++;
+				i++;
+				j++;
+			} else if (a < b) {
+				i++;
+			} else {
+				j++;
+			}
+		}
+		return count;
+	}
+}
@@ -3,17 +3,24 @@ package de.estadata.mining.stclustering;
 import de.estadata.mining.modularityoptimizer.ModularityOptimizer;
 import de.estadata.mining.modularityoptimizer.ModularityOptimizer.Algorithm;
 import de.estadata.mining.modularityoptimizer.ModularityOptimizer.ModularityFunction;
+import de.estadata.mining.scan.EdgeKernel;
 import de.estadata.mining.scan.SCAN;
+import de.estadata.mining.scan.SCANSweep;
+import de.estadata.mining.scan.ScanResult;
+import de.estadata.mining.util.Evaluation;
 import de.estadata.mining.util.MiningTools;
 import de.estadata.mining.datatransformation.Cluster;
 import de.estadata.mining.datatransformation.Report;
+import de.estadata.mining.datatransformation.ReportStore;
 import net.sf.ehcache.Cache;
 import net.sf.ehcache.Element;
 import de.estadata.mining.graphmodel.*;
 import java.io.*;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
 
 
 /**
@@ -24,6 +31,7 @@ import java.util.Map;
  * 
  */
 public class GraphClustering {
+	private static final int chunkSize = 10000;
 	private Graph graph;
 
 	private Cache pointsCache;
@@ -49,8 +57,25 @@ public class GraphClustering {
 	 * calling getGraph() after the execution of this method.
 	 */
 	public void runSCAN(double epsilon, int mu) {
+		runSCAN(epsilon, mu, SCAN.Engine.BASIC);
+	}
+	
+	/**
+	 * Execute SCAN with the given engine (see {@link SCAN.Engine}). The resulting graph can be obtained by
+	 * calling getGraph() after the execution of this method.
+	 */
+	public void runSCAN(double epsilon, int mu, SCAN.Engine engine) {
+		runSCAN(epsilon, mu, engine, null);
+	}
+	
+	/**
+	 * Execute SCAN with the given engine and the weighted structural similarity given by a kernel (see {@link EdgeKernel}).
+	 * The resulting graph can be obtained by calling getGraph() after the execution of this method.
+	 */
+	public void runSCAN(double epsilon, int mu, SCAN.Engine engine, EdgeKernel kernel) {
 		System.out.println("Starting clustering...");
-		SCAN scan = new SCAN(this.graph, epsilon, mu);
+		SCAN scan = new SCAN(this.graph, epsilon, mu, engine);
+		scan.setKernel(kernel);
 
 		long start = System.currentTimeMillis();
 		int finalID = scan.run(1);
@@ -71,9 +96,103 @@ public class GraphClustering {
 				+ " ms, number of clusters: " + finalID + ", #valid clusters: " + validClusters);
 	}
 	
+	/**
+	 * Runs SCAN for each of several pairs of parameters (epsilons[i], mus[i]) on the current graph, computing the structural
+	 * similarities only once (see {@link SCANSweep}). The cluster ID of every report is written for each pair to its own csv
+	 * file named destFilePrefix_epsEPSILON_muMU.csv, and the number of clusters, hubs and outliers is printed. If the reports
+	 * come with a ground truth (i.e. some of them are marked as duplicates), the {@link Evaluation} of each clustering is
+	 * printed as well. Neither the graph nor the caches are affected by the execution of this method.
+	 * @param epsilons the values of epsilon.
+	 * @param mus the values of mu, one per value of epsilon.
+	 * @param destFilePrefix the path prefix of the csv files.
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	public void runSCANSweep(double[] epsilons, int[] mus, String destFilePrefix) throws IOException, InterruptedException, ExecutionException {
+		if(epsilons.length != mus.length)
+			throw new IllegalArgumentException(epsilons.length + " values of epsilon, but " + mus.length + " values of mu");
+		long start = System.currentTimeMillis();
+		CSRGraph csrGraph = CSRGraph.fromGraph(graph);
+		List<Integer> reportIDs = new ArrayList<Integer>(csrGraph.getNodeCount());
+		for(int id : csrGraph.getNodeIDs())
+			reportIDs.add(id);
+		ReportStore store = new ReportStore(pointsCache, reportIDs);
+		SCANSweep sweep = new SCANSweep(csrGraph);
+		long end = System.currentTimeMillis();
+		System.out.println("Preparing SCAN sweep took: " + (end - start) + " ms");
+		runSCANSweep(epsilons, mus, destFilePrefix, csrGraph, sweep, store);
+	}
+	
+	/**
+	 * Same as {@link #runSCANSweep(double[], int[], String)}, but with the CSR graph, the SCAN index and the report store
+	 * persisted next to the graph (see {@link STFiltering#getCSRGraph()}, {@link STFiltering#getSCANIndex()} and 
+	 * {@link STFiltering#getReportStore()}), so that neither the graph's caches nor the reports are read, and no structural
+	 * similarities are computed once these are stored.
+	 * @param epsilons the values of epsilon.
+	 * @param mus the values of mu, one per value of epsilon.
+	 * @param destFilePrefix the path prefix of the csv files.
+	 * @param filtering the ST-filtering the current graph belongs to.
+	 * @throws IOException
+	 * @throws ExecutionException
+	 * @throws InterruptedException
+	 */
+	public void runSCANSweep(double[] epsilons, int[] mus, String destFilePrefix, STFiltering filtering) throws IOException, InterruptedException, ExecutionException {
+		if(filtering.getGraph() != graph)
+			throw new IllegalArgumentException("The ST-filtering does not belong to the current graph");
+		if(epsilons.length != mus.length)
+			throw new IllegalArgumentException(epsilons.length + " values of epsilon, but " + mus.length + " values of mu");
+		long start = System.currentTimeMillis();
+		CSRGraph csrGraph = filtering.getCSRGraph();
+		SCANSweep sweep = new SCANSweep(csrGraph, filtering.getSCANIndex());
+		ReportStore store = filtering.getReportStore();
+		long end = System.currentTimeMillis();
+		System.out.println("Preparing SCAN sweep took: " + (end - start) + " ms");
+		runSCANSweep(epsilons, mus, destFilePrefix, csrGraph, sweep, store);
+	}
+	
+	private void runSCANSweep(double[] epsilons, int[] mus, String destFilePrefix, CSRGraph csrGraph, SCANSweep sweep, ReportStore store) throws IOException {
+		
+		// The ground truth is read from the store once, indexed by the ordinal of the nodes
+		BitSet duplicates = new BitSet(csrGraph.getNodeCount());
+		for(int v = 0; v < csrGraph.getNodeCount(); v++)
+			duplicates.set(v, store.isDuplicate(store.getRow(csrGraph.getNodeID(v))));
+		
+		for(int i = 0; i < epsilons.length; i++) {
+			long start = System.currentTimeMillis();
+			ScanResult result = sweep.run(epsilons[i], mus[i], 1);
+			long end = System.currentTimeMillis();
+			
+			int[] clusterIDs = result.getClusterIDs();
+			String destFilePath = destFilePrefix + "_eps" + epsilons[i] + "_mu" + mus[i] + ".csv";
+			PrintWriter writer = new PrintWriter(destFilePath, "UTF-8");
+			writer.write("index,clusterLabel\n");
+			for(int v = 0; v < clusterIDs.length; v++)
+				writer.write(csrGraph.getNodeID(v) + "," + clusterIDs[v] + "\n");
+			writer.close();
+			
+			int[] clusterSizes = new int[result.getLastClusterID() + 1];
+			for(int clusterID : clusterIDs) {
+				if(clusterID != -1)
+					clusterSizes[clusterID]++;
+			}
+			int validClusters = 0;
+			for(int size : clusterSizes) {
+				if(size > 1)
+					validClusters++;
+			}
+			System.out.println("SCAN with epsilon " + epsilons[i] + " and mu " + mus[i] + " took: " + (end - start) 
+					+ " ms, number of clusters: " + result.getLastClusterID() + ", #valid clusters: " + validClusters 
+					+ ", #hubs: " + result.getHubIDs().size() + ", #outliers: " + result.getOutlierIDs().size());
+			if(store.hasDuplicates())
+				System.out.println(Evaluation.runAnalysis(clusterIDs, duplicates, end - start, "SCAN, epsilon: " + epsilons[i] + ", mu: " + mus[i]));
+		}
+	}
+	
 	/**
 	 * Run a modularity-based clustering algorithm on the current graph. For full information about the parameters, see
-	 * {@link ModularityOptimizer} or visit http://www.ludowaltman.nl/slm/.
+	 * {@link ModularityOptimizer} or visit http://www.ludowaltman.nl/slm/. Further options (e.g. the queue-based local moving or
+	 * the precision of the weights) are set on the optimizer returned by {@link #getModularityOptimizer(CSRGraph)}.
 	 * @param modFunc
 	 * @param resolution
 	 * @param algorithm
@@ -89,11 +208,21 @@ public class GraphClustering {
 			int iterations, 
 			long randomSeed) throws IllegalStateException {
 		
+		getModularityOptimizer(null).run(modFunc, resolution, algorithm, randomStarts, iterations, randomSeed);
+	}
+	
+	/**
+	 * Returns the modularity optimizer of the current graph, which is created on the first call and kept for later runs of
+	 * {@link #runModularityOptimizer(ModularityFunction, double, Algorithm, int, int, long)}.
+	 * @param csrGraph the current graph in CSR format (see {@link STFiltering#getCSRGraph()}), from which a new optimizer
+	 * builds its network instead of reading the graph's caches. If null, or if the optimizer exists already, it is ignored.
+	 * @return the modularity optimizer.
+	 */
+	public ModularityOptimizer getModularityOptimizer(CSRGraph csrGraph) {
 		if(modOpt == null || !modOpt.getGraph().equals(graph)) {
-			modOpt = new ModularityOptimizer(graph);
+			modOpt = (csrGraph == null) ? new ModularityOptimizer(graph) : new ModularityOptimizer(graph, csrGraph);
 		}
-		
-		modOpt.run(modFunc, resolution, algorithm, randomStarts, iterations, randomSeed);
+		return modOpt;
 	}
 	
 	/**
@@ -119,20 +248,29 @@ public class GraphClustering {
 	 * them to the Terracotta clusters cache (provided in the constructor).
 	 */
 	public void generateAndTransferClusters() {
-		Map<Integer, List<Report>> clusterMap = new HashMap<Integer, List<Report>>();
-
+		// Cluster IDs are read from the nodes in chunks and written back to the reports at once
+		int[] nodeIDs = new int[graph.getNodeCount()];
+		int[] clusterIDs = new int[graph.getNodeCount()];
+		int count = 0;
+		List<Integer> chunk = new ArrayList<Integer>(chunkSize);
 		for (int id : graph.getNodeIDs()) {
-			Node n = graph.getNode(id);
-//			int clusterID = Integer.parseInt(MiningTools.getNodeLabelValue(n, clusterIDLabel));
-			int clusterID = n.getClusterID();
-			if(clusterID == Integer.MIN_VALUE)
-				throw new IllegalStateException("Failed to assign valid cluster ID to at least one node");
-			Report report = (Report) pointsCache.get(id).getObjectValue();
-			report.setClusterID(clusterID);
-			pointsCache.put(new Element(id, report));
-
-			MiningTools.addReportToClustermap(report, clusterMap);
+			chunk.add(id);
+			if (chunk.size() == chunkSize || count + chunk.size() == nodeIDs.length) {
+				for (Node n : graph.getNodes(chunk)) {
+//					int clusterID = Integer.parseInt(MiningTools.getNodeLabelValue(n, clusterIDLabel));
+					int clusterID = n.getClusterID();
+					if(clusterID == Integer.MIN_VALUE)
+						throw new IllegalStateException("Failed to assign valid cluster ID to at least one node");
+					nodeIDs[count] = n.getID();
+					clusterIDs[count] = clusterID;
+					count++;
+				}
+				chunk.clear();
+			}
 		}
+		if (count != nodeIDs.length)
+			throw new IllegalStateException("Found " + count + " of " + nodeIDs.length + " nodes");
+		Map<Integer, List<Report>> clusterMap = MiningTools.writeClusterIDs(pointsCache, nodeIDs, clusterIDs);
 		
 		int biggestCluster = Integer.MIN_VALUE;
 		int smallestCluster = Integer.MAX_VALUE;
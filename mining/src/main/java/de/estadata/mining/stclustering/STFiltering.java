@@ -2,7 +2,9 @@ package de.estadata.mining.stclustering;
 
 import de.estadata.mining.datatransformation.Cluster;
 import de.estadata.mining.datatransformation.Report;
+import de.estadata.mining.datatransformation.ReportStore;
 import de.estadata.mining.graphmodel.*;
+import de.estadata.mining.scan.SCANIndex;
 import de.estadata.mining.util.DirectMemoryUtils;
 import de.estadata.mining.util.MiningTools;
 import net.sf.ehcache.Cache;
@@ -14,6 +16,7 @@ import net.sf.ehcache.config.SearchAttribute;
 import net.sf.ehcache.config.Searchable;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
@@ -40,7 +43,9 @@ public class STFiltering {
 //	public static final String clusterIDLabel = "clusterID";
 	private int maxSpaceDist;
 	private int maxDayDist;
+	private boolean useTimeSweep;
 	private Graph graph;
+	private CSRGraph csrGraph;
 	private long reportsStartTime;
 	private long reportsEndTime;
 	private long reportsTimeSpan;
@@ -48,7 +53,8 @@ public class STFiltering {
 	private Cache reportsCache;
 	private Cache clustersCache;
 //	private Cache[] bucketCaches;
-	private Map<Integer, List<Integer>> buckets;
+	private Map<Integer, List<Integer>> buckets;		//key: bucket index;	value: rows of the report store
+	private ReportStore reportStore;
 	private long initialFreeHeap = 0;
 	private long initialDirectMemory = 0;
 	private long reportsCacheHeap = 0;
@@ -57,6 +63,8 @@ public class STFiltering {
 	private long reportsCacheRAM = 0;
 	private long nodesRAM = 0;
 	private long edgesRAM = 0;
+	private long storeHeap = 0;			//budget of each cache storing a report store, CSR graph or SCAN index
+	private long storeRAM = 0;
 
 	/**
 	 * Constructs a new instance from a specific set of {@link Report}s, defined by a list containing their IDs.
@@ -71,9 +79,29 @@ public class STFiltering {
 	public STFiltering(List<Integer> reportIDs, CacheManager databaseManager,
 			Cache reportsCache, int maxSpaceDist, int maxDayDist)
 			throws InterruptedException, ExecutionException {
+		this(reportIDs, databaseManager, reportsCache, maxSpaceDist, maxDayDist, false);
+	}
+
+	/**
+	 * Constructs a new instance from a specific set of {@link Report}s, defined by a list containing their IDs.
+	 * @param reportIDs the list of IDs from the reports to be analyzed.
+	 * @param databaseManager the Terracotta CacheManager 
+	 * @param reportsCache the Terracotta Cache containing the reports.
+	 * @param maxSpaceDist maximal space distance (in meters) two Reports may have to be ST-connected.
+	 * @param maxDayDist maximal temporal distance (in days) two Reports may have to be ST-connected.
+	 * @param useTimeSweep if set to true, the reports are sorted by creation time and each report is compared with the 
+	 * reports within its time window, which is split in equally sized chunks for parallel work. If set to false, the
+	 * time line is split in buckets of maxDayDist days.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public STFiltering(List<Integer> reportIDs, CacheManager databaseManager,
+			Cache reportsCache, int maxSpaceDist, int maxDayDist, boolean useTimeSweep)
+			throws InterruptedException, ExecutionException {
 		initializeVariables(databaseManager, reportsCache, false);
 		this.maxSpaceDist = maxSpaceDist;
 		this.maxDayDist = maxDayDist;
+		this.useTimeSweep = useTimeSweep;
 		loadFromReportIDs(reportIDs);
 		generateGraph();
 	}
@@ -90,9 +118,27 @@ public class STFiltering {
 	public STFiltering(CacheManager databaseManager, Cache reportsCache,
 			int maxSpaceDist, int maxDayDist) throws InterruptedException,
 			ExecutionException {
+		this(databaseManager, reportsCache, maxSpaceDist, maxDayDist, false);
+	}
+
+	/**
+	 * Constructs a new instance using the complete set of {@link Report}s provided in a given Terracotta cache.
+	 * @param databaseManager the Terracotta CacheManager.
+	 * @param reportsCache the Terracotta Cache containing the reports.
+	 * @param maxSpaceDist maximal space distance (in meters) two Reports may have to be ST-connected.
+	 * @param maxDayDist maximal temporal distance (in days) two Reports may have to be ST-connected.
+	 * @param useTimeSweep if set to true, the reports are compared within a sliding time window instead of within 
+	 * buckets of maxDayDist days (see {@link #STFiltering(List, CacheManager, Cache, int, int, boolean)}).
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public STFiltering(CacheManager databaseManager, Cache reportsCache,
+			int maxSpaceDist, int maxDayDist, boolean useTimeSweep) throws InterruptedException,
+			ExecutionException {
 		initializeVariables(databaseManager, reportsCache, false);
 		this.maxSpaceDist = maxSpaceDist;
 		this.maxDayDist = maxDayDist;
+		this.useTimeSweep = useTimeSweep;
 		loadFromReportIDs(null);
 		generateGraph();
 
@@ -140,6 +186,18 @@ public class STFiltering {
 			ExecutionException {
 		System.out.println("Starting to generate graph...");
 		long start = System.currentTimeMillis();
+		csrGraph = null;
+		// The CSR graph and the index stored for the previous graph no longer match
+		String csrCacheName = reportsCache.getName() + "_csrGraphCache";
+		if (databaseManager.cacheExists(csrCacheName))
+			databaseManager.removeCache(csrCacheName);
+		String indexCacheName = reportsCache.getName() + "_scanIndexCache";
+		if (databaseManager.cacheExists(indexCacheName))
+			databaseManager.removeCache(indexCacheName);
+		String storeCacheName = reportsCache.getName() + "_reportStoreCache";
+		if (databaseManager.cacheExists(storeCacheName))
+			databaseManager.removeCache(storeCacheName);
+		reportStore.save(getNewCache(storeCacheName, storeHeap, storeRAM, true, null));
 		computeNeighbors();
 		long end = System.currentTimeMillis();
 		System.out.println("Finished generating graph with "
@@ -180,24 +238,67 @@ public class STFiltering {
 		GraphView view = new GraphView(graph);
 		view.addAllNodeIDs(graph.getNodeIDs());
 
-		for (int id : graph.getEdgeIDs()) {
-			Edge e = graph.getEdge(id);
-			if (mustShareCategory && !e.isSameCategory()) {
-				continue;
-			} else if (e.getSpaceDist() <= newMaxSpaceDist && e.getTimeDist() <= newMaxDayDist)
-				view.addEdgeID(e.getID());
+		CSRGraph csr = getCSRGraph();
+		for (int v = 0; v < csr.getNodeCount(); v++) {
+			for (int slot = csr.getFirstSlot(v); slot < csr.getEndSlot(v); slot++) {
+				// Every edge is stored in the rows of both its ends, but added only once
+				if (csr.getTarget(slot) < v)
+					continue;
+				if (mustShareCategory && !csr.isSameCategory(slot)) {
+					continue;
+				} else if (csr.getSpaceDist(slot) <= newMaxSpaceDist && csr.getTimeDist(slot) <= newMaxDayDist) {
+					// Saturated distances may lie above a threshold of CSRGraph.MAX_DISTANCE or more, so these edges are read from the cache
+					if (csr.getSpaceDist(slot) == CSRGraph.MAX_DISTANCE || csr.getTimeDist(slot) == CSRGraph.MAX_DISTANCE) {
+						Edge e = graph.getEdge(csr.getEdgeID(slot));
+						if (e.getSpaceDist() > newMaxSpaceDist || e.getTimeDist() > newMaxDayDist)
+							continue;
+					}
+					view.addEdgeID(csr.getEdgeID(slot));
+				}
+			}
 		}
 		long end = System.currentTimeMillis();
 		System.out.println("Filtering took: " + (end - start) + " ms");
 
 		System.out.println("Original graph has " + graph.getNodeCount()
 				+ " nodes and " + graph.getEdgeCount() + " edges");
-		System.out.println("Filtered graph hast " + view.getNodeIDs().size()
-				+ " nodes and " + view.getEdgeIDs().size() + " edges");
+		System.out.println("Filtered graph hast " + view.getNodeCount()
+				+ " nodes and " + view.getEdgeCount() + " edges");
 
 		return view;
 	}
 	
+	/**
+	 * Computes the clusters (i.e. connected components) resulting from filtering the graph with each of several pairs of 
+	 * thresholds in a single pass over the edges (see {@link ThresholdSweep}), and writes the cluster ID of every report 
+	 * for each pair to its own csv file named destFilePrefix_METERSm_DAYSd.csv. The reports stored in the database are not 
+	 * affected by the execution of this method.
+	 * @param meters the spatial thresholds in meters.
+	 * @param days the temporal thresholds in days, one per spatial threshold.
+	 * @param mustShareCategory if set to true, only edges connecting nodes of the same category are taken into account.
+	 * @param destFilePrefix the path prefix of the csv files.
+	 * @throws IOException
+	 */
+	public void filterSweep(int[] meters, int[] days, boolean mustShareCategory, final String destFilePrefix) throws IOException {
+		System.out.println("Applying " + meters.length + " filterings to graph with mustShareCategory: " + mustShareCategory);
+		long start = System.currentTimeMillis();
+		final CSRGraph csr = getCSRGraph();
+		ThresholdSweep sweep = new ThresholdSweep(csr, mustShareCategory);
+		sweep.run(meters, days, new ThresholdSweep.ResultHandler() {
+			@Override
+			public void handle(int meters, int days, int[] clusterIDs) throws IOException {
+				String destFilePath = destFilePrefix + "_" + meters + "m_" + days + "d.csv";
+				PrintWriter writer = new PrintWriter(destFilePath, "UTF-8");
+				writer.write("index,clusterLabel\n");
+				for (int v = 0; v < clusterIDs.length; v++)
+					writer.write(csr.getNodeID(v) + "," + clusterIDs[v] + "\n");
+				writer.close();
+			}
+		});
+		long end = System.currentTimeMillis();
+		System.out.println("Filter sweep over " + sweep.getEdgeCount() + " edges took: " + (end - start) + " ms");
+	}
+
 	/**
 	 * Labels the nodes of every connected component with a single, unique,
 	 * positive cluster ID, as long as said component consists of 2 or more
@@ -228,28 +329,34 @@ public class STFiltering {
 	 */
 	public void generateAndTransferClusters(Cache clustersCache, GraphView view) {
 		long start = System.currentTimeMillis();
-		MiningTools.assignClusterIDsOnGraph(graph, view);
-		Map<Integer, List<Report>> clusterMap = new HashMap<Integer, List<Report>>();
-		for (Integer id : graph.getNodeIDs()) {
-			if (view == null || view.containsNodeID(id)) {
-				Node n = graph.getNode(id);
-				int clusterID = n.getClusterID();
-				if(clusterID == Integer.MIN_VALUE)
-					throw new IllegalStateException("Failed to assign a valid cluster ID to at least one node");
-				Report report = (Report) reportsCache.get(id).getObjectValue();
-				report.setClusterID(clusterID);
-				reportsCache.put(new Element(id, report));
-				MiningTools.addReportToClustermap(report, clusterMap);
+		int[] clusterIDs = MiningTools.assignClusterIDsOnGraph(graph, getCSRGraph(), view);
+		int[] nodeIDs = new int[graph.getNodeCount()];
+		int i = 0;
+		for (Integer id : graph.getNodeIDs())
+			nodeIDs[i++] = id;
+		if (view != null) {
+			// Only the reports of nodes in the view are updated
+			int count = 0;
+			for (i = 0; i < nodeIDs.length; i++) {
+				if (view.containsNodeID(nodeIDs[i])) {
+					nodeIDs[count] = nodeIDs[i];
+					clusterIDs[count] = clusterIDs[i];
+					count++;
+				}
 			}
+			nodeIDs = Arrays.copyOf(nodeIDs, count);
+			clusterIDs = Arrays.copyOf(clusterIDs, count);
 		}
+		Map<Integer, List<Report>> clusterMap = MiningTools.writeClusterIDs(reportsCache, nodeIDs, clusterIDs);
 		long time = System.currentTimeMillis() - start;
 		System.out.println("Assignment of clusterIDs to nodes & reports took " + time + " ms");
 		clustersCache.removeAll();
+		List<Element> clusters = new ArrayList<Element>(clusterMap.size());
 		for (Integer key : clusterMap.keySet()) {
-			Cluster cluster = new Cluster(clusterMap.get(key), key);
-			Element element = new Element(key, cluster);
-			clustersCache.put(element);
+			Cluster cluster = new Cluster(clusterMap.get(key), key, reportStore);
+			clusters.add(new Element(key, cluster));
 		}
+		clustersCache.putAll(clusters);
 		this.clustersCache = clustersCache;
 	}
 
@@ -293,6 +400,11 @@ public class STFiltering {
 		nodesRAM = (initialDirectMemory - reportsCacheRAM) / 3;
 		edgesRAM = nodesRAM;
 
+		// The report store, the CSR graph and the SCAN index are written once and kept as arrays on the heap while in use,
+		// hence their caches share a small part of the heap and the remaining third of the direct memory
+		storeHeap = (initialFreeHeap - reportsCacheHeap) / 48;
+		storeRAM = (initialDirectMemory - reportsCacheRAM) / 9;
+
 		String nodesCacheName = reportsCache.getName() + "_nodesCache";
 		String edgesCacheName = reportsCache.getName() + "_edgesCache";
 		Cache nodesCache;
@@ -330,29 +442,55 @@ public class STFiltering {
 		final int threads = Runtime.getRuntime().availableProcessors();
 		ExecutorService pool = Executors.newFixedThreadPool(threads);
 		List<Future<List<Edge>>> futures = new ArrayList<Future<List<Edge>>>();
-		Integer[] keys = buckets.keySet().toArray(new Integer[buckets.size()]);
 		
-		for (int i = 0; i < keys.length; i++) {
-			Future<List<Edge>> f = pool.submit(new BucketThread(keys[i]));
-			futures.add(f);
-		}
-		for (int i = 0; i + 1 < keys.length; i += 2) {
-			Future<List<Edge>> f = pool.submit(new BucketThread(keys[i], keys[i + 1]));
-			futures.add(f);
-		}
-		for (int i = 1; i + 1 < keys.length; i += 2) {
-			Future<List<Edge>> f = pool.submit(new BucketThread(keys[i], keys[i + 1]));
-			futures.add(f);
+		if (useTimeSweep) {
+			// More chunks than threads, so that a chunk with a crowded window does not leave the other threads idle
+			int chunks = threads * 4;
+			int size = reportStore.getSize();
+			int step = (size + chunks - 1) / chunks;
+			for (int from = 0; from < size; from += step) {
+				Future<List<Edge>> f = pool.submit(new SweepThread(from, Math.min(from + step, size)));
+				futures.add(f);
+			}
+		} else {
+			Integer[] keys = buckets.keySet().toArray(new Integer[buckets.size()]);
+			
+			for (int i = 0; i < keys.length; i++) {
+				Future<List<Edge>> f = pool.submit(new BucketThread(keys[i]));
+				futures.add(f);
+			}
+			for (int i = 0; i + 1 < keys.length; i += 2) {
+				Future<List<Edge>> f = pool.submit(new BucketThread(keys[i], keys[i + 1]));
+				futures.add(f);
+			}
+			for (int i = 1; i + 1 < keys.length; i += 2) {
+				Future<List<Edge>> f = pool.submit(new BucketThread(keys[i], keys[i + 1]));
+				futures.add(f);
+			}
 		}
 		
+		// Each worker's buffer is committed as a whole by a separate task. IDs are reserved in the order the workers were 
+		// submitted, so that the commits themselves can run in parallel.
+		List<Future<Integer>> commits = new ArrayList<Future<Integer>>();
+		int generatedEdges = 0;
+		int addedEdges = 0;
 		try {
 			for (Future<List<Edge>> f : futures) {
-				List<Edge> edges = f.get();
-				if (edges.size() == 0) {
-				} else {
-					for (Edge e : edges)
-						graph.addEdge(e);
-				}
+				final List<Edge> edges = f.get();
+				if (edges.size() == 0)
+					continue;
+				generatedEdges += edges.size();
+				final int firstID = graph.reserveEdgeIDs(edges.size());
+				Future<Integer> commit = pool.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						return graph.addEdges(edges, firstID);
+					}
+				});
+				commits.add(commit);
+			}
+			for (Future<Integer> commit : commits) {
+				addedEdges += commit.get();
 			}
 		} catch (InterruptedException e) {
 			pool.shutdownNow();
@@ -363,6 +501,8 @@ public class STFiltering {
 		}
 		
 		pool.shutdown();
+		if (addedEdges != generatedEdges)
+			System.out.println((generatedEdges - addedEdges) + " of " + generatedEdges + " generated edges were duplicates");
 		
 	}
 	
@@ -394,25 +534,23 @@ public class STFiltering {
 			long start = System.currentTimeMillis();
 			List<Edge> edges = new ArrayList<Edge>();
 
-			List<Report> firstCacheReports = MiningTools.getCacheObjectsAsList(reportsCache, Report.class, buckets.get(firstCacheIndex));
-			firstCacheReports = (firstCacheReports == null) ? new ArrayList<Report>() : firstCacheReports;
+			int[] firstBucketRows = getBucketRows(firstCacheIndex);
 			String msg;
 			if (secondCacheIndex == -1) {
-				edges = processReportsLists(firstCacheReports,
-						firstCacheReports, true);
+				edges = processRows(firstBucketRows,
+						firstBucketRows, true);
 				msg = "Processing of cache " + firstCacheIndex + " ("
-						+ firstCacheReports.size() + " reports) took: ";
+						+ firstBucketRows.length + " reports) took: ";
 			} else {
-				List<Report> secondCacheReports = MiningTools.getCacheObjectsAsList(reportsCache, Report.class, buckets.get(secondCacheIndex));
-				secondCacheReports = (secondCacheReports == null) ? new ArrayList<Report>() : secondCacheReports;
-				edges = processReportsLists(firstCacheReports,
-						secondCacheReports, false);
+				int[] secondBucketRows = getBucketRows(secondCacheIndex);
+				edges = processRows(firstBucketRows,
+						secondBucketRows, false);
 				msg = "Processing of caches ["
 						+ firstCacheIndex
 						+ ", "
 						+ secondCacheIndex
 						+ "] ("
-						+ (firstCacheReports.size() + secondCacheReports.size())
+						+ (firstBucketRows.length + secondBucketRows.length)
 						+ " reports) took: ";
 			}
 
@@ -422,52 +560,129 @@ public class STFiltering {
 			return edges;
 		}
 
-		private List<Edge> processReportsLists(List<Report> l1,
-				List<Report> l2, boolean sameList) {
+		private int[] getBucketRows(int bucketIndex) {
+			List<Integer> bucket = buckets.get(bucketIndex);
+			int[] rows = new int[(bucket == null) ? 0 : bucket.size()];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = bucket.get(i);
+			return rows;
+		}
+
+		/*
+		 * Compares every report of rows1 with the reports of rows2 lying in neighboring cells of a spatial grid built over rows2,
+		 * instead of comparing it with every report of rows2. If both are the same, each pair is compared only once.
+		 */
+		private List<Edge> processRows(int[] rows1, int[] rows2, boolean sameList) {
 			List<Edge> edges = new ArrayList<Edge>();
-			for (int i = 0; i < l1.size(); i++) {
-				Report r1 = l1.get(i);
-				int j = (sameList) ? i + 1 : 0;
-				for (; j < l2.size(); j++) {
-					Report r2 = l2.get(j);
-					int spaceDist = Math.abs(MiningTools.getSpaceDistance(r1, r2));
-					if (spaceDist < maxSpaceDist) {
-						long maxTemporalDist = TimeUnit.DAYS.toMillis(maxDayDist);
-						long timeDist = Math.abs(r1.getCreationTime() - r2.getCreationTime());
+			long[] times = reportStore.getCreationTimes();
+			SpatialGrid grid = new SpatialGrid(reportStore.getLats(), reportStore.getLons(), rows2, maxSpaceDist);
+
+			long maxTemporalDist = TimeUnit.DAYS.toMillis(maxDayDist);
+			int[] cells = new int[9];
+			for (int row1 : rows1) {
+				int nCells = grid.getNeighborCells(reportStore.getLat(row1), reportStore.getLon(row1), cells);
+				for (int c = 0; c < nCells; c++) {
+					for (int k = grid.getCellStart(cells[c]); k < grid.getCellEnd(cells[c]); k++) {
+						int row2 = grid.getRow(k);
+						if (sameList && row2 <= row1)
+							continue;
+						int spaceDist = Math.abs(reportStore.getSpaceDistance(row1, row2));
+						if (spaceDist < maxSpaceDist) {
+							long timeDist = Math.abs(times[row1] - times[row2]);
+							if (timeDist < maxTemporalDist) {
+								edges.add(createEdge(row1, row2, spaceDist, timeDist));
+							}
+						}
+					}
+				}
+			}
+			return edges;
+		}
+	}
+
+	/*
+	 * Auxiliary class for the sliding time window. The rows of the report store are sorted by creation time, and each 
+	 * instance processes the rows in [from, to), comparing each of them with the following rows whose creation time lies 
+	 * within maxDayDist days. Since all chunks hold the same number of reports, the load does not depend on how the 
+	 * reports are distributed over the time line.
+	 */
+	private class SweepThread implements Callable<List<Edge>> {
+		private int from;
+		private int to;
+
+		public SweepThread(int from, int to) {
+			if (from < 0 || to < from || to > reportStore.getSize())
+				throw new IllegalArgumentException();
+			this.from = from;
+			this.to = to;
+		}
+
+		public List<Edge> call() throws Exception {
+			long start = System.currentTimeMillis();
+			List<Edge> edges = new ArrayList<Edge>();
+			if (from == to)
+				return edges;
+
+			long[] times = reportStore.getCreationTimes();
+			long maxTemporalDist = TimeUnit.DAYS.toMillis(maxDayDist);
+			long windowEndTime = times[to - 1] + maxTemporalDist;
+			int windowEnd = to;
+			while (windowEnd < times.length && times[windowEnd] < windowEndTime)
+				windowEnd++;
+
+			int[] rows = new int[windowEnd - from];
+			for (int j = from; j < windowEnd; j++)
+				rows[j - from] = j;
+			SpatialGrid grid = new SpatialGrid(reportStore.getLats(), reportStore.getLons(), rows, maxSpaceDist);
+
+			int[] cells = new int[9];
+			for (int i = from; i < to; i++) {
+				int nCells = grid.getNeighborCells(reportStore.getLat(i), reportStore.getLon(i), cells);
+				for (int c = 0; c < nCells; c++) {
+					for (int k = grid.getCellStart(cells[c]); k < grid.getCellEnd(cells[c]); k++) {
+						int j = grid.getRow(k);
+						if (j <= i)
+							continue;
+						long timeDist = times[j] - times[i];
 						if (timeDist < maxTemporalDist) {
-							Node n1 = graph.getNode(r1.getID());
-							Node n2 = graph.getNode(r2.getID());
-							boolean sameCategory = r1.getCategory().toLowerCase().equals(r2.getCategory().toLowerCase());
-							
-							Edge e = new Edge(n1, n2, MiningTools.getLevenshteinSimilarity(r1.getCategory(), r2.getCategory()));
-							
-							e.setSpaceDist(spaceDist);
-							e.setTimeDist((int) TimeUnit.MILLISECONDS.toDays(timeDist));
-							e.setSameCategory(sameCategory);
-							
-							edges.add(e);
+							int spaceDist = Math.abs(reportStore.getSpaceDistance(i, j));
+							if (spaceDist < maxSpaceDist) {
+								edges.add(createEdge(i, j, spaceDist, timeDist));
+							}
 						}
 					}
 				}
 			}
+
+			long end = System.currentTimeMillis();
+			System.out.println("Processing of reports [" + from + ", " + to + ") with window of " + (windowEnd - from)
+					+ " reports took: " + (end - start) + " ms");
 			return edges;
 		}
 	}
 
+	private Edge createEdge(int row1, int row2, int spaceDist, long timeDist) {
+		Edge e = new Edge(reportStore.getID(row1), reportStore.getID(row2), reportStore.getCategorySimilarity(row1, row2));
+
+		e.setSpaceDist(spaceDist);
+		e.setTimeDist((int) TimeUnit.MILLISECONDS.toDays(timeDist));
+		e.setSameCategory(reportStore.isSameCategory(row1, row2));
+		return e;
+	}
+
 	private void loadFromReportIDs(List<Integer> reportIDs)
 			throws InterruptedException, ExecutionException {
 		System.out.println("Loading graph nodes...");
 		long start = System.currentTimeMillis();
 
-		reportsStartTime = Long.MAX_VALUE;
-		reportsEndTime = Long.MIN_VALUE;
-		final Object timeStampsLock = new Object();
-
 		graph.clear();
 
 		// ########################
-		final Object[] keys = (reportIDs != null) ? reportIDs.toArray()
-				: reportsCache.getKeys().toArray();
+		reportStore = new ReportStore(reportsCache, reportIDs);
+		final int[] ids = reportStore.getIDs();
+		long[] times = reportStore.getCreationTimes();
+		reportsStartTime = (ids.length > 0) ? times[0] : Long.MAX_VALUE;
+		reportsEndTime = (ids.length > 0) ? times[ids.length - 1] : Long.MIN_VALUE;
 
 		int processors = Runtime.getRuntime().availableProcessors();
 		ExecutorService pool = Executors.newFixedThreadPool(processors);
@@ -475,10 +690,10 @@ public class STFiltering {
 
 		int lowerBound = 0;
 		int upperBound = 0;
-		int step = keys.length / processors;
+		int step = ids.length / processors;
 		for (int i = 0; i < processors; i++) {
 			lowerBound = upperBound;
-			upperBound = (i == processors - 1) ? keys.length
+			upperBound = (i == processors - 1) ? ids.length
 					: (upperBound + step);
 			final int finalLowerBound = lowerBound;
 			final int finalUpperBound = upperBound;
@@ -487,19 +702,10 @@ public class STFiltering {
 				public Integer call() throws Exception {
 					int count = 0;
 					for (int j = finalLowerBound; j < finalUpperBound; j++) {
-						Report r = (Report) reportsCache.get(keys[j]).getObjectValue();
-						int id = r.getID();
-						long creationTime = r.getCreationTime();
-						Node n = new Node(id);
+						Node n = new Node(ids[j]);
 						if (!graph.addNode(n))
 							throw new IllegalStateException(
 									"Failed to insert node (ID was in use)");
-						synchronized (timeStampsLock) {
-							if (creationTime < reportsStartTime)
-								reportsStartTime = creationTime;
-							if (creationTime > reportsEndTime)
-								reportsEndTime = creationTime;
-						}
 						count++;
 					}
 					return count;
@@ -513,11 +719,11 @@ public class STFiltering {
 		}
 		pool.shutdown();
 		int keysSize = reportsCache.getKeys().size();
-		if (totalFromThreads != keys.length
+		if (totalFromThreads != ids.length
 				|| totalFromThreads != graph.getNodeCount()
-				|| totalFromThreads != keysSize) {
+				|| (reportIDs == null && totalFromThreads != keysSize)) {
 			throw new IllegalStateException("totalFromThreads: "
-					+ totalFromThreads + ", keys: " + keys.length
+					+ totalFromThreads + ", keys: " + ids.length
 					+ ", nodes: " + graph.getNodeCount() + ", reports: "
 					+ keysSize);
 		}
@@ -525,6 +731,10 @@ public class STFiltering {
 		long end = System.currentTimeMillis();
 		System.out.println("Finished loading graph nodes after "
 				+ (end - start) + "ms");
+		if (useTimeSweep) {
+			// The sliding time window works on the sorted rows of the report store and needs no buckets
+			return;
+		}
 		// Compute number of buckets
 		if (reportsEndTime < reportsStartTime
 				&& (reportsEndTime != Long.MIN_VALUE && reportsStartTime != Long.MAX_VALUE))
@@ -540,61 +750,23 @@ public class STFiltering {
 		transferDataToDB(monthsSpan);
 	}
 
-	private void transferDataToDB(int span)
-			throws InterruptedException, ExecutionException {
+	private void transferDataToDB(int span) {
 		System.out.println("Transfering nodes to buckets...");
 
-		int processors = Runtime.getRuntime().availableProcessors();
-		ExecutorService pool = Executors.newFixedThreadPool(processors);
-		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
-
-		final Object[] bucketLocks = new Object[span];
-		for (int i = 0; i < bucketLocks.length; i++) {
-			bucketLocks[i] = new Object();
-		}
-
-		// First: construct for each bucket a list of reportIDs from the reports
-		// that correspond to said bucket.
-		int lowerBound = 0;
-		int upperBound = 0;
-		final Object[] reportIDs = graph.getNodeIDs().toArray();
-		int step = graph.getNodeCount() / processors;
-		for (int i = 0; i < processors; i++) {
-			lowerBound = upperBound;
-			upperBound = (i == processors - 1) ? graph.getNodeCount()
-					: (upperBound + step);
-			final int finalLowerBound = lowerBound;
-			final int finalUpperBound = upperBound;
-			Future<Integer> f = pool.submit(new Callable<Integer>() {
-
-				public Integer call() throws Exception {
-					int count = 0;
-					for (int j = finalLowerBound; j < finalUpperBound; j++) {
-						Report rep = (Report) reportsCache.get(reportIDs[j]).getObjectValue();
-						int bucketIndex = getBucketIndex(rep);
-						synchronized (bucketLocks[bucketIndex]) {
-							List<Integer> bucketReportIDs = buckets.get(bucketIndex);
-							if (bucketReportIDs == null) {
-								bucketReportIDs = new ArrayList<Integer>();
-							}
-							bucketReportIDs.add(rep.getID());
-							buckets.put(bucketIndex, bucketReportIDs);
-						}
-						count++;
-					}
-					return count;
-				}
-
-				private int getBucketIndex(Report rep) {
-					return (int) (Math.abs(rep.getCreationTime() - reportsStartTime) / TimeUnit.DAYS.toMillis(maxDayDist));
-				}
-			});
-			futures.add(f);
-		}
-
-		int totalFromThreads = 0;
-		for (Future<Integer> f : futures) {
-			totalFromThreads += f.get();
+		// Construct for each bucket a list of the rows (in the report store) of the reports that correspond to said 
+		// bucket. Since the rows are sorted by creation time, every bucket is a contiguous range of rows.
+		long[] times = reportStore.getCreationTimes();
+		long maxDayDistInMs = TimeUnit.DAYS.toMillis(maxDayDist);
+		List<Integer> bucketRows = null;
+		int currentBucketIndex = -1;
+		for (int row = 0; row < times.length; row++) {
+			int bucketIndex = (int) (Math.abs(times[row] - reportsStartTime) / maxDayDistInMs);
+			if (bucketIndex != currentBucketIndex) {
+				bucketRows = new ArrayList<Integer>();
+				buckets.put(bucketIndex, bucketRows);
+				currentBucketIndex = bucketIndex;
+			}
+			bucketRows.add(row);
 		}
 		
 		int totalInBuckets = 0;
@@ -602,19 +774,17 @@ public class STFiltering {
 			totalInBuckets += entry.getValue().size();
 		}
 		
-		int totalKeys = reportsCache.getKeys().size();
-		if (totalFromThreads != totalKeys
-				|| totalFromThreads != graph.getNodeCount()
-				|| totalInBuckets != totalKeys) {
+		if (totalInBuckets != graph.getNodeCount()
+				|| totalInBuckets != reportStore.getSize()) {
 			cleanupBuckets();
-			throw new IllegalStateException("total: " + totalFromThreads
-					+ ", nodes: " + graph.getNodeCount() + ", reports: " + totalKeys
+			throw new IllegalStateException("nodes: " + graph.getNodeCount() + ", reports: " + reportStore.getSize()
 					+ ", in buckets: " + totalInBuckets);
 		}
 	}
 
 	private void cleanupBuckets() {
-		buckets.clear();
+		if (buckets != null)
+			buckets.clear();
 	}
 
 	private Cache getNewCache(String cacheName, long maxBytesLocalHeap,
@@ -691,6 +861,107 @@ public class STFiltering {
 		return graph;
 	}
 
+	/**
+	 * Returns an immutable copy of the current graph in CSR format. The copy is stored in a cache named
+	 * '[reportsCache.name]_csrGraphCache' next to the caches of the graph, so that the graph's caches are read only on the
+	 * first call for a graph, and the copy is loaded from the cache on later occasions (e.g. when clustering a graph
+	 * filtered by an earlier run). Generating a new graph removes the stored copy.
+	 * @return the current graph in CSR format.
+	 */
+	public synchronized CSRGraph getCSRGraph() {
+		if (csrGraph != null)
+			return csrGraph;
+		String csrCacheName = reportsCache.getName() + "_csrGraphCache";
+		Cache csrCache = databaseManager.getCache(csrCacheName);
+		if (csrCache != null) {
+			CSRGraph stored = CSRGraph.load(csrCache);
+			if (stored != null && matchesGraph(stored.getNodeCount(), stored.getEdgeCount(), stored.getNodeIDs())) {
+				csrGraph = stored;
+				return csrGraph;
+			}
+			System.out.println("Stored CSR graph does not match the current graph, rebuilding it");
+			databaseManager.removeCache(csrCacheName);
+		}
+		csrGraph = CSRGraph.fromGraph(graph);
+		csrCache = getNewCache(csrCacheName, storeHeap, storeRAM, true, null);
+		csrGraph.save(csrCache);
+		return csrGraph;
+	}
+
+	/**
+	 * Returns the {@link SCANIndex} of the current graph. The index is stored in a cache named
+	 * '[reportsCache.name]_scanIndexCache' next to the caches of the graph, so that it is built only on the first call for a
+	 * graph and loaded from the cache on later occasions. Generating a new graph removes the stored index.
+	 * @return the SCAN index of the current graph.
+	 */
+	public synchronized SCANIndex getSCANIndex() {
+		String indexCacheName = reportsCache.getName() + "_scanIndexCache";
+		Cache indexCache = databaseManager.getCache(indexCacheName);
+		if (indexCache != null) {
+			SCANIndex index = SCANIndex.load(indexCache);
+			if (index != null && matchesGraph(index.getNodeCount(), index.getEdgeCount(), index.getNodeIDs()))
+				return index;
+			System.out.println("Stored SCAN index does not match the current graph, rebuilding it");
+			databaseManager.removeCache(indexCacheName);
+		}
+		SCANIndex index = new SCANIndex(getCSRGraph());
+		indexCache = getNewCache(indexCacheName, storeHeap, storeRAM, true, null);
+		index.save(indexCache);
+		return index;
+	}
+
+	// Compares the nodes and the number of edges of a stored structure without reading the graph's caches
+	private boolean matchesGraph(int nodeCount, int edgeCount, int[] nodeIDs) {
+		if (nodeCount != graph.getNodeCount() || edgeCount != graph.getEdgeCount())
+			return false;
+		int i = 0;
+		for (int id : graph.getNodeIDs()) {
+			if (nodeIDs[i++] != id)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the columnar store of the reports the graph was built from. The store is stored in a cache named
+	 * '[reportsCache.name]_reportStoreCache' when the graph is generated, so that a graph loaded from an existing graph
+	 * structure gets its store from that cache instead of reading the reports. If the cache is missing (e.g. for graphs
+	 * generated by an earlier version), the store is built from the reports once and stored.
+	 * @return the report store.
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 */
+	public synchronized ReportStore getReportStore() throws InterruptedException, ExecutionException {
+		if (reportStore != null)
+			return reportStore;
+		String storeCacheName = reportsCache.getName() + "_reportStoreCache";
+		Cache storeCache = databaseManager.getCache(storeCacheName);
+		if (storeCache != null) {
+			ReportStore stored = ReportStore.load(storeCache);
+			if (stored != null && matchesGraph(stored)) {
+				reportStore = stored;
+				return reportStore;
+			}
+			System.out.println("Stored report store does not match the current graph, rebuilding it");
+			databaseManager.removeCache(storeCacheName);
+		}
+		reportStore = new ReportStore(reportsCache, new ArrayList<Integer>(graph.getNodeIDs()));
+		storeCache = getNewCache(storeCacheName, storeHeap, storeRAM, true, null);
+		reportStore.save(storeCache);
+		return reportStore;
+	}
+
+	// Tests whether a stored report store contains exactly the nodes of the graph
+	private boolean matchesGraph(ReportStore store) {
+		if (store.getSize() != graph.getNodeCount())
+			return false;
+		for (int id : graph.getNodeIDs()) {
+			if (store.getRow(id) == -1)
+				return false;
+		}
+		return true;
+	}
+
 	/**
 	 * 
 	 * @return Get the value of the maximum space distance (in meters) two
@@ -0,0 +1,181 @@
+package de.estadata.mining.stclustering;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class provides a uniform latitude/longitude grid over a set of points. It is used to restrict the search for
+ * ST-connected reports to those reports lying in the same or in one of the 8 adjacent cells of a given point.
+ * The size of the cells is derived from the maximal spatial distance, such that two points whose (Haversine) distance
+ * is smaller than said distance always lie in the same or in adjacent cells. Therefore, looking up the neighboring
+ * cells never misses a pair that a comparison of all pairs would find.
+ * <p>
+ * Points are referenced by their row, i.e. their position in the latitude and longitude arrays given at construction.
+ * If no useful grid can be built (e.g. because the points lie too close to one of the poles), all points are stored in
+ * a single cell, which is equivalent to comparing all pairs.
+ */
+public class SpatialGrid {
+	// Same value as the one used by MiningTools.getSpaceDistance()
+	private static final double R = 6371.0 * 1000;
+	// Cells are enlarged slightly so that rounding errors cannot hide a pair lying exactly on a cell border
+	private static final double safetyFactor = 1.01;
+
+	private boolean singleCell;
+	private double cellLatDegrees;
+	private double cellLonDegrees;
+	private int nLonCells;
+	private Map<Long, Integer> cellNumbers;		//key: cell key;	value: number of the cell
+	private int[] cellStart;
+	private int[] cellRows;
+
+	/**
+	 * Constructs a grid over a subset of points.
+	 * @param lat the latitudes (in degrees) of all points.
+	 * @param lon the longitudes (in degrees) of all points.
+	 * @param rows the rows of the points to be stored in the grid.
+	 * @param maxSpaceDist the maximal spatial distance (in meters) of two points that must be found through the grid.
+	 */
+	public SpatialGrid(double[] lat, double[] lon, int[] rows, double maxSpaceDist) {
+		double maxAbsLat = 0;
+		for(int row : rows) {
+			if(Math.abs(lat[row]) > maxAbsLat)
+				maxAbsLat = Math.abs(lat[row]);
+		}
+		computeCellSize(maxAbsLat, maxSpaceDist);
+
+		if(singleCell) {
+			cellNumbers = null;
+			cellStart = new int[] {0, rows.length};
+			cellRows = rows.clone();
+			return;
+		}
+
+		long[] keys = new long[rows.length];
+		int[] cellOfRow = new int[rows.length];
+		cellNumbers = new HashMap<Long, Integer>();
+		int[] counts = new int[rows.length + 1];
+		for(int i = 0; i < rows.length; i++) {
+			keys[i] = getCellKey(getLatCell(lat[rows[i]]), getLonCell(lon[rows[i]]));
+			Integer cell = cellNumbers.get(keys[i]);
+			if(cell == null) {
+				cell = cellNumbers.size();
+				cellNumbers.put(keys[i], cell);
+			}
+			cellOfRow[i] = cell;
+			counts[cell + 1]++;
+		}
+
+		int nCells = cellNumbers.size();
+		cellStart = new int[nCells + 1];
+		for(int i = 0; i < nCells; i++)
+			cellStart[i + 1] = cellStart[i] + counts[i + 1];
+
+		int[] next = new int[nCells];
+		System.arraycopy(cellStart, 0, next, 0, nCells);
+		cellRows = new int[rows.length];
+		for(int i = 0; i < rows.length; i++)
+			cellRows[next[cellOfRow[i]]++] = rows[i];
+	}
+
+	/**
+	 * Finds the cells that may contain points closer to the given position than the maximal spatial distance, i.e.
+	 * the cell of the position itself and its (up to) 8 adjacent cells. Only cells containing at least one point are returned.
+	 * @param lat the latitude of the position in degrees.
+	 * @param lon the longitude of the position in degrees.
+	 * @param cells an array of length 9 or more where the numbers of the found cells are to be stored.
+	 * @return the number of cells written into the given array.
+	 */
+	public int getNeighborCells(double lat, double lon, int[] cells) {
+		if(singleCell) {
+			cells[0] = 0;
+			return 1;
+		}
+		int latCell = getLatCell(lat);
+		int lonCell = getLonCell(lon);
+		int count = 0;
+		for(int dLat = -1; dLat <= 1; dLat++) {
+			for(int dLon = -1; dLon <= 1; dLon++) {
+				int neighborLonCell = (lonCell + dLon + nLonCells) % nLonCells;
+				Integer cell = cellNumbers.get(getCellKey(latCell + dLat, neighborLonCell));
+				if(cell != null)
+					cells[count++] = cell;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the first position of a cell's points. See {@link #getRow(int)}.
+	 * @param cell the number of the cell.
+	 * @return the first position (inclusive) of the cell.
+	 */
+	public int getCellStart(int cell) {
+		return cellStart[cell];
+	}
+
+	/**
+	 * Returns the last position of a cell's points. See {@link #getRow(int)}.
+	 * @param cell the number of the cell.
+	 * @return the last position (exclusive) of the cell.
+	 */
+	public int getCellEnd(int cell) {
+		return cellStart[cell + 1];
+	}
+
+	/**
+	 * Returns the row of the point stored at a certain position of the grid. The points of a cell are stored at the
+	 * positions [getCellStart(cell), getCellEnd(cell)).
+	 * @param position the position within the grid.
+	 * @return the row of the point.
+	 */
+	public int getRow(int position) {
+		return cellRows[position];
+	}
+
+	/**
+	 * Returns the number of non-empty cells of the grid.
+	 * @return the number of non-empty cells.
+	 */
+	public int getCellCount() {
+		return cellStart.length - 1;
+	}
+
+	private void computeCellSize(double maxAbsLat, double maxSpaceDist) {
+		singleCell = true;
+		if(maxSpaceDist <= 0)
+			return;
+
+		// Two points closer than maxSpaceDist differ in latitude by at most maxSpaceDist / R (radians).
+		double deltaLat = maxSpaceDist / R;
+		cellLatDegrees = Math.toDegrees(deltaLat) * safetyFactor;
+
+		// For the longitude, we bound hav(d/R) >= cos(lat1) * cos(lat2) * hav(dLon), using the highest absolute latitude
+		// a point closer than maxSpaceDist to any point in the grid can have.
+		double highestLat = Math.min(90, maxAbsLat + Math.toDegrees(deltaLat));
+		double minCos = Math.cos(Math.toRadians(highestLat));
+		if(minCos <= 0)
+			return;
+		double sinHalfDeltaLon = Math.sin(deltaLat / 2) / minCos;
+		if(sinHalfDeltaLon >= 1)
+			return;
+		double minCellLonDegrees = Math.toDegrees(2 * Math.asin(sinHalfDeltaLon)) * safetyFactor;
+		nLonCells = (int) Math.floor(360 / minCellLonDegrees);
+		if(nLonCells < 3)
+			return;
+		cellLonDegrees = 360.0 / nLonCells;
+		singleCell = false;
+	}
+
+	private int getLatCell(double lat) {
+		return (int) Math.floor((lat + 90) / cellLatDegrees);
+	}
+
+	private int getLonCell(double lon) {
+		int cell = (int) Math.floor((lon + 180) / cellLonDegrees) % nLonCells;
+		return (cell < 0) ? cell + nLonCells : cell;
+	}
+
+	private long getCellKey(int latCell, int lonCell) {
+		return (long) latCell * nLonCells + lonCell;
+	}
+}
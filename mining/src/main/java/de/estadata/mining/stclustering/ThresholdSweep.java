@@ -0,0 +1,245 @@
+package de.estadata.mining.stclustering;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import de.estadata.mining.graphmodel.CSRGraph;
+import de.estadata.mining.util.UnionFind;
+
+/**
+ * This class computes the connected components of an ST-graph for many pairs of thresholds (meters, days) at once, where
+ * an edge connects two nodes for a pair if its spatial distance is at most 'meters' and its temporal distance is at most
+ * 'days' (as in {@link STFiltering#filter(double, int, boolean)}).
+ * <p>
+ * The edges are sorted once by (spatial distance, temporal distance). The pairs are then split into chains in which both
+ * thresholds never decrease, and each chain is processed in a single pass with an incremental union-find: edges are
+ * merged as soon as they satisfy the current pair, so that each edge is visited once per chain instead of once per pair.
+ * <p>
+ * The cluster IDs emitted for a pair follow the same rules as {@link de.estadata.mining.util.MiningTools#assignClusterIDsOnGraph}:
+ * isolated nodes get the ID -1, and the remaining components get the IDs 1, 2, ... ordered by their smallest node ID.
+ *
+ * @author Nicolas Loza
+ *
+ */
+public class ThresholdSweep {
+
+	/**
+	 * Receives the clustering computed for a pair of thresholds.
+	 */
+	public interface ResultHandler {
+		/**
+		 * Handles the clustering of a pair of thresholds.
+		 * @param meters the spatial threshold.
+		 * @param days the temporal threshold.
+		 * @param clusterIDs the cluster ID of every node, indexed by ordinal (see {@link CSRGraph}). The array is reused
+		 * for the next pair, hence it must be copied if it is to be kept.
+		 * @throws IOException
+		 */
+		void handle(int meters, int days, int[] clusterIDs) throws IOException;
+	}
+
+	private CSRGraph graph;
+	private int edgeCount;
+	private int[] source;		//key: position in sorted order;	value: ordinal of the first end
+	private int[] target;
+	private int[] spaceDist;
+	private int[] timeDist;
+
+	/**
+	 * Constructs a sweep over the edges of a graph.
+	 * @param graph the ST-graph.
+	 * @param mustShareCategory if set to true, only edges connecting nodes of the same category are taken into account.
+	 */
+	public ThresholdSweep(CSRGraph graph, boolean mustShareCategory) {
+		this.graph = graph;
+
+		// key: spatial distance (16 bits) | temporal distance (16 bits) | slot (32 bits)
+		long[] keys = new long[graph.getEdgeCount()];
+		for (int v = 0; v < graph.getNodeCount(); v++) {
+			for (int slot = graph.getFirstSlot(v); slot < graph.getEndSlot(v); slot++) {
+				if (graph.getTarget(slot) < v || (mustShareCategory && !graph.isSameCategory(slot)))
+					continue;
+				keys[edgeCount++] = ((long) graph.getSpaceDist(slot) << 48) | ((long) graph.getTimeDist(slot) << 32) | slot;
+			}
+		}
+		Arrays.sort(keys, 0, edgeCount);
+
+		source = new int[edgeCount];
+		target = new int[edgeCount];
+		spaceDist = new int[edgeCount];
+		timeDist = new int[edgeCount];
+		int[] offsets = graph.getOffsets();
+		for (int i = 0; i < edgeCount; i++) {
+			int slot = (int) keys[i];
+			int v = Arrays.binarySearch(offsets, slot);
+			// Rows of isolated nodes share their offset with the next row, so take the last row starting at or before slot
+			if (v < 0)
+				v = -v - 2;
+			while (offsets[v + 1] <= slot)
+				v++;
+			source[i] = v;
+			target[i] = graph.getTarget(slot);
+			spaceDist[i] = graph.getSpaceDist(slot);
+			timeDist[i] = graph.getTimeDist(slot);
+		}
+	}
+
+	/**
+	 * Returns the number of edges taken into account by the sweep.
+	 * @return the number of edges.
+	 */
+	public int getEdgeCount() {
+		return edgeCount;
+	}
+
+	/**
+	 * Computes the clustering for every pair (meters[i], days[i]) and passes it to a handler. Pairs are not handled in the
+	 * given order, but in the order in which they are processed.
+	 * @param meters the spatial thresholds in meters, each less than {@link CSRGraph#MAX_DISTANCE}.
+	 * @param days the temporal thresholds in days, each less than {@link CSRGraph#MAX_DISTANCE}.
+	 * @param handler the handler receiving the clustering of each pair.
+	 * @throws IOException if the handler fails.
+	 */
+	public void run(int[] meters, int[] days, ResultHandler handler) throws IOException {
+		if (meters.length != days.length)
+			throw new IllegalArgumentException(meters.length + " spatial, but " + days.length + " temporal thresholds");
+		for (int i = 0; i < meters.length; i++) {
+			if (meters[i] < 0 || days[i] < 0)
+				throw new IllegalArgumentException("Invalid thresholds: " + meters[i] + " meters, " + days[i] + " days");
+			// The distances of the CSR graph are saturated at CSRGraph.MAX_DISTANCE, so larger thresholds cannot be told apart
+			if (meters[i] >= CSRGraph.MAX_DISTANCE || days[i] >= CSRGraph.MAX_DISTANCE)
+				throw new IllegalArgumentException("Invalid thresholds: " + meters[i] + " meters, " + days[i] + " days. Both must be less than "
+						+ CSRGraph.MAX_DISTANCE);
+		}
+
+		int nodeCount = graph.getNodeCount();
+		UnionFind unionFind = new UnionFind(nodeCount);
+		int[] clusterIDs = new int[nodeCount];
+		int[] rootLabel = new int[nodeCount];
+		EdgeHeap pending = new EdgeHeap();
+
+		for (List<Integer> chain : getChains(meters, days)) {
+			long start = System.currentTimeMillis();
+			unionFind.reset();
+			pending.clear();
+			int next = 0;
+			for (int pair : chain) {
+				// Edges that are close enough in space either connect now or wait until the temporal threshold is reached
+				while (next < edgeCount && spaceDist[next] <= meters[pair]) {
+					if (timeDist[next] <= days[pair])
+						unionFind.union(source[next], target[next]);
+					else
+						pending.add(timeDist[next], next);
+					next++;
+				}
+				while (!pending.isEmpty() && pending.peekKey() <= days[pair]) {
+					int edge = pending.poll();
+					unionFind.union(source[edge], target[edge]);
+				}
+
+				Arrays.fill(rootLabel, 0);
+				int clusterID = 1;
+				for (int v = 0; v < nodeCount; v++) {
+					int root = unionFind.find(v);
+					if (unionFind.getSetSize(root) == 1) {
+						clusterIDs[v] = -1;
+					} else {
+						if (rootLabel[root] == 0)
+							rootLabel[root] = clusterID++;
+						clusterIDs[v] = rootLabel[root];
+					}
+				}
+				handler.handle(meters[pair], days[pair], clusterIDs);
+			}
+			long end = System.currentTimeMillis();
+			System.out.println("Sweep over " + chain.size() + " threshold pairs took: " + (end - start) + " ms");
+		}
+	}
+
+	/*
+	 * Splits the pairs into as few chains as possible in which both thresholds are non-decreasing: pairs are sorted by
+	 * meters (then days), and each pair is appended to the chain whose last pair has the largest number of days not
+	 * exceeding its own.
+	 */
+	private static List<List<Integer>> getChains(final int[] meters, final int[] days) {
+		Integer[] order = new Integer[meters.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				if (meters[a] != meters[b])
+					return (meters[a] < meters[b]) ? -1 : 1;
+				return (days[a] < days[b]) ? -1 : ((days[a] == days[b]) ? 0 : 1);
+			}
+		});
+
+		List<List<Integer>> chains = new ArrayList<List<Integer>>();
+		for (int pair : order) {
+			List<Integer> best = null;
+			for (List<Integer> chain : chains) {
+				int lastDays = days[chain.get(chain.size() - 1)];
+				if (lastDays <= days[pair] && (best == null || lastDays > days[best.get(best.size() - 1)]))
+					best = chain;
+			}
+			if (best == null) {
+				best = new ArrayList<Integer>();
+				chains.add(best);
+			}
+			best.add(pair);
+		}
+		return chains;
+	}
+
+	/*
+	 * Binary min-heap of edges keyed by their temporal distance.
+	 */
+	private static class EdgeHeap {
+		private long[] heap = new long[16];		//key (32 bits) | edge (32 bits)
+		private int size;
+
+		void clear() {
+			size = 0;
+		}
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		int peekKey() {
+			return (int) (heap[0] >>> 32);
+		}
+
+		void add(int key, int edge) {
+			if (size == heap.length)
+				heap = Arrays.copyOf(heap, 2 * size);
+			long entry = ((long) key << 32) | edge;
+			int i = size++;
+			while (i > 0 && heap[(i - 1) / 2] > entry) {
+				heap[i] = heap[(i - 1) / 2];
+				i = (i - 1) / 2;
+			}
+			heap[i] = entry;
+		}
+
+		int poll() {
+			int edge = (int) heap[0];
+			long last = heap[--size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int child = 2 * i + 1;
+				if (child + 1 < size && heap[child + 1] < heap[child])
+					child++;
+				if (heap[child] >= last)
+					break;
+				heap[i] = heap[child];
+				i = child;
+			}
+			heap[i] = last;
+			return edge;
+		}
+	}
+}
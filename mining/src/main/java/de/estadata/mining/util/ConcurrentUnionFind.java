@@ -0,0 +1,78 @@
+package de.estadata.mining.util;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * This class implements a disjoint-set forest over the elements 0, ..., n-1 that can be shared by several threads
+ * without locking. Roots are linked through compare-and-set, always attaching the root with the higher index to the one
+ * with the lower index, and paths are compressed by path splitting. Consequently, once all unions are done, the
+ * representative of every set is its smallest element.
+ * <p>
+ * Union by rank (see {@link UnionFind}) is not used, since the rank of a root cannot be updated atomically together with
+ * its parent. Linking by index also keeps the forest acyclic when several threads link the same roots at once.
+ *
+ * @author Nicolas Loza
+ *
+ */
+public class ConcurrentUnionFind {
+	private AtomicIntegerArray parent;
+
+	/**
+	 * Constructs n singleton sets.
+	 * @param n the number of elements.
+	 */
+	public ConcurrentUnionFind(int n) {
+		parent = new AtomicIntegerArray(n);
+		for(int i = 0; i < n; i++)
+			parent.set(i, i);
+	}
+
+	/**
+	 * Returns the current representative of the set containing an element. While other threads are merging sets, the
+	 * representative may change right after being returned.
+	 * @param x the element.
+	 * @return the representative of its set.
+	 */
+	public int find(int x) {
+		int p = parent.get(x);
+		while(p != x) {
+			int grandparent = parent.get(p);
+			if(grandparent != p)
+				parent.compareAndSet(x, p, grandparent);
+			x = p;
+			p = grandparent;
+		}
+		return x;
+	}
+
+	/**
+	 * Merges the sets containing two elements.
+	 * @param x the first element.
+	 * @param y the second element.
+	 * @return true, if this call merged two different sets, false if both elements were already in the same set.
+	 */
+	public boolean union(int x, int y) {
+		while(true) {
+			int rootX = find(x);
+			int rootY = find(y);
+			if(rootX == rootY)
+				return false;
+			if(rootX < rootY) {
+				int tmp = rootX;
+				rootX = rootY;
+				rootY = tmp;
+			}
+			// Fails if rootX stopped being a root in the meantime, in which case the roots are looked up again
+			if(parent.compareAndSet(rootX, rootX, rootY))
+				return true;
+		}
+	}
+
+	/**
+	 * Returns the number of elements.
+	 * @return the number of elements.
+	 */
+	public int getSize() {
+		return parent.length();
+	}
+}
@@ -3,7 +3,10 @@ package de.estadata.mining.util;
 import java.io.FileNotFoundException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import net.sf.ehcache.Cache;
 
@@ -39,26 +42,104 @@ public class Evaluation {
 			}
 		}
 		
-		float precision = tp/(tp + fp);
-		float recall = tp/(tp + fn);
-		float fmeasure = (2 * precision * recall) / (precision + recall);
-		
 		List<Cluster> clusters = MiningTools.getCacheObjectsAsList(clustersCache, Cluster.class, null);
 		
 		double purity = purity(clusters);
 		double compression = compression(reports);
 		double entropy = entropyDuplicate(reports);
 		
+		return toString(time, algorithmConfiguration, total, totalInCluster, clusters.size(), tp, fp, tn, fn, purity, compression, entropy);
+	}
+	
+	/**
+	 * Computes the same analysis as {@link #runAnalysis(Cache, Cache, long, String)} from primitive arrays instead of the
+	 * Terracotta caches, e.g. for clusterings that are not stored in the database. As when clusters are transferred to the
+	 * clusters cache, clusters with a single report count as outliers.
+	 * @param clusterIDs the cluster ID of every report.
+	 * @param duplicates the reports that are duplicates, indexed as clusterIDs.
+	 * @param time the running time of the algorithm in ms.
+	 * @param algorithmConfiguration a description of the algorithm and its parameters.
+	 * @return the analysis.
+	 */
+	public static String runAnalysis(int[] clusterIDs, BitSet duplicates, long time, String algorithmConfiguration) {
+		//key: cluster ID;	value: {#reports, #duplicates}
+		Map<Integer, int[]> clusters = new HashMap<Integer, int[]>();
+		for (int i = 0; i < clusterIDs.length; i++) {
+			if (clusterIDs[i] <= 0)
+				continue;
+			int[] counts = clusters.get(clusterIDs[i]);
+			if (counts == null) {
+				counts = new int[2];
+				clusters.put(clusterIDs[i], counts);
+			}
+			counts[0]++;
+			if (duplicates.get(i))
+				counts[1]++;
+		}
+		
+		int total = clusterIDs.length;
+		int totalInCluster = 0;
+		float fp = 0;
+		float tp = 0;
+		float tn = 0;
+		float fn = 0;
+		int clustersAmount = 0;
+		int outliersAmount = 0;
+		for (int i = 0; i < total; i++) {
+			int clusterID = clusterIDs[i];
+			if (clusterID > 0 && clusters.get(clusterID)[0] == 1)
+				clusterID = -1;
+			boolean isDuplicate = duplicates.get(i);
+			if (clusterID > 0) {
+				totalInCluster++;
+				if (isDuplicate)
+					tp++;
+				else
+					fp++;
+			} else if (isDuplicate) {
+				fn++;
+			} else {
+				tn++;
+			}
+			if (clusterID > clustersAmount)
+				clustersAmount = clusterID;
+			if (clusterID == -1)
+				outliersAmount++;
+		}
+		
+		int purityInt = 0;
+		int size = 0;
+		int clusterCount = 0;
+		for (int[] counts : clusters.values()) {
+			if (counts[0] == 1)
+				continue;
+			purityInt += Math.max(counts[1], counts[0] - counts[1]);
+			size += counts[0];
+			clusterCount++;
+		}
+		double purity = (double)purityInt/(double)size;
+		double compression = (double)(outliersAmount + clustersAmount)/(double)total;
+		double entropy = entropyDuplicate(duplicates.cardinality(), total);
+		
+		return toString(time, algorithmConfiguration, total, totalInCluster, clusterCount, tp, fp, tn, fn, purity, compression, entropy);
+	}
+	
+	private static String toString(long time, String algorithmConfiguration, int total, int totalInCluster, int clusterCount, 
+			float tp, float fp, float tn, float fn, double purity, double compression, double entropy) {
+		float precision = tp/(tp + fp);
+		float recall = tp/(tp + fn);
+		float fmeasure = (2 * precision * recall) / (precision + recall);
+		
 		String analysis = "\nThe algorithm took " + time + " ms to complete\n";
 		analysis += "Configuration: " + algorithmConfiguration + "\n";
-		analysis += "#Points: " + total + ", #points in clusters: " + totalInCluster + ", #clusters: " + clusters.size() + "\n";
-		analysis += "tp: " + tp + ", fp: " + fn + ", tn: " + tn + ", fn: " + fn + "\n";
+		analysis += "#Points: " + total + ", #points in clusters: " + totalInCluster + ", #clusters: " + clusterCount + "\n";
+		analysis += "tp: " + tp + ", fp: " + fp + ", tn: " + tn + ", fn: " + fn + "\n";
 		analysis += "Precision: " + precision + ", recall: " + recall + ", F-Measure: " + fmeasure + "\n";
 		analysis += "Purity: " + purity + "\n";
 		analysis += "Compression: " + compression + "\n";
 		analysis += "Entropy: " + entropy + "\n";
 		
-		return analysis;		
+		return analysis;
 	}
 	
 	private static double purity(List<Cluster> clusters) {
@@ -106,8 +187,11 @@ public class Evaluation {
 				duplicateCount++;
 				
 		}
-		double nonduplicateCount = points.size() - duplicateCount;
-		double total = points.size();
+		return entropyDuplicate(duplicateCount, points.size());
+	}
+	
+	private static double entropyDuplicate(double duplicateCount, double total) {
+		double nonduplicateCount = total - duplicateCount;
 		
 		double p1 = (nonduplicateCount/total);
 		double l1 = Math.log(nonduplicateCount/total);
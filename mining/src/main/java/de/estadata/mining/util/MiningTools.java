@@ -3,6 +3,7 @@ package de.estadata.mining.util;
 import java.io.FileNotFoundException;
 import java.io.PrintWriter;
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Array;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -11,11 +12,17 @@ import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.mail.Message;
 import javax.mail.MessagingException;
@@ -50,6 +57,12 @@ public class MiningTools {
 	 */
 	public static final double R = 6371.0 * 1000;
 	
+	// Number of cache keys or nodes processed by a single task
+	private static final int chunkSize = 10000;
+	
+	// Number of array entries stored in a single cache element
+	private static final int cacheChunkSize = 1 << 20;
+	
 	/**
 	 * Assigns cluster IDs to every node in the given graph (a connected component is a cluster).
 	 * @param graph The graph containing the nodes.
@@ -65,29 +78,237 @@ public class MiningTools {
 	 * @param graph The graph containing the nodes.
 	 * @param clusterIDLabel the label under which each node will contain its cluster ID.
 	 * @param view the view containing the nodes to be taken into account in the clustering.
+	 * @return the cluster IDs of all nodes, ordered by ascending node ID.
 	 */
-	public static void assignClusterIDsOnGraph(Graph graph, GraphView view) {
+	public static int[] assignClusterIDsOnGraph(Graph graph, GraphView view) {
+		return assignClusterIDsOnGraph(graph, CSRGraph.fromGraph(graph, view), null);
+	}
+	
+	/**
+	 * Same as {@link #assignClusterIDsOnGraph(Graph, GraphView)}, but the connected components are computed on a copy of the
+	 * graph in CSR format (see {@link #getComponentLabels(CSRGraph, GraphView)}), so that no edge is read from the graph's
+	 * cache. Only the nodes are read from it, to store their cluster IDs.
+	 * @param graph The graph containing the nodes.
+	 * @param csrGraph the same graph in CSR format, e.g. the one stored by
+	 * {@link de.estadata.mining.stclustering.STFiltering#getCSRGraph()}.
+	 * @param view the view containing the edges to be taken into account in the clustering. If null, all edges are taken.
+	 * @return the cluster IDs of all nodes, ordered by ascending node ID.
+	 */
+	public static int[] assignClusterIDsOnGraph(final Graph graph, CSRGraph csrGraph, GraphView view) {
+		if(csrGraph.getNodeCount() != graph.getNodeCount())
+			throw new IllegalArgumentException("The CSR graph has " + csrGraph.getNodeCount() + " nodes, but the graph has " + graph.getNodeCount());
 		//Assign pairwise distinct cluster IDs to each connected component
-		List<List<Integer>> connectedComponents = getConnectedComponents(graph, view);
-		int clusterID = 1;
-		int nodeCounter = 0;
-		for(List<Integer> cc : connectedComponents) {
-			if(cc.size() == 1) {
-				Node v = graph.getNode(cc.get(0));
-				v.setClusterID(-1);
-				nodeCounter++;
-			} else {
-				for(Integer id : cc) {
-					Node v = graph.getNode(id);
-					v.setClusterID(clusterID);
-					nodeCounter++;
+		final int[] nodeIDs = csrGraph.getNodeIDs();
+		final int[] clusterIDs = getComponentLabels(csrGraph, view);
+		
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for(int lowerBound = 0; lowerBound < nodeIDs.length; lowerBound += chunkSize) {
+			final int finalLowerBound = lowerBound;
+			final int finalUpperBound = Math.min(lowerBound + chunkSize, nodeIDs.length);
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					List<Integer> ids = new ArrayList<Integer>(finalUpperBound - finalLowerBound);
+					for(int j = finalLowerBound; j < finalUpperBound; j++)
+						ids.add(nodeIDs[j]);
+					int count = 0;
+					for(Node v : graph.getNodes(ids)) {
+						v.setClusterID(clusterIDs[Arrays.binarySearch(nodeIDs, v.getID())]);
+						count++;
+					}
+					return count;
 				}
-				clusterID++;
-			}
+			});
 		}
+		int nodeCounter = 0;
+		for(int count : invokeAll(tasks))
+			nodeCounter += count;
 		if(nodeCounter != graph.getNodeCount()) {
 			throw new IllegalStateException("nodeCounter = " + nodeCounter + ", graphNodes = " + graph.getNodeCount());
 		}
+		return clusterIDs;
+	}
+	
+	/**
+	 * Writes cluster IDs back to the reports stored in a Terracotta cache. The reports are read and written in chunks 
+	 * (using getAll and putAll) by a pool of workers, instead of one get and one put per report.
+	 * @param reportsCache the Terracotta cache containing the reports.
+	 * @param reportIDs the IDs of the reports to be updated.
+	 * @param clusterIDs the new cluster ID of each report, in the same order as reportIDs.
+	 * @return a map containing as keys the cluster IDs and as values the corresponding (updated) reports.
+	 */
+	public static Map<Integer, List<Report>> writeClusterIDs(final Cache reportsCache, final int[] reportIDs, final int[] clusterIDs) {
+		if(reportIDs.length != clusterIDs.length)
+			throw new IllegalArgumentException(reportIDs.length + " reports, but " + clusterIDs.length + " cluster IDs");
+		List<Callable<Map<Integer, List<Report>>>> tasks = new ArrayList<Callable<Map<Integer, List<Report>>>>();
+		for(int lowerBound = 0; lowerBound < reportIDs.length; lowerBound += chunkSize) {
+			final int finalLowerBound = lowerBound;
+			final int finalUpperBound = Math.min(lowerBound + chunkSize, reportIDs.length);
+			tasks.add(new Callable<Map<Integer, List<Report>>>() {
+				@Override
+				public Map<Integer, List<Report>> call() throws Exception {
+					List<Integer> keys = new ArrayList<Integer>(finalUpperBound - finalLowerBound);
+					for(int i = finalLowerBound; i < finalUpperBound; i++)
+						keys.add(reportIDs[i]);
+					Map<Object, Element> elements = reportsCache.getAll(keys);
+					if(elements.size() != keys.size())
+						throw new IllegalStateException("Expected " + keys.size() + " reports, but found " + elements.size());
+					
+					// Reports are visited in the order of reportIDs, so that the lists of the cluster map keep that order
+					Map<Integer, List<Report>> clusterMap = new HashMap<Integer, List<Report>>();
+					List<Element> updated = new ArrayList<Element>(elements.size());
+					for(int i = finalLowerBound; i < finalUpperBound; i++) {
+						Element element = elements.get(reportIDs[i]);
+						if(element == null)
+							throw new IllegalStateException("Report " + reportIDs[i] + " is not in cache " + reportsCache.getName());
+						Report report = (Report) element.getObjectValue();
+						report.setClusterID(clusterIDs[i]);
+						updated.add(new Element(reportIDs[i], report));
+						addReportToClustermap(report, clusterMap);
+					}
+					reportsCache.putAll(updated);
+					return clusterMap;
+				}
+			});
+		}
+		Map<Integer, List<Report>> clusterMap = new HashMap<Integer, List<Report>>();
+		for(Map<Integer, List<Report>> partialMap : invokeAll(tasks)) {
+			for(Entry<Integer, List<Report>> entry : partialMap.entrySet()) {
+				List<Report> list = clusterMap.get(entry.getKey());
+				if(list == null)
+					clusterMap.put(entry.getKey(), entry.getValue());
+				else
+					list.addAll(entry.getValue());
+			}
+		}
+		return clusterMap;
+	}
+	
+	/**
+	 * Computes the cluster ID of every element of a union-find whose unions are complete: elements in singleton sets get 
+	 * the ID -1, and the remaining sets get the IDs 1, 2, ... ordered by their smallest element.
+	 * @param unionFind the union-find.
+	 * @return the cluster ID of every element.
+	 */
+	public static int[] getComponentLabels(ConcurrentUnionFind unionFind) {
+		int n = unionFind.getSize();
+		int[] root = new int[n];
+		int[] size = new int[n];
+		for(int v = 0; v < n; v++) {
+			root[v] = unionFind.find(v);
+			size[root[v]]++;
+		}
+		// The representative of every set is its smallest element, hence it is labeled before the rest of its set
+		int[] clusterIDs = new int[n];
+		int clusterID = 1;
+		for(int v = 0; v < n; v++) {
+			if(size[root[v]] == 1)
+				clusterIDs[v] = -1;
+			else if(root[v] == v)
+				clusterIDs[v] = clusterID++;
+			else
+				clusterIDs[v] = clusterIDs[root[v]];
+		}
+		return clusterIDs;
+	}
+	
+	/**
+	 * Computes the cluster ID of every node of a CSR graph, where every connected component is a cluster. The rows of the 
+	 * graph are merged into a shared union-find in parallel.
+	 * @param graph the graph.
+	 * @return the cluster ID of every node, indexed by ordinal (see {@link #getComponentLabels(ConcurrentUnionFind)}).
+	 */
+	public static int[] getComponentLabels(CSRGraph graph) {
+		return getComponentLabels(graph, null);
+	}
+	
+	/**
+	 * Same as {@link #getComponentLabels(CSRGraph)}, but only the edges whose IDs are contained in a {@link GraphView} are
+	 * taken into account.
+	 * @param graph the graph.
+	 * @param view the view containing the IDs of the edges to be taken into account. If null, all edges are taken.
+	 * @return the cluster ID of every node, indexed by ordinal.
+	 */
+	public static int[] getComponentLabels(final CSRGraph graph, final GraphView view) {
+		final ConcurrentUnionFind unionFind = new ConcurrentUnionFind(graph.getNodeCount());
+		final int[] offsets = graph.getOffsets();
+		final int[] targets = graph.getTargets();
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for(int lowerBound = 0; lowerBound < graph.getNodeCount(); lowerBound += chunkSize) {
+			final int finalLowerBound = lowerBound;
+			final int finalUpperBound = Math.min(lowerBound + chunkSize, graph.getNodeCount());
+			tasks.add(new Callable<Integer>() {
+				@Override
+				public Integer call() throws Exception {
+					for(int v = finalLowerBound; v < finalUpperBound; v++) {
+						for(int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+							if(targets[slot] > v && (view == null || view.containsEdgeID(graph.getEdgeID(slot))))
+								unionFind.union(v, targets[slot]);
+						}
+					}
+					return finalUpperBound - finalLowerBound;
+				}
+			});
+		}
+		invokeAll(tasks);
+		return getComponentLabels(unionFind);
+	}
+	
+	/**
+	 * Runs a list of tasks on a shared pool with one thread per processor and waits for all of them to finish. The pool is
+	 * created on the first call and reused by all later calls; its threads are daemon threads, so they do not keep the JVM
+	 * alive. Tasks submitted from a thread of the pool are run on the calling thread, so that nested calls cannot deadlock.
+	 * @param tasks the tasks.
+	 * @return the results of the tasks, in the same order as the tasks.
+	 * @throws IllegalStateException if a task fails or the calling thread is interrupted.
+	 */
+	public static <T> List<T> invokeAll(List<Callable<T>> tasks) {
+		List<T> results = new ArrayList<T>(tasks.size());
+		try {
+			if(WorkerPool.isWorker.get()) {
+				for(Callable<T> task : tasks)
+					results.add(task.call());
+			} else {
+				for(Future<T> f : WorkerPool.pool.invokeAll(tasks))
+					results.add(f.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the workers", e);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException(e.getCause());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return results;
+	}
+	
+	/*
+	 * The pool shared by all calls of invokeAll, created when it is used for the first time.
+	 */
+	private static class WorkerPool {
+		static final ThreadLocal<Boolean> isWorker = new ThreadLocal<Boolean>() {
+			@Override
+			protected Boolean initialValue() {
+				return false;
+			}
+		};
+		static final ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+			private final AtomicInteger count = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(final Runnable r) {
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						isWorker.set(true);
+						r.run();
+					}
+				}, "mining-worker-" + count.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
 	}
 	
 	/**
@@ -107,44 +328,44 @@ public class MiningTools {
 	 * @return a list of connected components (lists of nodes).
 	 */
 	public static List<List<Integer>> getConnectedComponents(Graph graph, GraphView view) {
-		Map<Integer, Integer> visitedNodes = new HashMap<Integer, Integer>(graph.getNodeCount());
-		List<List<Integer>> connectedComponents = new ArrayList<List<Integer>>();
-		for(Integer nodeID : graph.getNodeIDs()) {
-			if(!visitedNodes.containsKey(nodeID)) {
-				List<Integer> cc = getComponentIDs(nodeID, graph, view, visitedNodes);
-				connectedComponents.add(cc);
-			}
-		}
-		return connectedComponents;
+		return getConnectedComponents(CSRGraph.fromGraph(graph, view));
 	}
 	
-	private static List<Integer> getComponentIDs(int nodeID, Graph graph, GraphView view, Map<Integer, Integer> visitedNodes) {
-		List<Integer> component = new ArrayList<Integer>();
-		LinkedList<Node> queue = new LinkedList<Node>();
-		queue.add(graph.getNode(nodeID));
-		while(!queue.isEmpty()) {
-			Node v = queue.poll();
-			if(!visitedNodes.containsKey(v.getID())) {
-				component.add(v.getID());
-				visitedNodes.put(v.getID(), v.getID());
-				for(Integer id : v.getAdjacentEdgesIDs()) {
-					Edge e = graph.getEdge(id);
-					int otherEndID = e.getOtherEndID(v);
-					if(view != null) {
-						if(view.containsEdgeID(e.getID())) {
-							if(!visitedNodes.containsKey(otherEndID)) {
-								queue.add(graph.getNode(otherEndID));
-							}
-						}
-					} else {
-						if(!visitedNodes.containsKey(otherEndID)) {
-							queue.add(graph.getNode(otherEndID));
-						}
+	/**
+	 * Returns a list of the connected components in the given CSR graph. The components are ordered by their smallest 
+	 * node ID.
+	 * @param graph the graph containing all the nodes.
+	 * @return a list of connected components (lists of node IDs).
+	 */
+	public static List<List<Integer>> getConnectedComponents(CSRGraph graph) {
+		int nodeCount = graph.getNodeCount();
+		int[] offsets = graph.getOffsets();
+		int[] targets = graph.getTargets();
+		boolean[] visited = new boolean[nodeCount];
+		int[] queue = new int[nodeCount];
+		List<List<Integer>> connectedComponents = new ArrayList<List<Integer>>();
+		for(int start = 0; start < nodeCount; start++) {
+			if(visited[start])
+				continue;
+			List<Integer> component = new ArrayList<Integer>();
+			int head = 0;
+			int tail = 0;
+			queue[tail++] = start;
+			visited[start] = true;
+			while(head < tail) {
+				int v = queue[head++];
+				component.add(graph.getNodeID(v));
+				for(int slot = offsets[v]; slot < offsets[v + 1]; slot++) {
+					int w = targets[slot];
+					if(!visited[w]) {
+						visited[w] = true;
+						queue[tail++] = w;
 					}
 				}
 			}
+			connectedComponents.add(component);
 		}
-		return component;
+		return connectedComponents;
 	}
 	
 	/**
@@ -304,13 +525,20 @@ public class MiningTools {
 	 * @return the spatial distance in meters (rounded down).
 	 */
 	public static int getSpaceDistance(Report r1, Report r2) {
+		return getSpaceDistance(r1.getLat(), r1.getLon(), r2.getLat(), r2.getLon());
+	}
+	
+	/**
+	 * Computes the (Haversine) spatial distance in meters between two points given by their coordinates in degrees.
+	 * @param latn1 the latitude of the first point.
+	 * @param longn1 the longitude of the first point.
+	 * @param latn2 the latitude of the second point.
+	 * @param longn2 the longitude of the second point.
+	 * @return the spatial distance in meters (rounded down).
+	 */
+	public static int getSpaceDistance(double latn1, double longn1, double latn2, double longn2) {
 		double R = 6371;
 		
-		double latn1 = r1.getLat();
-		double longn1 = r1.getLon();
-		double latn2 = r2.getLat();
-		double longn2 = r2.getLon();
-		
 		double dLat = Math.toRadians(latn1 - latn2);
 		double dLon = Math.toRadians(longn1 - longn2);
 		double lat1 = Math.toRadians(latn1);
@@ -389,8 +617,12 @@ public class MiningTools {
 		if(keys == null)
 			keys = cache.getKeys();
 		for(Entry<Object, Element> entry : getCacheObjectsAsMap(cache, keys).entrySet()) {
-			if(genericClass.isAssignableFrom(entry.getValue().getClass())) {
-				map.put(entry.getKey(), (T) entry.getValue());
+			// Keys that are not in the cache are mapped to null
+			if(entry.getValue() == null)
+				continue;
+			Object val = entry.getValue().getObjectValue();
+			if(genericClass.isAssignableFrom(val.getClass())) {
+				map.put(entry.getKey(), (T) val);
 			}
 		}
 		return map;
@@ -405,6 +637,43 @@ public class MiningTools {
 		return Arrays.asList(databaseManager.getCacheNames());
 	}
 	
+	/**
+	 * Stores a primitive array in a Terracotta Cache under the keys name_0, name_1, ..., each holding a chunk of at most
+	 * 2^20 entries, so that no single element becomes too large for the cache.
+	 * @param cache the Terracotta Cache to store the array in.
+	 * @param name the prefix of the keys.
+	 * @param array the primitive array to be stored.
+	 */
+	public static void putChunks(Cache cache, String name, Object array) {
+		int length = Array.getLength(array);
+		for (int from = 0, k = 0; from < length; from += cacheChunkSize, k++) {
+			int size = Math.min(cacheChunkSize, length - from);
+			Object chunk = Array.newInstance(array.getClass().getComponentType(), size);
+			System.arraycopy(array, from, chunk, 0, size);
+			cache.put(new Element(name + "_" + k, chunk));
+		}
+	}
+	
+	/**
+	 * Fills a primitive array with the chunks stored by {@link #putChunks(Cache, String, Object)}.
+	 * @param cache the Terracotta Cache containing the chunks.
+	 * @param name the prefix of the keys.
+	 * @param array the primitive array to be filled, whose length must be the one of the stored array.
+	 * @return the filled array.
+	 * @throws IllegalStateException if a chunk is missing in the cache.
+	 */
+	public static Object getChunks(Cache cache, String name, Object array) {
+		int length = Array.getLength(array);
+		for (int from = 0, k = 0; from < length; from += cacheChunkSize, k++) {
+			Element e = cache.get(name + "_" + k);
+			if (e == null)
+				throw new IllegalStateException("Chunk " + k + " of " + name + " is missing in cache " + cache.getName());
+			Object chunk = e.getObjectValue();
+			System.arraycopy(chunk, 0, array, from, Array.getLength(chunk));
+		}
+		return array;
+	}
+	
 	
 	/*
 	 *  -------p1------
@@ -0,0 +1,105 @@
+package de.estadata.mining.util;
+
+import java.util.Arrays;
+
+/**
+ * This class implements a disjoint-set forest over the elements 0, ..., n-1 using union by rank and path compression.
+ *
+ * @author Nicolas Loza
+ *
+ */
+public class UnionFind {
+	private int[] parent;
+	private byte[] rank;
+	private int[] size;
+	private int setCount;
+
+	/**
+	 * Constructs n singleton sets.
+	 * @param n the number of elements.
+	 */
+	public UnionFind(int n) {
+		parent = new int[n];
+		rank = new byte[n];
+		size = new int[n];
+		reset();
+	}
+
+	/**
+	 * Turns every element back into a singleton set.
+	 */
+	public void reset() {
+		for(int i = 0; i < parent.length; i++) {
+			parent[i] = i;
+			size[i] = 1;
+		}
+		Arrays.fill(rank, (byte) 0);
+		setCount = parent.length;
+	}
+
+	/**
+	 * Returns the representative of the set containing an element.
+	 * @param x the element.
+	 * @return the representative of its set.
+	 */
+	public int find(int x) {
+		int root = x;
+		while(parent[root] != root)
+			root = parent[root];
+		while(parent[x] != root) {
+			int next = parent[x];
+			parent[x] = root;
+			x = next;
+		}
+		return root;
+	}
+
+	/**
+	 * Merges the sets containing two elements.
+	 * @param x the first element.
+	 * @param y the second element.
+	 * @return true, if both elements were in different sets, false otherwise.
+	 */
+	public boolean union(int x, int y) {
+		int rootX = find(x);
+		int rootY = find(y);
+		if(rootX == rootY)
+			return false;
+		if(rank[rootX] < rank[rootY]) {
+			int tmp = rootX;
+			rootX = rootY;
+			rootY = tmp;
+		} else if(rank[rootX] == rank[rootY]) {
+			rank[rootX]++;
+		}
+		parent[rootY] = rootX;
+		size[rootX] += size[rootY];
+		setCount--;
+		return true;
+	}
+
+	/**
+	 * Returns the number of elements in the set containing a given element.
+	 * @param x the element.
+	 * @return the size of its set.
+	 */
+	public int getSetSize(int x) {
+		return size[find(x)];
+	}
+
+	/**
+	 * Returns the current number of disjoint sets.
+	 * @return the number of sets.
+	 */
+	public int getSetCount() {
+		return setCount;
+	}
+
+	/**
+	 * Returns the number of elements.
+	 * @return the number of elements.
+	 */
+	public int getSize() {
+		return parent.length;
+	}
+}
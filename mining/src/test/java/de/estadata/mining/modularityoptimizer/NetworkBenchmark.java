@@ -0,0 +1,155 @@
+package de.estadata.mining.modularityoptimizer;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of one iteration of the modularity-based algorithms of {@link Network} on a random graph with planted
+ * communities, as run by every random start of the {@link ModularityOptimizer}. The allocation per iteration is reported
+ * as gc.alloc.rate.norm by the GC profiler, which {@link #main(String[])} enables:
+ * <pre>
+ * mvn test-compile exec:java -Dexec.classpathScope=test -Dexec.mainClass=de.estadata.mining.modularityoptimizer.NetworkBenchmark
+ * </pre>
+ * With sharedWorkspace set to false, every iteration runs through the overloads without a {@link Network.Workspace},
+ * which allocate their arrays on every call, as all algorithms did before workspaces were introduced. With true, all
+ * iterations share one workspace, as the iterations of a random start do.
+ *
+ * @author Nicolas Loza
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx4g" })
+public class NetworkBenchmark {
+
+	@Param({ "200000" })
+	public int nodes;
+
+	@Param({ "5" })
+	public int edgesPerNode;
+
+	@Param({ "LOUVAIN", "SLM", "LEIDEN", "PARALLEL_LOUVAIN" })
+	public ModularityOptimizer.Algorithm algorithm;
+
+	@Param({ "false", "true" })
+	public boolean sharedWorkspace;
+
+	private Network network;
+	private Network.Workspace workspace;
+	private ForkJoinPool pool;
+	private Random random;
+	private double resolution;
+
+	/*
+	 * Links every node to edgesPerNode random nodes, 80% of them in its community of 100 nodes, with weights in [0,1) like
+	 * the Levenshtein similarities of the ST-filtering. Pairs drawn twice are kept once.
+	 */
+	@Setup(Level.Trial)
+	public void createNetwork() {
+		int i, j, k, nArcs, source, target;
+		int[] firstNeighborIndex, neighbor;
+		long[] arc;
+		double[] edgeWeight, nodeWeight;
+		Random random;
+
+		// Both directions of every edge, encoded as source * nodes + target and sorted by source and target
+		random = new Random(42);
+		arc = new long[2 * nodes * edgesPerNode];
+		k = 0;
+		for (i = 0; i < nodes; i++)
+			for (j = 0; j < edgesPerNode; j++) {
+				do {
+					target = (random.nextDouble() < 0.8) ? Math.min((i / 100) * 100 + random.nextInt(100), nodes - 1) : random.nextInt(nodes);
+				} while (target == i);
+				arc[k++] = (long) i * nodes + target;
+				arc[k++] = (long) target * nodes + i;
+			}
+		Arrays.sort(arc);
+
+		firstNeighborIndex = new int[nodes + 1];
+		neighbor = new int[arc.length];
+		edgeWeight = new double[arc.length];
+		nodeWeight = new double[nodes];
+		nArcs = 0;
+		for (k = 0; k < arc.length; k++) {
+			if ((k > 0) && (arc[k] == arc[k - 1]))
+				continue;
+			source = (int) (arc[k] / nodes);
+			target = (int) (arc[k] % nodes);
+			firstNeighborIndex[source + 1]++;
+			neighbor[nArcs] = target;
+			// Both directions get the same weight
+			edgeWeight[nArcs] = new Random((long) Math.min(source, target) * nodes + Math.max(source, target)).nextDouble();
+			nodeWeight[source] += edgeWeight[nArcs];
+			nArcs++;
+		}
+		for (i = 0; i < nodes; i++)
+			firstNeighborIndex[i + 1] += firstNeighborIndex[i];
+
+		network = new Network(nodes, firstNeighborIndex, Arrays.copyOf(neighbor, nArcs), Arrays.copyOf(edgeWeight, nArcs), nodeWeight);
+		resolution = 1 / network.getTotalEdgeWeight();
+		workspace = new Network.Workspace(nodes);
+		pool = new ForkJoinPool();
+	}
+
+	@Setup(Level.Invocation)
+	public void resetClusters() {
+		network.initSingletonClusters();
+		random = new Random(1);
+	}
+
+	@TearDown(Level.Trial)
+	public void shutdownPool() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public double iteration() {
+		if (sharedWorkspace) {
+			if (algorithm == ModularityOptimizer.Algorithm.LOUVAIN)
+				network.runLouvainAlgorithm(resolution, random, workspace);
+			else if (algorithm == ModularityOptimizer.Algorithm.SLM)
+				network.runSmartLocalMovingAlgorithm(resolution, random, workspace);
+			else if (algorithm == ModularityOptimizer.Algorithm.LEIDEN)
+				network.runLeidenAlgorithm(resolution, random, workspace);
+			else
+				network.runParallelLouvainAlgorithm(resolution, random, pool, workspace);
+		} else {
+			if (algorithm == ModularityOptimizer.Algorithm.LOUVAIN)
+				network.runLouvainAlgorithm(resolution, random);
+			else if (algorithm == ModularityOptimizer.Algorithm.SLM)
+				network.runSmartLocalMovingAlgorithm(resolution, random);
+			else if (algorithm == ModularityOptimizer.Algorithm.LEIDEN)
+				network.runLeidenAlgorithm(resolution, random);
+			else
+				network.runParallelLouvainAlgorithm(resolution, random, pool);
+		}
+		return network.calcQualityFunction(resolution);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(NetworkBenchmark.class.getSimpleName()).addProfiler(GCProfiler.class).build()).run();
+	}
+}